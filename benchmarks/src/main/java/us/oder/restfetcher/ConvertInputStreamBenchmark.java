@@ -0,0 +1,54 @@
+package us.oder.restfetcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvertInputStreamBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    @Param({"1024", "65536", "1048576"})
+    public int bodySize;
+
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder( bodySize );
+        int line = 0;
+        while ( builder.length() < bodySize ) {
+            builder.append( "{\"id\":" ).append( line++ ).append( ",\"name\":\"item\"},\n" );
+        }
+        body = builder.substring( 0, bodySize ).getBytes( UTF_8 );
+    }
+
+    @Benchmark
+    public String convertInputStreamToStringUnknownLength() throws IOException {
+        return RestFetcher.convertInputStreamToString( new ByteArrayInputStream( body ) );
+    }
+
+    @Benchmark
+    public String convertInputStreamToStringKnownLength() throws IOException {
+        return RestFetcher.convertInputStreamToString( new ByteArrayInputStream( body ), body.length, UTF_8 );
+    }
+}
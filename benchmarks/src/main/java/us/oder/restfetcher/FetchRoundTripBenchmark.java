@@ -0,0 +1,114 @@
+package us.oder.restfetcher;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full synchronous fetch() round trips against an in-process HTTP server on the loopback interface.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FetchRoundTripBenchmark {
+
+    @Param({"256", "65536"})
+    public int responseSize;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String url;
+    private Map<String, String> headers;
+    private byte[] responseBody;
+    private RestResponse lastResponse;
+
+    private final RestFetcher.OnFetchSuccessListener successListener = new RestFetcher.OnFetchSuccessListener() {
+        @Override
+        public void onFetchSuccess( RestResponse response ) {
+            lastResponse = response;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        StringBuilder builder = new StringBuilder( responseSize );
+        while ( builder.length() < responseSize ) {
+            builder.append( "{\"id\":1,\"name\":\"item\"}," );
+        }
+        responseBody = builder.substring( 0, responseSize ).getBytes( "UTF-8" );
+
+        server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+        server.createContext( "/", new HttpHandler() {
+            @Override
+            public void handle( HttpExchange exchange ) throws IOException {
+                InputStream requestBody = exchange.getRequestBody();
+                byte[] buffer = new byte[4096];
+                while ( requestBody.read( buffer, 0, buffer.length ) != -1 ) {
+                    // drain the request so the connection can be reused
+                }
+                exchange.getResponseHeaders().add( "Content-Type", "application/json; charset=utf-8" );
+                exchange.sendResponseHeaders( 200, responseBody.length );
+                OutputStream out = exchange.getResponseBody();
+                out.write( responseBody );
+                out.close();
+            }
+        } );
+        serverExecutor = Executors.newFixedThreadPool( 4 );
+        server.setExecutor( serverExecutor );
+        server.start();
+
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/items";
+        headers = new HashMap<>();
+        headers.put( RestApiBase.CONTENT_TYPE_KEY, RestApiBase.DEFAULT_CONTENT_TYPE );
+        headers.put( RestApiBase.ACCEPT_KEY, RestApiBase.DEFAULT_ACCEPT );
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.stop( 0 );
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public RestResponse get() {
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, "" );
+        fetcher.onFetchSuccessListener = successListener;
+        fetcher.fetch();
+        return lastResponse;
+    }
+
+    @Benchmark
+    public RestResponse post() {
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.POST, headers, "{\"name\":\"item\",\"count\":3}" );
+        fetcher.onFetchSuccessListener = successListener;
+        fetcher.fetch();
+        return lastResponse;
+    }
+}
@@ -0,0 +1,53 @@
+package us.oder.restfetcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseHeadersBenchmark {
+
+    @Param({"4", "32"})
+    public int headerCount;
+
+    private Map<String, List<String>> headerFields;
+
+    @Setup
+    public void setup() {
+        // shaped like HttpURLConnection.getHeaderFields(): a null key for the status line, some repeated headers
+        headerFields = new HashMap<>();
+        headerFields.put( null, Arrays.asList( "HTTP/1.1 200 OK" ) );
+        for ( int i = 0; i < headerCount; i++ ) {
+            List<String> values = new ArrayList<>();
+            for ( int j = 0; j <= i % 3; j++ ) {
+                values.add( "value-" + i + "-" + j );
+            }
+            headerFields.put( "X-Header-" + i, values );
+        }
+    }
+
+    @Benchmark
+    public RestHeaders extractResponseHeaders() {
+        return RestFetcher.extractResponseHeaders( headerFields );
+    }
+}
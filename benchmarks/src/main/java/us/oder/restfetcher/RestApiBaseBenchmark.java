@@ -0,0 +1,74 @@
+package us.oder.restfetcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestApiBaseBenchmark {
+
+    @Param({"0", "8", "64"})
+    public int argumentCount;
+
+    private QueryRequest request;
+
+    static class QueryRequest extends RestApiBase.Request<RestApiBase.Response> {
+        private final Map<String, String> arguments;
+
+        QueryRequest( Map<String, String> arguments ) {
+            this.arguments = arguments;
+        }
+
+        @Override
+        protected String getApiRoute() {
+            return "/api/v1/items";
+        }
+
+        @Override
+        protected String getApiBaseAddress() {
+            return "https://api.example.com";
+        }
+
+        @Override
+        protected Map<String, String> getQueryArguments() {
+            // like most subclasses, build a fresh map on every call
+            return new HashMap<>( arguments );
+        }
+    }
+
+    @Setup
+    public void setup() {
+        Map<String, String> arguments = new HashMap<>();
+        for ( int i = 0; i < argumentCount; i++ ) {
+            arguments.put( "filter " + i, "value & more " + i );
+        }
+        request = new QueryRequest( arguments );
+    }
+
+    @Benchmark
+    public String getApiResource() {
+        return request.getApiResource();
+    }
+
+    @Benchmark
+    public RestHeaders getHeaders() {
+        return request.getHeaders();
+    }
+}
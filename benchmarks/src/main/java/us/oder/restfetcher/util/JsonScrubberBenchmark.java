@@ -0,0 +1,70 @@
+package us.oder.restfetcher.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonScrubberBenchmark {
+
+    @Param({"10", "1000"})
+    public int itemCount;
+
+    @Param({"2", "8"})
+    public int depth;
+
+    private JsonScrubber scrubber;
+    private String document;
+
+    @Setup
+    public void setup() {
+        scrubber = new JsonScrubber( new String[]{"password", "username", "token", "secret"} );
+        StringBuilder builder = new StringBuilder();
+        builder.append( "{\"username\":\"someone\",\"password\":\"hunter2\",\"items\":[" );
+        for ( int i = 0; i < itemCount; i++ ) {
+            if ( i > 0 ) {
+                builder.append( ',' );
+            }
+            appendNested( builder, i, depth );
+        }
+        builder.append( "]}" );
+        document = builder.toString();
+    }
+
+    private void appendNested( StringBuilder builder, int index, int remainingDepth ) {
+        builder.append( "{\"id\":" ).append( index )
+                .append( ",\"price\":" ).append( index * 1.25 )
+                .append( ",\"token\":\"t-" ).append( index ).append( '"' )
+                .append( ",\"active\":" ).append( index % 2 == 0 );
+        if ( remainingDepth > 0 ) {
+            builder.append( ",\"child\":" );
+            appendNested( builder, index, remainingDepth - 1 );
+        }
+        builder.append( '}' );
+    }
+
+    @Benchmark
+    public String scrub() {
+        return scrubber.scrub( document );
+    }
+
+    @Benchmark
+    public String scrubInvalidJson() {
+        return scrubber.scrub( "username=someone&password=hunter2" );
+    }
+}
@@ -0,0 +1,218 @@
+package us.oder.restfetcher;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+
+import us.oder.restfetcher.util.ContentEncoding;
+
+/**
+ * Streams a response body into a file through a fixed direct buffer, so downloads of any size use
+ * constant memory and binary content arrives intact. Set it as the fetcher's
+ * {@link RestFetcher.IResponseStreamHandler} and send the headers from {@link #applyRangeHeader(Map)}
+ * to resume a partial file: a 206 response is written from its Content-Range offset, anything else
+ * replaces the file.
+ *
+ * <p>While a download is incomplete, the ETag or Last-Modified it started with is kept next to the
+ * file, with {@link #VALIDATOR_SUFFIX} appended to its name, and sent as If-Range when resuming. A
+ * resource that changed in the meantime is then downloaded again in full rather than spliced onto
+ * the old bytes. A partial file without a validator is never resumed.</p>
+ */
+public class FileDownloadHandler implements RestFetcher.IResponseStreamHandler {
+
+    public static final String RANGE_KEY = "Range";
+    public static final String CONTENT_RANGE_KEY = "Content-Range";
+    public static final String CONTENT_LENGTH_KEY = "Content-Length";
+    public static final String IF_RANGE_KEY = "If-Range";
+    public static final String VALIDATOR_SUFFIX = ".validator";
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final File validatorFile;
+    private final int bufferSize;
+    private RestFetcher.IProgressListener progressListener;
+    private volatile long bytesDownloaded;
+    private volatile long totalBytes = -1;
+
+    public FileDownloadHandler( File file ) {
+        this( file, DEFAULT_BUFFER_SIZE );
+    }
+
+    public FileDownloadHandler( File file, int bufferSize ) {
+        this.file = file;
+        this.validatorFile = new File( file.getPath() + VALIDATOR_SUFFIX );
+        this.bufferSize = bufferSize;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public RestFetcher.IProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    public void setProgressListener( RestFetcher.IProgressListener progressListener ) {
+        this.progressListener = progressListener;
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns a copy of the headers asking for the part of the file not downloaded yet. Compression is
+     * turned off, because ranges count bytes of the encoded body and a partial gzip stream can't be
+     * resumed.
+     */
+    public RestHeaders applyRangeHeader( Map<String, String> headers ) {
+        RestHeaders.Builder output = RestHeaders.of( headers ).newBuilder();
+        long existing = file.length();
+        String validator = existing > 0 ? readValidator() : null;
+        if ( validator != null ) {
+            output.set( RANGE_KEY, "bytes=" + existing + "-" );
+            output.set( IF_RANGE_KEY, validator );
+        }
+        output.set( ContentEncoding.ACCEPT_ENCODING_KEY, ContentEncoding.IDENTITY );
+        return output.build();
+    }
+
+    @Override
+    public void onResponseStream( int code, Map<String, String> headers, InputStream stream ) throws IOException {
+        long offset = 0;
+        long total = -1;
+        String contentRange = RestCache.findHeader( headers, CONTENT_RANGE_KEY );
+        if ( code == 206 ) {
+            if ( contentRange == null ) {
+                throw new IOException( "Partial content without Content-Range" );
+            }
+            long[] range = parseContentRange( contentRange );
+            offset = range[0];
+            total = range[1];
+        } else {
+            total = parseLong( RestCache.findHeader( headers, CONTENT_LENGTH_KEY ) );
+            writeValidator( getValidator( headers ) );
+        }
+
+        RandomAccessFile output = new RandomAccessFile( file, "rw" );
+        try {
+            FileChannel channel = output.getChannel();
+            if ( offset > channel.size() ) {
+                throw new IOException( "Range starts at " + offset + " but only " + channel.size() + " bytes are on disk" );
+            }
+            // drop anything past the point the server resumes from, or the whole file on a full response
+            channel.truncate( offset );
+            channel.position( offset );
+            copy( Channels.newChannel( stream ), channel, offset, total );
+        } finally {
+            output.close();
+        }
+        // complete, so there is nothing left to resume
+        validatorFile.delete();
+    }
+
+    /**
+     * @return the strong validator If-Range accepts, or null if the response has none
+     */
+    private static String getValidator( Map<String, String> headers ) {
+        String etag = RestCache.findHeader( headers, RestCache.ETAG_KEY );
+        if ( etag != null && !etag.trim().startsWith( "W/" ) ) {
+            return etag.trim();
+        }
+        return RestCache.findHeader( headers, RestCache.LAST_MODIFIED_KEY );
+    }
+
+    private String readValidator() {
+        if ( !validatorFile.exists() ) {
+            return null;
+        }
+        try {
+            DataInputStream input = new DataInputStream( new FileInputStream( validatorFile ) );
+            try {
+                return input.readUTF();
+            } finally {
+                input.close();
+            }
+        } catch ( IOException e ) {
+            return null;
+        }
+    }
+
+    private void writeValidator( String validator ) throws IOException {
+        if ( validator == null ) {
+            validatorFile.delete();
+            return;
+        }
+        DataOutputStream output = new DataOutputStream( new FileOutputStream( validatorFile ) );
+        try {
+            output.writeUTF( validator );
+        } finally {
+            output.close();
+        }
+    }
+
+    private void copy( ReadableByteChannel in, FileChannel out, long written, long total ) throws IOException {
+        totalBytes = total;
+        bytesDownloaded = written;
+        ByteBuffer buffer = ByteBuffer.allocateDirect( bufferSize );
+        RestFetcher.IProgressListener listener = progressListener;
+        while ( in.read( buffer ) != -1 ) {
+            buffer.flip();
+            while ( buffer.hasRemaining() ) {
+                written += out.write( buffer );
+            }
+            buffer.clear();
+            bytesDownloaded = written;
+            if ( listener != null ) {
+                listener.onProgress( written, total );
+            }
+        }
+    }
+
+    /**
+     * Reads "bytes first-last/total" into {first, total}; total is -1 when given as "*".
+     */
+    static long[] parseContentRange( String contentRange ) throws IOException {
+        String value = contentRange.trim();
+        if ( !value.regionMatches( true, 0, "bytes ", 0, 6 ) ) {
+            throw new IOException( "Unsupported Content-Range: " + contentRange );
+        }
+        int dash = value.indexOf( '-', 6 );
+        int slash = value.indexOf( '/', 6 );
+        if ( dash == -1 || slash == -1 ) {
+            throw new IOException( "Malformed Content-Range: " + contentRange );
+        }
+        try {
+            long first = Long.parseLong( value.substring( 6, dash ).trim() );
+            String total = value.substring( slash + 1 ).trim();
+            return new long[]{first, "*".equals( total ) ? -1 : Long.parseLong( total )};
+        } catch ( NumberFormatException e ) {
+            throw new IOException( "Malformed Content-Range: " + contentRange );
+        }
+    }
+
+    private static long parseLong( String value ) {
+        if ( value == null ) {
+            return -1;
+        }
+        try {
+            return Long.parseLong( value.trim() );
+        } catch ( NumberFormatException e ) {
+            return -1;
+        }
+    }
+}
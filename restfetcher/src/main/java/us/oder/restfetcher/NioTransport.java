@@ -0,0 +1,1187 @@
+package us.oder.restfetcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import us.oder.restfetcher.util.ContentEncoding;
+
+/**
+ * A {@link RestTransport} on non-blocking sockets, so hundreds of requests in flight share a few
+ * threads instead of holding one each. It speaks HTTP/1.1 and keeps idle connections alive per
+ * host; every host is served by one event loop, picked by hashing its address. With
+ * {@link #setPipelining(boolean) pipelining} the GETs to a host share a few connections.
+ *
+ * <p>Only plain http is supported, and only bodies that are already in memory; anything else is
+ * left to HttpURLConnection. Host names are resolved on a separate thread since the lookup
+ * blocks. Redirects are followed like HttpURLConnection follows them, as long as they stay on
+ * http; one to https is answered as it is.</p>
+ */
+public class NioTransport extends RestTransport implements Closeable {
+
+    public static final int DEFAULT_THREAD_COUNT = 2;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = TimeUnit.MINUTES.toMillis( 5 );
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 2;
+    public static final int DEFAULT_MAX_PIPELINE_DEPTH = 8;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_REDIRECTS = 20;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final Charset ISO_8859_1 = Charset.forName( "ISO-8859-1" );
+    private static final String CONTENT_LENGTH_KEY = "Content-Length";
+    private static final String TRANSFER_ENCODING_KEY = "Transfer-Encoding";
+
+    private static final Closeable NO_EXCHANGE = new Closeable() {
+        @Override
+        public void close() {
+        }
+    };
+
+    private final EventLoop[] loops;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private volatile long keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+    private volatile boolean pipelining;
+    private volatile int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    private volatile int maxPipelineDepth = DEFAULT_MAX_PIPELINE_DEPTH;
+    private final ExecutorService resolver;
+    private volatile boolean closed;
+
+    public NioTransport() {
+        this( DEFAULT_THREAD_COUNT, RestFetcher.ConnectionFactory.DEFAULT_CONNECT_TIMEOUT, RestFetcher.ConnectionFactory.DEFAULT_READ_TIMEOUT );
+    }
+
+    /**
+     * @param connectTimeout milliseconds, or 0 to wait as long as the call allows
+     * @param readTimeout    milliseconds without progress writing the request or reading the response,
+     *                       or 0 for no limit
+     */
+    public NioTransport( int threadCount, int connectTimeout, int readTimeout ) {
+        if ( threadCount < 1 ) {
+            throw new IllegalArgumentException( "threadCount < 1" );
+        }
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        loops = new EventLoop[threadCount];
+        for ( int i = 0; i < threadCount; i++ ) {
+            loops[i] = new EventLoop( "NioTransport loop " + i );
+        }
+        resolver = Executors.newCachedThreadPool( new ThreadFactory() {
+            @Override
+            public Thread newThread( Runnable runnable ) {
+                Thread thread = new Thread( runnable, "NioTransport resolver" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    /**
+     * How long an idle connection is kept for the next request to the same host.
+     */
+    public void setKeepAliveMillis( long keepAliveMillis ) {
+        this.keepAliveMillis = keepAliveMillis;
+    }
+
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    /**
+     * Sends the GETs to a host back to back over at most {@link #getMaxConnectionsPerHost()}
+     * connections, without waiting for each response before sending the next; other requests wait
+     * for a connection of their own. A connection is only pipelined once it has answered with
+     * keep-alive, and a host whose pipeline fails, or that closes a connection with requests still
+     * outstanding, goes back to a connection per request with the unanswered requests sent again.
+     */
+    public void setPipelining( boolean pipelining ) {
+        this.pipelining = pipelining;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Only applies while pipelining; otherwise every request that finds no idle connection opens one.
+     */
+    public void setMaxConnectionsPerHost( int maxConnectionsPerHost ) {
+        if ( maxConnectionsPerHost < 1 ) {
+            throw new IllegalArgumentException( "maxConnectionsPerHost < 1" );
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    public int getMaxPipelineDepth() {
+        return maxPipelineDepth;
+    }
+
+    /**
+     * How many requests may be waiting for their response on one connection.
+     */
+    public void setMaxPipelineDepth( int maxPipelineDepth ) {
+        if ( maxPipelineDepth < 1 ) {
+            throw new IllegalArgumentException( "maxPipelineDepth < 1" );
+        }
+        this.maxPipelineDepth = maxPipelineDepth;
+    }
+
+    /**
+     * @return the number of open connections, busy or idle
+     */
+    public int getConnectionCount() {
+        int count = 0;
+        for ( EventLoop loop : loops ) {
+            count += loop.connectionCount;
+        }
+        return count;
+    }
+
+    @Override
+    public boolean canSend( RestRequest request ) {
+        return request.url.regionMatches( true, 0, "http://", 0, 7 )
+                && ( request.body == null || request.body.getBytes() != null );
+    }
+
+    @Override
+    public Closeable send( RestRequest request, ICallback callback ) {
+        Redirects redirects = new Redirects( callback );
+        redirects.send( request );
+        return redirects;
+    }
+
+    private Closeable sendOnce( RestRequest request, ICallback callback ) {
+        if ( closed ) {
+            callback.onFailure( new IOException( "transport is closed" ) );
+            return NO_EXCHANGE;
+        }
+        URL url;
+        try {
+            url = new URL( request.url );
+        } catch ( MalformedURLException e ) {
+            callback.onFailure( e );
+            return NO_EXCHANGE;
+        }
+        String host = url.getHost();
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        String authority = host.toLowerCase( Locale.US ) + ":" + port;
+        // a host always goes to the same loop, so its requests can be grouped onto its connections
+        EventLoop loop = loops[( authority.hashCode() & Integer.MAX_VALUE ) % loops.length];
+        final Exchange exchange = new Exchange( request, url, host, port, authority, loop, callback );
+        try {
+            loop.execute( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        exchange.loop.dispatch( exchange );
+                    } catch ( RuntimeException e ) {
+                        exchange.fail( new IOException( e ) );
+                        throw e;
+                    }
+                }
+            } );
+        } catch ( IOException e ) {
+            exchange.fail( e );
+        }
+        return exchange;
+    }
+
+    /**
+     * Fails the requests in flight and closes every connection.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for ( EventLoop loop : loops ) {
+            loop.shutdown();
+        }
+        resolver.shutdown();
+    }
+
+    /**
+     * @return the request to send for a redirect response, or null if the response is the answer
+     */
+    static RestRequest redirect( RestRequest request, RestResponse response ) {
+        int code = response.code;
+        if ( code != 301 && code != 302 && code != 303 && code != 307 && code != 308 ) {
+            return null;
+        }
+        String location = response.headers.get( "Location" );
+        if ( location == null ) {
+            return null;
+        }
+        URL from;
+        URL to;
+        try {
+            from = new URL( request.url );
+            to = new URL( from, location );
+        } catch ( MalformedURLException e ) {
+            return null;
+        }
+        if ( !"http".equalsIgnoreCase( to.getProtocol() ) ) {
+            return null;
+        }
+        RestRequest.Builder builder = request.newBuilder().url( to.toString() );
+        if ( request.method == RestMethod.POST && code != 307 && code != 308 ) {
+            builder.method( RestMethod.GET, null )
+                    .removeHeader( "Content-Type" )
+                    .removeHeader( ContentEncoding.CONTENT_ENCODING_KEY );
+        }
+        if ( !from.getAuthority().equalsIgnoreCase( to.getAuthority() ) ) {
+            builder.removeHeader( "Host" );
+        }
+        return builder.build();
+    }
+
+    private static long deadline( long timeoutMillis ) {
+        return timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeoutMillis ) : 0;
+    }
+
+    static ByteBuffer encodeHead( RestRequest request, URL url, byte[] body ) {
+        StringBuilder builder = new StringBuilder( 256 );
+        String file = url.getFile();
+        builder.append( request.method ).append( ' ' ).append( file.isEmpty() ? "/" : file ).append( " HTTP/1.1\r\n" );
+        if ( request.headers.get( "Host" ) == null ) {
+            builder.append( "Host: " ).append( url.getHost() );
+            if ( url.getPort() != -1 && url.getPort() != url.getDefaultPort() ) {
+                builder.append( ':' ).append( url.getPort() );
+            }
+            builder.append( "\r\n" );
+        }
+        for ( int i = 0; i < request.headers.getCount(); i++ ) {
+            String name = request.headers.getName( i );
+            // the framing is ours to decide
+            if ( !CONTENT_LENGTH_KEY.equalsIgnoreCase( name ) && !TRANSFER_ENCODING_KEY.equalsIgnoreCase( name ) ) {
+                builder.append( name ).append( ": " ).append( request.headers.getValue( i ) ).append( "\r\n" );
+            }
+        }
+        if ( body != null ) {
+            builder.append( CONTENT_LENGTH_KEY ).append( ": " ).append( body.length ).append( "\r\n" );
+        } else if ( request.method == RestMethod.POST || request.method == RestMethod.PUT ) {
+            builder.append( CONTENT_LENGTH_KEY ).append( ": 0\r\n" );
+        }
+        builder.append( "\r\n" );
+        return ByteBuffer.wrap( builder.toString().getBytes( ISO_8859_1 ) );
+    }
+
+    /**
+     * Sends a request and the ones its redirects lead to, so closing it aborts whichever is in flight.
+     */
+    private final class Redirects implements Closeable, ICallback {
+        private final ICallback callback;
+        private RestRequest request;
+        private int count;
+        private Closeable exchange;
+        private boolean closed;
+
+        Redirects( ICallback callback ) {
+            this.callback = callback;
+        }
+
+        void send( RestRequest request ) {
+            this.request = request;
+            Closeable exchange = sendOnce( request, this );
+            boolean abort;
+            synchronized ( this ) {
+                this.exchange = exchange;
+                abort = closed;
+            }
+            if ( abort ) {
+                closeQuietly( exchange );
+            }
+        }
+
+        @Override
+        public void onResponse( RestResponse response ) {
+            RestRequest next = count < MAX_REDIRECTS ? redirect( request, response ) : null;
+            if ( next == null ) {
+                callback.onResponse( response );
+                return;
+            }
+            synchronized ( this ) {
+                if ( closed ) {
+                    callback.onFailure( new InterruptedIOException( "Canceled" ) );
+                    return;
+                }
+            }
+            count++;
+            send( next );
+        }
+
+        @Override
+        public void onFailure( IOException error ) {
+            callback.onFailure( error );
+        }
+
+        @Override
+        public void close() {
+            Closeable exchange;
+            synchronized ( this ) {
+                closed = true;
+                exchange = this.exchange;
+            }
+            if ( exchange != null ) {
+                closeQuietly( exchange );
+            }
+        }
+    }
+
+    /**
+     * One request and its response. The loop owns everything but {@link #done}.
+     */
+    private static final class Exchange implements Closeable {
+        final RestRequest request;
+        final String host;
+        final int port;
+        final String authority;
+        final EventLoop loop;
+        private final ByteBuffer head;
+        private final ByteBuffer body;
+        private final ICallback callback;
+        private final AtomicBoolean done = new AtomicBoolean();
+        EventLoop.Connection connection;
+        // sent behind other requests on its connection
+        boolean pipelined;
+        boolean retried;
+
+        Exchange( RestRequest request, URL url, String host, int port, String authority, EventLoop loop, ICallback callback ) {
+            this.request = request;
+            this.host = host;
+            this.port = port;
+            this.authority = authority;
+            this.loop = loop;
+            this.callback = callback;
+            byte[] bytes = request.body != null ? request.body.getBytes() : null;
+            head = encodeHead( request, url, bytes );
+            body = bytes != null ? ByteBuffer.wrap( bytes ) : null;
+        }
+
+        /**
+         * @return the request bytes, ready to be written from the start
+         */
+        ByteBuffer[] buffers() {
+            if ( body == null ) {
+                return new ByteBuffer[]{head.duplicate()};
+            }
+            return new ByteBuffer[]{head.duplicate(), body.duplicate()};
+        }
+
+        boolean isDone() {
+            return done.get();
+        }
+
+        void complete( RestResponse response ) {
+            if ( done.compareAndSet( false, true ) ) {
+                try {
+                    callback.onResponse( response );
+                } catch ( RuntimeException e ) {
+                    // a callback that throws only spoils its own exchange, not the loop calling it
+                }
+            }
+        }
+
+        void fail( IOException error ) {
+            if ( done.compareAndSet( false, true ) ) {
+                try {
+                    callback.onFailure( error );
+                } catch ( RuntimeException e ) {
+                    // a callback that throws only spoils its own exchange, not the loop calling it
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if ( isDone() ) {
+                return;
+            }
+            try {
+                loop.execute( new Runnable() {
+                    @Override
+                    public void run() {
+                        loop.abort( Exchange.this );
+                    }
+                } );
+            } catch ( IOException e ) {
+                fail( new InterruptedIOException( "Canceled" ) );
+            }
+        }
+    }
+
+    /**
+     * A selector thread with the connections to the hosts hashed to it.
+     */
+    private final class EventLoop implements Runnable {
+        private final String name;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Map<String, Host> hosts = new HashMap<>();
+        private final Set<Connection> connections = new HashSet<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocate( BUFFER_SIZE );
+        private volatile int connectionCount;
+        private Selector selector;
+        private Thread thread;
+        private boolean stopped;
+
+        EventLoop( String name ) {
+            this.name = name;
+        }
+
+        /**
+         * Runs the task on the loop, starting it on first use.
+         */
+        void execute( Runnable task ) throws IOException {
+            Selector selector;
+            synchronized ( this ) {
+                if ( stopped ) {
+                    throw new IOException( "transport is closed" );
+                }
+                if ( thread == null ) {
+                    this.selector = Selector.open();
+                    thread = new Thread( this, name );
+                    thread.setDaemon( true );
+                    thread.start();
+                }
+                selector = this.selector;
+                // added under the lock, so the loop can't stop without seeing it
+                tasks.add( task );
+            }
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            synchronized ( this ) {
+                if ( thread == null ) {
+                    stopped = true;
+                    return;
+                }
+            }
+            try {
+                execute( new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized ( EventLoop.this ) {
+                            stopped = true;
+                        }
+                    }
+                } );
+            } catch ( IOException e ) {
+                // already stopped
+            }
+        }
+
+        private synchronized boolean isStopped() {
+            return stopped;
+        }
+
+        @Override
+        public void run() {
+            while ( true ) {
+                runTasks();
+                if ( isStopped() ) {
+                    break;
+                }
+                long timeout = expireTimeouts();
+                try {
+                    selector.select( timeout );
+                } catch ( IOException e ) {
+                    synchronized ( this ) {
+                        stopped = true;
+                    }
+                    break;
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while ( keys.hasNext() ) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ( (Connection) key.attachment() ).onReady( key );
+                }
+            }
+            // anything posted while stopping
+            runTasks();
+            IOException error = new IOException( "transport is closed" );
+            for ( Connection connection : new ArrayList<>( connections ) ) {
+                connection.close();
+                for ( Exchange exchange : connection.inFlight ) {
+                    exchange.fail( error );
+                }
+            }
+            for ( Host host : hosts.values() ) {
+                for ( Exchange exchange : host.queue ) {
+                    exchange.fail( error );
+                }
+            }
+            try {
+                selector.close();
+            } catch ( IOException e ) {
+                // nothing more to release
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ( ( task = tasks.poll() ) != null ) {
+                try {
+                    task.run();
+                } catch ( RuntimeException e ) {
+                    // one broken task must not stop the loop serving every other connection
+                }
+            }
+        }
+
+        /**
+         * Fails the exchanges that have been waiting too long and closes connections idle for too long.
+         *
+         * @return how long the selector may sleep, 0 for as long as it likes
+         */
+        private long expireTimeouts() {
+            long now = System.nanoTime();
+            long next = Long.MAX_VALUE;
+            List<Connection> expired = null;
+            for ( Connection connection : connections ) {
+                if ( connection.timeoutAt == 0 ) {
+                    continue;
+                }
+                long remaining = connection.timeoutAt - now;
+                if ( remaining <= 0 ) {
+                    if ( expired == null ) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add( connection );
+                } else {
+                    next = Math.min( next, remaining );
+                }
+            }
+            if ( expired != null ) {
+                for ( Connection connection : expired ) {
+                    try {
+                        connection.onTimeout();
+                    } catch ( RuntimeException e ) {
+                        connection.onFailure( new IOException( e ), false );
+                    }
+                }
+            }
+            return next == Long.MAX_VALUE ? 0 : Math.max( 1, TimeUnit.NANOSECONDS.toMillis( next ) + 1 );
+        }
+
+        private Host getHost( String authority ) {
+            Host host = hosts.get( authority );
+            if ( host == null ) {
+                host = new Host();
+                hosts.put( authority, host );
+            }
+            return host;
+        }
+
+        void dispatch( Exchange exchange ) {
+            if ( exchange.isDone() ) {
+                return;
+            }
+            if ( isStopped() ) {
+                exchange.fail( new IOException( "transport is closed" ) );
+                return;
+            }
+            Host host = getHost( exchange.authority );
+            host.queue.addLast( exchange );
+            drain( host );
+        }
+
+        /**
+         * Sends the host's waiting requests over the connections that can take them, opening new ones
+         * up to the limit.
+         */
+        private void drain( Host host ) {
+            while ( !host.queue.isEmpty() ) {
+                Exchange exchange = host.queue.peekFirst();
+                if ( exchange.isDone() ) {
+                    host.queue.pollFirst();
+                    continue;
+                }
+                Connection connection = host.pick( exchange );
+                if ( connection == null && host.connections.size() >= host.getConnectionLimit() ) {
+                    return;
+                }
+                host.queue.pollFirst();
+                if ( connection == null ) {
+                    connection = new Connection( host );
+                    connection.send( exchange );
+                    resolve( connection, exchange.host, exchange.port );
+                } else {
+                    connection.send( exchange );
+                }
+            }
+        }
+
+        /**
+         * Puts exchanges that were sent but not answered back at the front of their host's queue,
+         * failing those that already had their second chance.
+         */
+        private void requeue( Host host, List<Exchange> exchanges, IOException error ) {
+            for ( int i = exchanges.size() - 1; i >= 0; i-- ) {
+                Exchange exchange = exchanges.get( i );
+                exchange.connection = null;
+                if ( exchange.isDone() ) {
+                    continue;
+                }
+                if ( exchange.retried ) {
+                    exchange.fail( error );
+                } else {
+                    exchange.retried = true;
+                    host.queue.addFirst( exchange );
+                }
+            }
+        }
+
+        private void resolve( final Connection connection, final String hostName, final int port ) {
+            try {
+                resolver.execute( new Runnable() {
+                    @Override
+                    public void run() {
+                        final InetSocketAddress address = new InetSocketAddress( hostName, port );
+                        try {
+                            execute( new Runnable() {
+                                @Override
+                                public void run() {
+                                    connection.connect( address );
+                                }
+                            } );
+                        } catch ( IOException e ) {
+                            // the loop has stopped and failed the connection's exchanges
+                        }
+                    }
+                } );
+            } catch ( RejectedExecutionException e ) {
+                connection.onFailure( new IOException( "transport is closed" ), false );
+            }
+        }
+
+        void abort( Exchange exchange ) {
+            if ( exchange.isDone() ) {
+                return;
+            }
+            exchange.fail( new InterruptedIOException( "Canceled" ) );
+            Connection connection = exchange.connection;
+            if ( connection != null && connection.inFlight.peekFirst() == exchange ) {
+                // its response may never come, so don't keep the requests behind it waiting for it;
+                // further back in a pipeline its response is simply read and dropped
+                connection.inFlight.pollFirst();
+                exchange.connection = null;
+                connection.closeAndRequeue( new InterruptedIOException( "Canceled" ) );
+                drain( connection.host );
+            }
+        }
+
+        /**
+         * The connections to one host and the requests waiting for one.
+         */
+        private final class Host {
+            final ArrayDeque<Exchange> queue = new ArrayDeque<>();
+            final List<Connection> connections = new ArrayList<>();
+            // set once a pipeline has failed, after which the host gets a connection per request
+            boolean pipeliningRefused;
+
+            boolean canPipeline() {
+                return pipelining && !pipeliningRefused;
+            }
+
+            int getConnectionLimit() {
+                return canPipeline() ? maxConnectionsPerHost : Integer.MAX_VALUE;
+            }
+
+            /**
+             * @return the connection to send the exchange on, or null if it has to wait or needs a new one
+             */
+            Connection pick( Exchange exchange ) {
+                Connection best = null;
+                for ( Connection connection : connections ) {
+                    // the most recently used is the least likely to have been closed by the server
+                    if ( connection.isIdle() && ( best == null || connection.idleSince - best.idleSince > 0 ) ) {
+                        best = connection;
+                    }
+                }
+                if ( best != null || !canPipeline() || exchange.request.method != RestMethod.GET ) {
+                    return best;
+                }
+                for ( Connection connection : connections ) {
+                    if ( connection.canPipeline() && ( best == null || connection.inFlight.size() < best.inFlight.size() ) ) {
+                        best = connection;
+                    }
+                }
+                return best;
+            }
+        }
+
+        private final class Connection {
+            final Host host;
+            // sent, or waiting to be written, and answered in this order
+            final ArrayDeque<Exchange> inFlight = new ArrayDeque<>();
+            long timeoutAt;
+            private final ArrayDeque<ByteBuffer> writes = new ArrayDeque<>();
+            private SocketChannel channel;
+            private SelectionKey key;
+            private ResponseParser parser;
+            private long idleSince;
+            private boolean connected;
+            // a response has come back with keep-alive, so requests may be pipelined
+            private boolean confirmed;
+            private boolean closed;
+
+            Connection( Host host ) {
+                this.host = host;
+                host.connections.add( this );
+                connections.add( this );
+                connectionCount = connections.size();
+                timeoutAt = deadline( connectTimeout );
+            }
+
+            boolean isIdle() {
+                return connected && !closed && inFlight.isEmpty();
+            }
+
+            boolean canPipeline() {
+                if ( !confirmed || closed || inFlight.size() >= maxPipelineDepth ) {
+                    return false;
+                }
+                for ( Exchange exchange : inFlight ) {
+                    if ( exchange.request.method != RestMethod.GET ) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            void send( Exchange exchange ) {
+                exchange.connection = this;
+                exchange.pipelined = !inFlight.isEmpty();
+                inFlight.addLast( exchange );
+                Collections.addAll( writes, exchange.buffers() );
+                if ( !connected ) {
+                    return;
+                }
+                if ( !exchange.pipelined ) {
+                    timeoutAt = deadline( readTimeout );
+                }
+                try {
+                    flush();
+                } catch ( IOException e ) {
+                    onFailure( e, true );
+                }
+            }
+
+            void connect( InetSocketAddress address ) {
+                if ( closed ) {
+                    return;
+                }
+                try {
+                    if ( address.isUnresolved() ) {
+                        throw new UnknownHostException( address.getHostName() );
+                    }
+                    channel = SocketChannel.open();
+                    channel.configureBlocking( false );
+                    channel.socket().setTcpNoDelay( true );
+                    key = channel.register( selector, 0, this );
+                    if ( channel.connect( address ) ) {
+                        onConnected();
+                    } else {
+                        key.interestOps( SelectionKey.OP_CONNECT );
+                    }
+                } catch ( IOException e ) {
+                    onFailure( e, false );
+                } catch ( RuntimeException e ) {
+                    onFailure( new IOException( e ), false );
+                }
+            }
+
+            void onReady( SelectionKey key ) {
+                try {
+                    if ( !key.isValid() ) {
+                        return;
+                    }
+                    if ( key.isConnectable() ) {
+                        channel.finishConnect();
+                        onConnected();
+                        return;
+                    }
+                    if ( key.isReadable() ) {
+                        onReadable();
+                    }
+                    if ( !closed && key.isValid() && key.isWritable() ) {
+                        timeoutAt = deadline( readTimeout );
+                        flush();
+                    }
+                } catch ( IOException e ) {
+                    onFailure( e, true );
+                } catch ( RuntimeException e ) {
+                    // a cancelled key or a bug, either way this connection can't be trusted any more
+                    onFailure( new IOException( e ), false );
+                }
+            }
+
+            private void onConnected() throws IOException {
+                connected = true;
+                timeoutAt = deadline( readTimeout );
+                flush();
+            }
+
+            private void flush() throws IOException {
+                while ( !writes.isEmpty() ) {
+                    ByteBuffer buffer = writes.peekFirst();
+                    channel.write( buffer );
+                    if ( buffer.hasRemaining() ) {
+                        break;
+                    }
+                    writes.pollFirst();
+                }
+                // always reading, which is also how an idle connection notices the server closing it
+                key.interestOps( writes.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+            }
+
+            private void onReadable() throws IOException {
+                ByteBuffer buffer = readBuffer;
+                buffer.clear();
+                int read = channel.read( buffer );
+                if ( inFlight.isEmpty() ) {
+                    // nothing was asked, so the server is closing the connection
+                    close();
+                    return;
+                }
+                if ( read == -1 ) {
+                    if ( parser == null || !parser.finishAtEndOfStream() ) {
+                        throw new EOFException( "unexpected end of stream" );
+                    }
+                    complete( false );
+                    return;
+                }
+                buffer.flip();
+                timeoutAt = deadline( readTimeout );
+                while ( buffer.hasRemaining() && !closed ) {
+                    if ( inFlight.isEmpty() ) {
+                        // more than was asked for, the connection can't be trusted
+                        close();
+                        return;
+                    }
+                    if ( parser == null ) {
+                        parser = new ResponseParser();
+                    }
+                    if ( !parser.parse( buffer ) ) {
+                        return;
+                    }
+                    complete( parser.isKeepAlive() );
+                }
+            }
+
+            private void complete( boolean keepAlive ) throws IOException {
+                RestResponse response = parser.toResponse();
+                parser = null;
+                Exchange done = inFlight.pollFirst();
+                done.connection = null;
+                if ( keepAlive ) {
+                    confirmed = true;
+                    if ( inFlight.isEmpty() ) {
+                        idleSince = System.nanoTime();
+                        timeoutAt = deadline( keepAliveMillis );
+                    }
+                } else {
+                    if ( !inFlight.isEmpty() ) {
+                        // requests were pipelined to a server that closes after each response
+                        host.pipeliningRefused = true;
+                    }
+                    closeAndRequeue( new EOFException( "connection closed by server" ) );
+                }
+                done.complete( response );
+                drain( host );
+            }
+
+            void onTimeout() {
+                if ( inFlight.isEmpty() ) {
+                    close();
+                } else {
+                    onFailure( new SocketTimeoutException( connected ? "Read timed out" : "connect timed out" ), false );
+                }
+            }
+
+            /**
+             * Fails the request at the head of the connection and requeues the ones behind it, which
+             * were never answered. A request the server never started answering goes back in the queue
+             * too if it was pipelined, or if the connection was an idle one the server had already
+             * closed and the error came from that; only a GET, or a request not yet fully written, since
+             * the server may have acted on anything else before dropping the connection.
+             */
+            void onFailure( IOException error, boolean retryable ) {
+                boolean unsent = !writes.isEmpty();
+                Exchange head = inFlight.pollFirst();
+                boolean started = parser != null && parser.hasStarted();
+                boolean pipelined = head != null && head.pipelined;
+                for ( Exchange exchange : inFlight ) {
+                    pipelined |= exchange.pipelined;
+                }
+                if ( pipelined ) {
+                    host.pipeliningRefused = true;
+                }
+                if ( head != null ) {
+                    boolean stale = retryable && confirmed && ( head.request.method == RestMethod.GET || unsent );
+                    if ( !started && !head.retried && ( head.pipelined || stale ) ) {
+                        inFlight.addFirst( head );
+                    } else {
+                        head.connection = null;
+                        head.fail( error );
+                    }
+                }
+                closeAndRequeue( error );
+                drain( host );
+            }
+
+            void closeAndRequeue( IOException error ) {
+                close();
+                List<Exchange> unanswered = new ArrayList<>( inFlight );
+                inFlight.clear();
+                requeue( host, unanswered, error );
+            }
+
+            void close() {
+                if ( closed ) {
+                    return;
+                }
+                closed = true;
+                host.connections.remove( this );
+                if ( connections.remove( this ) ) {
+                    connectionCount = connections.size();
+                }
+                writes.clear();
+                if ( key != null ) {
+                    key.cancel();
+                }
+                if ( channel != null ) {
+                    RestTransport.closeQuietly( channel );
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one response as it arrives, in whatever pieces the socket delivers it.
+     */
+    static final class ResponseParser {
+        private static final int STATUS_LINE = 0;
+        private static final int HEADERS = 1;
+        private static final int BODY = 2;
+        private static final int CHUNK_SIZE = 3;
+        private static final int CHUNK_DATA = 4;
+        private static final int CHUNK_END = 5;
+        private static final int TRAILERS = 6;
+        private static final int DONE = 7;
+
+        private final StringBuilder line = new StringBuilder( 128 );
+        private int state = STATUS_LINE;
+        private int code;
+        private boolean http11;
+        private boolean keepAlive;
+        private boolean started;
+        private RestHeaders.Builder headers = new RestHeaders.Builder();
+        private ByteArrayOutputStream body;
+        // body bytes left to read, or -1 to read until the server closes the connection
+        private long remaining;
+
+        /**
+         * @return true once the response is complete, leaving any bytes after it in the buffer
+         */
+        boolean parse( ByteBuffer buffer ) throws IOException {
+            started |= buffer.hasRemaining();
+            while ( state != DONE && buffer.hasRemaining() ) {
+                if ( state == BODY || state == CHUNK_DATA ) {
+                    int count = remaining < 0 ? buffer.remaining() : (int) Math.min( remaining, buffer.remaining() );
+                    body.write( buffer.array(), buffer.arrayOffset() + buffer.position(), count );
+                    buffer.position( buffer.position() + count );
+                    if ( remaining > 0 ) {
+                        remaining -= count;
+                        if ( remaining == 0 ) {
+                            state = state == BODY ? DONE : CHUNK_END;
+                        }
+                    }
+                } else if ( readLine( buffer ) ) {
+                    String text = line.toString();
+                    line.setLength( 0 );
+                    onLine( text );
+                }
+            }
+            return state == DONE;
+        }
+
+        boolean hasStarted() {
+            return started;
+        }
+
+        boolean isKeepAlive() {
+            return keepAlive;
+        }
+
+        /**
+         * @return true if the response ends with the stream, as one without a length does
+         */
+        boolean finishAtEndOfStream() {
+            if ( state == BODY && remaining < 0 ) {
+                state = DONE;
+            }
+            return state == DONE;
+        }
+
+        RestResponse toResponse() throws IOException {
+            RestHeaders responseHeaders = headers.build();
+            String text = "";
+            if ( body != null && body.size() > 0 ) {
+                byte[] bytes = body.toByteArray();
+                text = RestFetcher.convertInputStreamToString(
+                        ContentEncoding.decode( new ByteArrayInputStream( bytes ), responseHeaders.get( ContentEncoding.CONTENT_ENCODING_KEY ) ),
+                        bytes.length,
+                        RestFetcher.charsetFromContentType( responseHeaders.get( RestApiBase.CONTENT_TYPE_KEY ) ) );
+            }
+            return new RestResponse( code, responseHeaders, text );
+        }
+
+        /**
+         * @return true once a whole line, without its line break, is in {@link #line}
+         */
+        private boolean readLine( ByteBuffer buffer ) throws IOException {
+            while ( buffer.hasRemaining() ) {
+                char c = (char) ( buffer.get() & 0xff );
+                if ( c == '\n' ) {
+                    int length = line.length();
+                    if ( length > 0 && line.charAt( length - 1 ) == '\r' ) {
+                        line.setLength( length - 1 );
+                    }
+                    return true;
+                }
+                if ( line.length() == MAX_LINE_LENGTH ) {
+                    throw new IOException( "response line too long" );
+                }
+                line.append( c );
+            }
+            return false;
+        }
+
+        private void onLine( String text ) throws IOException {
+            switch ( state ) {
+                case STATUS_LINE:
+                    if ( !text.startsWith( "HTTP/1." ) || text.length() < 12 ) {
+                        throw new IOException( "unexpected status line: " + text );
+                    }
+                    http11 = text.charAt( 7 ) != '0';
+                    code = (int) parseInt( text.substring( 9, 12 ), 10 );
+                    state = HEADERS;
+                    break;
+                case HEADERS:
+                    if ( text.isEmpty() ) {
+                        onHeadersEnd();
+                    } else {
+                        int colon = text.indexOf( ':' );
+                        if ( colon > 0 ) {
+                            headers.add( text.substring( 0, colon ).trim(), text.substring( colon + 1 ).trim() );
+                        }
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    int extension = text.indexOf( ';' );
+                    long size = parseInt( ( extension == -1 ? text : text.substring( 0, extension ) ).trim(), 16 );
+                    if ( size == 0 ) {
+                        state = TRAILERS;
+                    } else {
+                        remaining = size;
+                        state = CHUNK_DATA;
+                    }
+                    break;
+                case CHUNK_END:
+                    state = CHUNK_SIZE;
+                    break;
+                case TRAILERS:
+                    if ( text.isEmpty() ) {
+                        state = DONE;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+
+        private void onHeadersEnd() throws IOException {
+            if ( code >= 100 && code < 200 ) {
+                // an interim response, the real one follows
+                headers = new RestHeaders.Builder();
+                state = STATUS_LINE;
+                return;
+            }
+            String connection = headers.get( "Connection" );
+            keepAlive = http11 ? !"close".equalsIgnoreCase( connection ) : "keep-alive".equalsIgnoreCase( connection );
+            String transferEncoding = headers.get( TRANSFER_ENCODING_KEY );
+            String contentLength = headers.get( CONTENT_LENGTH_KEY );
+            if ( code == 204 || code == 304 ) {
+                state = DONE;
+            } else if ( transferEncoding != null && transferEncoding.toLowerCase( Locale.US ).contains( "chunked" ) ) {
+                body = new ByteArrayOutputStream();
+                state = CHUNK_SIZE;
+            } else if ( contentLength != null ) {
+                remaining = parseInt( contentLength.trim(), 10 );
+                body = new ByteArrayOutputStream( (int) Math.min( remaining, BUFFER_SIZE * 4 ) );
+                state = remaining == 0 ? DONE : BODY;
+            } else {
+                remaining = -1;
+                keepAlive = false;
+                body = new ByteArrayOutputStream();
+                state = BODY;
+            }
+        }
+
+        private static long parseInt( String text, int radix ) throws IOException {
+            try {
+                long value = Long.parseLong( text, radix );
+                if ( value < 0 ) {
+                    throw new NumberFormatException();
+                }
+                return value;
+            } catch ( NumberFormatException e ) {
+                throw new IOException( "malformed number in response: " + text );
+            }
+        }
+    }
+}
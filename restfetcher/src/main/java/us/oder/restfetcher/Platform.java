@@ -0,0 +1,29 @@
+package us.oder.restfetcher;
+
+/**
+ * Tells Android apart from a plain JVM, so the core only reaches for Android classes where they
+ * work. The API stubs in android.jar throw when called, so a JVM with them on the classpath still
+ * counts as a plain JVM.
+ */
+final class Platform {
+
+    private static final boolean ANDROID = hasMainLooper();
+
+    private Platform() {
+    }
+
+    static boolean isAndroid() {
+        return ANDROID;
+    }
+
+    private static boolean hasMainLooper() {
+        try {
+            Class<?> looper = Class.forName( "android.os.Looper" );
+            return looper.getMethod( "getMainLooper" ).invoke( null ) != null;
+        } catch ( Exception e ) {
+            return false;
+        } catch ( LinkageError e ) {
+            return false;
+        }
+    }
+}
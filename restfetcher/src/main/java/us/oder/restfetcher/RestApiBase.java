@@ -1,11 +1,13 @@
 package us.oder.restfetcher;
 
-import android.support.annotation.NonNull;
-
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+
+import us.oder.restfetcher.util.GsonRegistry;
 
 public class RestApiBase {
     
@@ -14,6 +16,9 @@ public class RestApiBase {
 
     public static final String DEFAULT_CONTENT_TYPE = "application/json";
     public static final String DEFAULT_ACCEPT = "application/json; version=1";
+    public static final RestHeaders DEFAULT_HEADERS = RestHeaders.of(
+            CONTENT_TYPE_KEY, DEFAULT_CONTENT_TYPE,
+            ACCEPT_KEY, DEFAULT_ACCEPT );
 
     public interface OnApiErrorListener {
         void onApiError( RestError error );
@@ -27,13 +32,27 @@ public class RestApiBase {
         RestFetcher createRestFetcher(String url, RestMethod method, Map<String, String> headers, String body);
     }
 
-    public static abstract class Request<T extends Response> implements RestFetcher.OnFetchErrorListener, RestFetcher.OnFetchSuccessListener {
+    public static abstract class Request<T extends Response> implements RestFetcher.OnFetchErrorListener, RestFetcher.OnFetchSuccessListener, RestFetcher.ISuccessPreprocessor {
 
         private RestFetcher fetcher;
         private IRestFetcherFactory restFetcherFactory;
+        private RestDispatcher dispatcher;
+        private RestCache cache;
+        private RestCoalescer coalescer;
+        private RestLogger logger;
+        private RestEventListener eventListener;
+        private RestRetryPolicy retryPolicy;
+        private RestOfflineQueue offlineQueue;
+        private RestTransport transport;
+        private List<RestFetcher.IInterceptor> interceptors;
+        private List<RestFetcher.IInterceptor> networkInterceptors;
 
         private OnApiSuccessListener<T> onApiSuccessListener;
         private OnApiErrorListener onApiErrorListener;
+        private OnApiErrorListener onParseFailureListener;
+
+        private volatile ParsedResponse<T> parsedResponse;
+        private volatile RestFuture<T> future;
 
         public Request() {
             this(new RestFetcherFactory());
@@ -63,47 +82,177 @@ public class RestApiBase {
             this.onApiErrorListener = onApiErrorListener;
         }
 
+        OnApiErrorListener getOnParseFailureListener() {
+            return onParseFailureListener;
+        }
+
+        /**
+         * Told when a successful response can't be parsed, before the exception is thrown on the
+         * callback thread, so a {@link RestBatch} still hears the request end.
+         */
+        void setOnParseFailureListener( OnApiErrorListener onParseFailureListener ) {
+            this.onParseFailureListener = onParseFailureListener;
+        }
+
+        public RestDispatcher getDispatcher() {
+            return dispatcher;
+        }
+
+        public void setDispatcher( RestDispatcher dispatcher ) {
+            this.dispatcher = dispatcher;
+        }
+
+        public RestCache getCache() {
+            return cache;
+        }
+
+        public void setCache( RestCache cache ) {
+            this.cache = cache;
+        }
+
+        public RestCoalescer getCoalescer() {
+            return coalescer;
+        }
+
+        public void setCoalescer( RestCoalescer coalescer ) {
+            this.coalescer = coalescer;
+        }
+
+        public RestLogger getLogger() {
+            return logger;
+        }
+
+        public void setLogger( RestLogger logger ) {
+            this.logger = logger;
+        }
+
+        public RestEventListener getEventListener() {
+            return eventListener;
+        }
+
+        public void setEventListener( RestEventListener eventListener ) {
+            this.eventListener = eventListener;
+        }
+
+        public RestRetryPolicy getRetryPolicy() {
+            return retryPolicy;
+        }
+
+        public void setRetryPolicy( RestRetryPolicy retryPolicy ) {
+            this.retryPolicy = retryPolicy;
+        }
+
+        public RestOfflineQueue getOfflineQueue() {
+            return offlineQueue;
+        }
+
+        public void setOfflineQueue( RestOfflineQueue offlineQueue ) {
+            this.offlineQueue = offlineQueue;
+        }
+
+        public RestTransport getTransport() {
+            return transport;
+        }
+
+        public void setTransport( RestTransport transport ) {
+            this.transport = transport;
+        }
+
+        public void addInterceptor( RestFetcher.IInterceptor interceptor ) {
+            if ( interceptors == null ) {
+                interceptors = new ArrayList<>( 2 );
+            }
+            interceptors.add( interceptor );
+        }
+
+        public void addNetworkInterceptor( RestFetcher.IInterceptor interceptor ) {
+            if ( networkInterceptors == null ) {
+                networkInterceptors = new ArrayList<>( 2 );
+            }
+            networkInterceptors.add( interceptor );
+        }
+
         public String getRequestBody() {
             return "";
         }
 
+        /**
+         * The base address, the route with its {name} placeholders filled from
+         * {@link #getPathParameters()}, and the query, built in one pass.
+         */
         protected String getApiResource() {
-            return getApiBaseAddress() + getApiRoute() + getQueryString();
-        }
-
-        private String getQueryString() {
-            String output = "";
-            boolean firstArg = true;
-            for (String key : getQueryArguments().keySet()) {
-                try {
-                    output += createQueryArgument( key, firstArg );
-                    firstArg = false;
-                } catch ( UnsupportedEncodingException e ) {
-                    // this should NEVER happen, but if it does, just don't add the argument
-                    e.printStackTrace();
-                }
+            RestUrl.Builder builder = new RestUrl.Builder( getApiBaseAddress() );
+            String route = getApiRoute();
+            if ( route.indexOf( '{' ) != -1 ) {
+                builder.path( RestUrl.Template.compile( route ), getPathParameters() );
+            } else {
+                builder.path( route );
             }
-            return output;
+            addQueryParameters( builder );
+            return builder.build();
         }
 
-        @NonNull
-        private String createQueryArgument( String key, boolean isFirstArg ) throws UnsupportedEncodingException {
-            String output = isFirstArg ? "?" : "&";
-            output += URLEncoder.encode( key, "UTF-8" );
-            output += "=";
-            output += URLEncoder.encode( getQueryArguments().get( key ), "UTF-8" );
-            return output;
+        /**
+         * Values for the placeholders in a route like "/users/{id}". Keeping the id out of the route
+         * also groups all such requests under one route in {@link RestMetrics}.
+         */
+        protected Map<String, String> getPathParameters() {
+            return null;
+        }
+
+        /**
+         * Adds {@link #getQueryArguments()}. Override to add a parameter more than once.
+         */
+        protected void addQueryParameters( RestUrl.Builder builder ) {
+            builder.addQueryParameters( getQueryArguments() );
         }
 
         protected RestMethod getRestMethod() {
             return RestMethod.GET;
         }
 
-        protected Map<String, String> getHeaders() {
-            Map<String, String> headers = new HashMap<>();
-            headers.put(CONTENT_TYPE_KEY, DEFAULT_CONTENT_TYPE);
-            headers.put(ACCEPT_KEY, DEFAULT_ACCEPT);
-            return headers;
+        /**
+         * Override to add headers with {@code super.getHeaders().newBuilder()}.
+         */
+        protected RestHeaders getHeaders() {
+            return DEFAULT_HEADERS;
+        }
+
+        /**
+         * Override to consume the response body as a stream, e.g. with a Gson JsonReader, instead of
+         * having it buffered into {@link RestResponse#body}. The handler runs before
+         * {@link #createApiResponse(RestResponse)}, so it can keep whatever it parsed for the response.
+         */
+        protected RestFetcher.IResponseStreamHandler getResponseStreamHandler() {
+            return null;
+        }
+
+        protected int getRequestCompressionThreshold() {
+            return RestFetcher.COMPRESSION_DISABLED;
+        }
+
+        protected int getConnectTimeout() {
+            return RestFetcher.USE_FACTORY_TIMEOUT;
+        }
+
+        protected int getReadTimeout() {
+            return RestFetcher.USE_FACTORY_TIMEOUT;
+        }
+
+        protected long getDeadlineMillis() {
+            return RestCall.NO_DEADLINE;
+        }
+
+        /**
+         * Override to upload a file, stream or generated content instead of {@link #getRequestBody()},
+         * without holding it all in memory.
+         */
+        protected RestRequestBody getStreamingRequestBody() {
+            return null;
+        }
+
+        protected RestFetcher.IProgressListener getUploadProgressListener() {
+            return null;
         }
 
         protected RestFetcher getFetcher() {
@@ -121,36 +270,212 @@ public class RestApiBase {
             fetcher = restFetcherFactory.createRestFetcher( getApiResource(), getRestMethod(), getHeaders(), getRequestBody() );
             fetcher.onFetchErrorListener = this;
             fetcher.onFetchSuccessListener = this;
+            fetcher.successPreprocessor = this;
+            if ( dispatcher != null ) {
+                fetcher.setDispatcher( dispatcher );
+            }
+            if ( cache != null ) {
+                fetcher.setCache( cache );
+            }
+            if ( coalescer != null ) {
+                fetcher.setCoalescer( coalescer );
+            }
+            if ( logger != null ) {
+                fetcher.setLogger( logger );
+            }
+            if ( eventListener != null ) {
+                fetcher.setEventListener( eventListener );
+            }
+            if ( retryPolicy != null ) {
+                fetcher.setRetryPolicy( retryPolicy );
+            }
+            if ( offlineQueue != null ) {
+                fetcher.setOfflineQueue( offlineQueue );
+            }
+            if ( transport != null ) {
+                fetcher.setTransport( transport );
+            }
+            if ( interceptors != null ) {
+                for ( RestFetcher.IInterceptor interceptor : interceptors ) {
+                    fetcher.addInterceptor( interceptor );
+                }
+            }
+            if ( networkInterceptors != null ) {
+                for ( RestFetcher.IInterceptor interceptor : networkInterceptors ) {
+                    fetcher.addNetworkInterceptor( interceptor );
+                }
+            }
+            fetcher.setRoute( getApiRoute() );
+            fetcher.setRequestCompressionThreshold( getRequestCompressionThreshold() );
+            fetcher.setConnectTimeout( getConnectTimeout() );
+            fetcher.setReadTimeout( getReadTimeout() );
+            fetcher.setDeadlineMillis( getDeadlineMillis() );
+            RestRequestBody streamingBody = getStreamingRequestBody();
+            if ( streamingBody != null ) {
+                fetcher.setRequestBody( streamingBody );
+            }
+            fetcher.setUploadProgressListener( getUploadProgressListener() );
+            RestFetcher.IResponseStreamHandler streamHandler = getResponseStreamHandler();
+            if ( streamHandler != null ) {
+                fetcher.setResponseStreamHandler( streamHandler );
+            }
         }
 
         public void fetch() {
             getFetcher().fetch();
         }
 
-        public void fetchAsync() {
-            getFetcher().fetchAsync();
+        public RestCall fetchAsync() {
+            RestFetcher fetcher = getFetcher();
+            fetcher.setCallbackExecutor( null );
+            future = null;
+            return fetcher.fetchAsync();
+        }
+
+        /**
+         * Fetches asynchronously, completing the future on the dispatcher thread that finished the
+         * request, so chained requests never go through the main thread.
+         */
+        public RestFuture<T> fetchFuture() {
+            return fetchFuture( new RestDispatcher.DirectExecutor() );
+        }
+
+        /**
+         * Fetches asynchronously, completing the future on the executor. The listeners are still called,
+         * on the same executor. Cancelling the future cancels the request.
+         */
+        public RestFuture<T> fetchFuture( Executor executor ) {
+            RestFetcher fetcher = getFetcher();
+            fetcher.setCallbackExecutor( executor );
+            RestFuture<T> output = new RestFuture<>();
+            future = output;
+            final RestCall call = fetcher.fetchAsync();
+            output.onCancel( new Runnable() {
+                @Override
+                public void run() {
+                    call.cancel();
+                }
+            } );
+            return output;
+        }
+
+        /**
+         * Cancels the request in flight, if any. Neither listener will be called for it.
+         */
+        public void cancel() {
+            if ( fetcher != null ) {
+                fetcher.cancel();
+            }
+            RestFuture<T> output = future;
+            if ( output != null ) {
+                output.cancel( false );
+            }
         }
 
         @Override
         public void onFetchError( RestError error ) {
+            RestFuture<T> output = future;
+            if ( output != null ) {
+                output.fail( new RestException( error ) );
+            }
             if ( getOnApiErrorListener() != null ) {
                 getOnApiErrorListener().onApiError( error );
             }
         }
 
+        @Override
+        public void preprocessSuccess( RestResponse response ) {
+            if ( getOnApiSuccessListener() == null && future == null ) {
+                return;
+            }
+            long parseStart = System.nanoTime();
+            try {
+                parsedResponse = new ParsedResponse<>( response, createApiResponse( response ), null );
+            } catch ( RuntimeException e ) {
+                parsedResponse = new ParsedResponse<>( response, null, e );
+            }
+            RestEventListener listener = eventListener != null ? eventListener : RestEventListener.getDefault();
+            listener.responseParsed( getApiRoute(), System.nanoTime() - parseStart );
+        }
+
         @Override
         public void onFetchSuccess( RestResponse response ) {
+            RestFuture<T> output = future;
+            if ( getOnApiSuccessListener() == null && output == null ) {
+                return;
+            }
+            T apiResponse;
+            try {
+                apiResponse = takeApiResponse( response );
+            } catch ( RuntimeException e ) {
+                if ( output == null ) {
+                    OnApiErrorListener parseFailureListener = getOnParseFailureListener();
+                    if ( parseFailureListener != null ) {
+                        parseFailureListener.onApiError( new RestError( response.code, "Could not parse response: " + e ) );
+                    }
+                    throw e;
+                }
+                output.fail( e );
+                return;
+            }
+            if ( output != null ) {
+                output.complete( apiResponse );
+            }
             if ( getOnApiSuccessListener() != null ) {
-                T apiResponse = createApiResponse( response );
                 onApiSuccessListener.onApiSuccess( apiResponse );
             }
         }
 
+        private T takeApiResponse( RestResponse response ) {
+            ParsedResponse<T> parsed = parsedResponse;
+            if ( parsed == null || parsed.restResponse != response ) {
+                return createApiResponse( response );
+            }
+            parsedResponse = null;
+            if ( parsed.failure != null ) {
+                // surface parse failures on the callback thread, as if the response had been parsed there
+                throw parsed.failure;
+            }
+            return parsed.apiResponse;
+        }
+
         protected Map<String, String> getQueryArguments() {
             return new HashMap<>();
         }
     }
 
+    /**
+     * Downloads the response body into a file instead of {@link RestResponse#body}, resuming from
+     * whatever is already in the file.
+     */
+    public static abstract class DownloadRequest extends Request<Response> {
+
+        private final FileDownloadHandler downloadHandler;
+
+        public DownloadRequest( File file ) {
+            this( file, new RestFetcherFactory() );
+        }
+
+        public DownloadRequest( File file, IRestFetcherFactory restFetcherFactory ) {
+            super( restFetcherFactory );
+            this.downloadHandler = new FileDownloadHandler( file );
+        }
+
+        public FileDownloadHandler getDownloadHandler() {
+            return downloadHandler;
+        }
+
+        @Override
+        protected RestHeaders getHeaders() {
+            return downloadHandler.applyRangeHeader( super.getHeaders() );
+        }
+
+        @Override
+        protected RestFetcher.IResponseStreamHandler getResponseStreamHandler() {
+            return downloadHandler;
+        }
+    }
+
     public static class Response {
 
         public RestResponse restResponse;
@@ -162,6 +487,22 @@ public class RestApiBase {
 
         protected void processResponse(RestResponse response){
         }
+
+        protected <B> B parseJson( Class<B> type ) {
+            return GsonRegistry.fromJson( restResponse.body, type );
+        }
+    }
+
+    private static class ParsedResponse<T> {
+        final RestResponse restResponse;
+        final T apiResponse;
+        final RuntimeException failure;
+
+        ParsedResponse( RestResponse restResponse, T apiResponse, RuntimeException failure ) {
+            this.restResponse = restResponse;
+            this.apiResponse = apiResponse;
+            this.failure = failure;
+        }
     }
 
     private static class RestFetcherFactory implements IRestFetcherFactory {
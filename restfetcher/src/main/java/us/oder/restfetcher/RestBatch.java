@@ -0,0 +1,267 @@
+package us.oder.restfetcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a group of requests concurrently, at most {@link #getMaxParallelism()} at a time, and calls
+ * {@link OnBatchCompleteListener} once when all of them are done. Listeners already set on the
+ * requests are still called, and are put back as each request finishes or is cancelled. A response
+ * that can't be parsed counts as an error.
+ */
+public class RestBatch {
+
+    public static final int DEFAULT_MAX_PARALLELISM = RestDispatcher.DEFAULT_MAX_REQUESTS_PER_HOST;
+
+    public interface OnBatchCompleteListener {
+        /**
+         * @param results one per request, in the order they were added
+         */
+        void onBatchComplete( List<Result> results );
+    }
+
+    public static class Result {
+        public final RestApiBase.Request<?> request;
+        public final RestApiBase.Response response;
+        public final RestError error;
+        private final boolean cancelled;
+
+        public Result( RestApiBase.Request<?> request, RestApiBase.Response response, RestError error ) {
+            this( request, response, error, false );
+        }
+
+        Result( RestApiBase.Request<?> request, RestApiBase.Response response, RestError error, boolean cancelled ) {
+            this.request = request;
+            this.response = response;
+            this.error = error;
+            this.cancelled = cancelled;
+        }
+
+        public boolean isSuccess() {
+            return error == null && response != null;
+        }
+
+        /**
+         * True for requests that were never started because the batch failed fast.
+         */
+        public boolean isSkipped() {
+            return error == null && response == null && !cancelled;
+        }
+
+        /**
+         * True for requests that were still running when the batch failed fast, and were cancelled.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final List<RestApiBase.Request<?>> requests = new ArrayList<>();
+    private int maxParallelism = DEFAULT_MAX_PARALLELISM;
+    private boolean failFast;
+    private OnBatchCompleteListener onBatchCompleteListener;
+
+    private Result[] results;
+    // put each started request's own listeners back
+    private Runnable[] restorers;
+    private int nextIndex;
+    private int completedCount;
+    private boolean started;
+    private boolean finished;
+
+    /**
+     * @return the index of the request's result
+     */
+    public synchronized int add( RestApiBase.Request<?> request ) {
+        if ( started ) {
+            throw new IllegalStateException( "batch already executed" );
+        }
+        requests.add( request );
+        return requests.size() - 1;
+    }
+
+    public synchronized int size() {
+        return requests.size();
+    }
+
+    public synchronized int getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    public synchronized void setMaxParallelism( int maxParallelism ) {
+        if ( maxParallelism < 1 ) {
+            throw new IllegalArgumentException( "max < 1: " + maxParallelism );
+        }
+        this.maxParallelism = maxParallelism;
+    }
+
+    public synchronized boolean isFailFast() {
+        return failFast;
+    }
+
+    /**
+     * When set, the first error completes the batch: requests not yet started are skipped and the
+     * ones still running are cancelled.
+     */
+    public synchronized void setFailFast( boolean failFast ) {
+        this.failFast = failFast;
+    }
+
+    public synchronized OnBatchCompleteListener getOnBatchCompleteListener() {
+        return onBatchCompleteListener;
+    }
+
+    public synchronized void setOnBatchCompleteListener( OnBatchCompleteListener onBatchCompleteListener ) {
+        this.onBatchCompleteListener = onBatchCompleteListener;
+    }
+
+    /**
+     * Starts the requests with {@link RestApiBase.Request#fetchAsync()}. The completion listener is
+     * called on the callback thread of whichever request finishes the batch.
+     */
+    public void execute() {
+        List<Integer> toStart = new ArrayList<>();
+        synchronized ( this ) {
+            if ( started ) {
+                throw new IllegalStateException( "batch already executed" );
+            }
+            started = true;
+            results = new Result[requests.size()];
+            restorers = new Runnable[requests.size()];
+            while ( nextIndex < requests.size() && toStart.size() < maxParallelism ) {
+                toStart.add( nextIndex++ );
+            }
+            finished = requests.isEmpty();
+        }
+        if ( toStart.isEmpty() ) {
+            deliver( Collections.<Result>emptyList() );
+            return;
+        }
+        for ( int index : toStart ) {
+            start( requests.get( index ), index );
+        }
+    }
+
+    private <T extends RestApiBase.Response> void start( final RestApiBase.Request<T> request, final int index ) {
+        final RestApiBase.OnApiSuccessListener<T> successListener = request.getOnApiSuccessListener();
+        final RestApiBase.OnApiErrorListener errorListener = request.getOnApiErrorListener();
+        final RestApiBase.OnApiErrorListener parseFailureListener = request.getOnParseFailureListener();
+        final Runnable restorer = new Runnable() {
+            @Override
+            public void run() {
+                request.setOnApiSuccessListener( successListener );
+                request.setOnApiErrorListener( errorListener );
+                request.setOnParseFailureListener( parseFailureListener );
+            }
+        };
+        synchronized ( this ) {
+            if ( finished ) {
+                return;
+            }
+        }
+        request.setOnApiSuccessListener( new RestApiBase.OnApiSuccessListener<T>() {
+            @Override
+            public void onApiSuccess( T response ) {
+                restorer.run();
+                if ( successListener != null ) {
+                    successListener.onApiSuccess( response );
+                }
+                onRequestComplete( index, new Result( request, response, null ) );
+            }
+        } );
+        request.setOnApiErrorListener( new RestApiBase.OnApiErrorListener() {
+            @Override
+            public void onApiError( RestError error ) {
+                restorer.run();
+                if ( errorListener != null ) {
+                    errorListener.onApiError( error );
+                }
+                onRequestComplete( index, new Result( request, null, error ) );
+            }
+        } );
+        request.setOnParseFailureListener( new RestApiBase.OnApiErrorListener() {
+            @Override
+            public void onApiError( RestError error ) {
+                restorer.run();
+                if ( parseFailureListener != null ) {
+                    parseFailureListener.onApiError( error );
+                }
+                onRequestComplete( index, new Result( request, null, error ) );
+            }
+        } );
+        request.fetchAsync();
+        synchronized ( this ) {
+            if ( !finished ) {
+                // from here on the batch cancels it if it fails fast
+                restorers[index] = restorer;
+                return;
+            }
+            if ( results[index] != null ) {
+                // it finished the batch itself
+                return;
+            }
+        }
+        // the batch failed fast while it was being started
+        restorer.run();
+        request.cancel();
+    }
+
+    private void onRequestComplete( int index, Result result ) {
+        int next = -1;
+        List<Result> output = null;
+        List<Integer> toCancel = null;
+        synchronized ( this ) {
+            if ( finished ) {
+                return;
+            }
+            results[index] = result;
+            completedCount++;
+            if ( completedCount == requests.size() || ( failFast && result.error != null ) ) {
+                finished = true;
+                toCancel = new ArrayList<>();
+                output = snapshotResults( toCancel );
+            } else if ( nextIndex < requests.size() ) {
+                next = nextIndex++;
+            }
+        }
+        if ( next != -1 ) {
+            start( requests.get( next ), next );
+        }
+        if ( toCancel != null ) {
+            for ( int i : toCancel ) {
+                // a cancelled request calls none of the wrappers, which would otherwise stay installed
+                restorers[i].run();
+                requests.get( i ).cancel();
+            }
+        }
+        if ( output != null ) {
+            deliver( output );
+        }
+    }
+
+    /**
+     * @param running collects the indexes of the requests that were started but haven't finished
+     */
+    private List<Result> snapshotResults( List<Integer> running ) {
+        Result[] output = Arrays.copyOf( results, results.length );
+        for ( int i = 0; i < output.length; i++ ) {
+            if ( output[i] == null ) {
+                boolean inFlight = i < nextIndex;
+                if ( restorers[i] != null ) {
+                    running.add( i );
+                }
+                output[i] = new Result( requests.get( i ), null, null, inFlight );
+            }
+        }
+        return Collections.unmodifiableList( Arrays.asList( output ) );
+    }
+
+    private void deliver( List<Result> output ) {
+        OnBatchCompleteListener listener = getOnBatchCompleteListener();
+        if ( listener != null ) {
+            listener.onBatchComplete( output );
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package us.oder.restfetcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class RestCache {
+
+    public static final String ETAG_KEY = "ETag";
+    public static final String LAST_MODIFIED_KEY = "Last-Modified";
+    public static final String CACHE_CONTROL_KEY = "Cache-Control";
+    public static final String IF_NONE_MATCH_KEY = "If-None-Match";
+    public static final String IF_MODIFIED_SINCE_KEY = "If-Modified-Since";
+    public static final String VARY_KEY = "Vary";
+
+    public static final int HTTP_NOT_MODIFIED = 304;
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+    private static final int DISK_FORMAT_VERSION = 1;
+
+    // request headers that tell users apart, so they are part of every key
+    private static final String[] KEYED_REQUEST_HEADERS = { "Authorization", "Cookie" };
+    // responses varying on anything else could be served to a request they don't match, so they aren't stored
+    private static final String[] CACHEABLE_VARY_FIELDS = { "Accept-Encoding", "Authorization", "Cookie" };
+
+    private static RestCache defaultCache;
+
+    private final long maxMemorySize;
+    private final File directory;
+    private final long maxDiskSize;
+
+    private final LinkedHashMap<String, Entry> memoryEntries = new LinkedHashMap<>( 16, 0.75f, true );
+    private long memorySize;
+    private long diskSize = -1;
+
+    private int hitCount;
+    private int revalidatedCount;
+    private int missCount;
+
+    public RestCache( long maxMemorySize ) {
+        this( maxMemorySize, null, 0 );
+    }
+
+    public RestCache( long maxMemorySize, File directory, long maxDiskSize ) {
+        this.maxMemorySize = maxMemorySize;
+        this.directory = directory;
+        this.maxDiskSize = maxDiskSize;
+    }
+
+    public static synchronized RestCache getDefault() {
+        return defaultCache;
+    }
+
+    public static synchronized void setDefault( RestCache cache ) {
+        defaultCache = cache;
+    }
+
+    /**
+     * The key for a request: its url, plus the credentials it sends, so requests made for different
+     * users never share an entry.
+     */
+    public static String createKey( String url, Map<String, String> requestHeaders ) {
+        if ( requestHeaders == null ) {
+            return url;
+        }
+        StringBuilder builder = null;
+        for ( String name : KEYED_REQUEST_HEADERS ) {
+            String value = findHeader( requestHeaders, name );
+            if ( value != null ) {
+                if ( builder == null ) {
+                    builder = new StringBuilder( url );
+                }
+                builder.append( '\n' ).append( name ).append( ':' ).append( value );
+            }
+        }
+        return builder == null ? url : builder.toString();
+    }
+
+    public synchronized Entry get( String key ) {
+        Entry entry = memoryEntries.get( key );
+        if ( entry == null && directory != null ) {
+            entry = readFromDisk( key );
+            if ( entry != null ) {
+                putInMemory( key, entry );
+            }
+        }
+        if ( entry == null ) {
+            missCount++;
+        }
+        return entry;
+    }
+
+    public synchronized void put( String key, RestResponse response ) {
+        if ( response.code < 200 || response.code > 299 ) {
+            return;
+        }
+        Entry entry = Entry.fromResponse( response, System.currentTimeMillis() );
+        if ( entry == null ) {
+            remove( key );
+            return;
+        }
+        putInMemory( key, entry );
+        writeToDisk( key, entry );
+    }
+
+    public synchronized void remove( String key ) {
+        Entry removed = memoryEntries.remove( key );
+        if ( removed != null ) {
+            memorySize -= removed.size();
+        }
+        if ( directory != null ) {
+            File file = fileFor( key );
+            long length = file.length();
+            if ( file.delete() && diskSize >= 0 ) {
+                diskSize -= length;
+            }
+        }
+    }
+
+    public synchronized void evictAll() {
+        memoryEntries.clear();
+        memorySize = 0;
+        if ( directory != null ) {
+            File[] files = directory.listFiles();
+            if ( files != null ) {
+                for ( File file : files ) {
+                    file.delete();
+                }
+            }
+            diskSize = 0;
+        }
+    }
+
+    /**
+     * Resolves a network response against the entry that was used to make it conditional. A 304 is
+     * turned into the cached response with its freshness refreshed; anything else replaces the entry.
+     */
+    public synchronized RestResponse update( String key, Entry cached, RestResponse response ) {
+        if ( response.code == HTTP_NOT_MODIFIED && cached != null ) {
+            revalidatedCount++;
+            Entry refreshed = cached.revalidate( response.headers, System.currentTimeMillis() );
+            putInMemory( key, refreshed );
+            writeToDisk( key, refreshed );
+            return refreshed.toRestResponse();
+        }
+        put( key, response );
+        return response;
+    }
+
+    synchronized void recordHit() {
+        hitCount++;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getRevalidatedCount() {
+        return revalidatedCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getMemorySize() {
+        return memorySize;
+    }
+
+    public synchronized long getDiskSize() {
+        ensureDiskSize();
+        return diskSize;
+    }
+
+    private void putInMemory( String key, Entry entry ) {
+        Entry previous = memoryEntries.put( key, entry );
+        if ( previous != null ) {
+            memorySize -= previous.size();
+        }
+        memorySize += entry.size();
+        Iterator<Map.Entry<String, Entry>> iterator = memoryEntries.entrySet().iterator();
+        while ( memorySize > maxMemorySize && iterator.hasNext() ) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            memorySize -= eldest.size();
+        }
+    }
+
+    private Entry readFromDisk( String key ) {
+        File file = fileFor( key );
+        if ( !file.exists() ) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+            if ( in.readInt() != DISK_FORMAT_VERSION || !key.equals( in.readUTF() ) ) {
+                return null;
+            }
+            Entry entry = Entry.read( in );
+            file.setLastModified( System.currentTimeMillis() );
+            return entry;
+        } catch ( IOException e ) {
+            // a corrupt entry is as good as a miss
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly( in );
+        }
+    }
+
+    private void writeToDisk( String key, Entry entry ) {
+        if ( directory == null || entry.size() > maxDiskSize ) {
+            return;
+        }
+        ensureDiskSize();
+        File file = fileFor( key );
+        diskSize -= file.length();
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+            out.writeInt( DISK_FORMAT_VERSION );
+            out.writeUTF( key );
+            entry.write( out );
+            out.close();
+            out = null;
+            diskSize += file.length();
+        } catch ( IOException e ) {
+            closeQuietly( out );
+            file.delete();
+            return;
+        }
+        trimDisk();
+    }
+
+    private void trimDisk() {
+        if ( diskSize <= maxDiskSize ) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if ( files == null ) {
+            return;
+        }
+        Arrays.sort( files, new Comparator<File>() {
+            @Override
+            public int compare( File lhs, File rhs ) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : ( l == r ? 0 : 1 );
+            }
+        } );
+        for ( int i = 0; i < files.length && diskSize > maxDiskSize; i++ ) {
+            long length = files[i].length();
+            if ( files[i].delete() ) {
+                diskSize -= length;
+            }
+        }
+    }
+
+    private void ensureDiskSize() {
+        if ( diskSize >= 0 || directory == null ) {
+            return;
+        }
+        if ( !directory.exists() ) {
+            directory.mkdirs();
+        }
+        diskSize = 0;
+        File[] files = directory.listFiles();
+        if ( files != null ) {
+            for ( File file : files ) {
+                diskSize += file.length();
+            }
+        }
+    }
+
+    private File fileFor( String key ) {
+        return new File( directory, hash( key ) );
+    }
+
+    private static String hash( String key ) {
+        try {
+            byte[] digest = MessageDigest.getInstance( "MD5" ).digest( key.getBytes( UTF_8 ) );
+            StringBuilder builder = new StringBuilder( digest.length * 2 );
+            for ( byte b : digest ) {
+                builder.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) );
+                builder.append( Character.forDigit( b & 0xf, 16 ) );
+            }
+            return builder.toString();
+        } catch ( NoSuchAlgorithmException e ) {
+            return Integer.toHexString( key.hashCode() );
+        }
+    }
+
+    private static void closeQuietly( Closeable closeable ) {
+        if ( closeable != null ) {
+            try {
+                closeable.close();
+            } catch ( IOException e ) {
+                // nothing to do
+            }
+        }
+    }
+
+    static String findHeader( Map<String, String> headers, String name ) {
+        if ( headers instanceof RestHeaders ) {
+            return ( (RestHeaders) headers ).get( name );
+        }
+        for ( Map.Entry<String, String> header : headers.entrySet() ) {
+            if ( name.equalsIgnoreCase( header.getKey() ) ) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    public static class Entry {
+        public final int code;
+        public final RestHeaders headers;
+        public final String body;
+        public final String etag;
+        public final String lastModified;
+        public final long receivedAt;
+        public final long maxAgeMillis;
+
+        Entry( int code, RestHeaders headers, String body, String etag, String lastModified, long receivedAt, long maxAgeMillis ) {
+            this.code = code;
+            this.headers = headers;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.receivedAt = receivedAt;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+
+        static Entry fromResponse( RestResponse response, long now ) {
+            String cacheControl = findHeader( response.headers, CACHE_CONTROL_KEY );
+            if ( hasDirective( cacheControl, "no-store" ) || !hasCacheableVary( findHeader( response.headers, VARY_KEY ) ) ) {
+                return null;
+            }
+            long maxAge = hasDirective( cacheControl, "no-cache" ) ? 0 : parseMaxAgeMillis( cacheControl );
+            String etag = findHeader( response.headers, ETAG_KEY );
+            String lastModified = findHeader( response.headers, LAST_MODIFIED_KEY );
+            if ( maxAge <= 0 && etag == null && lastModified == null ) {
+                return null;
+            }
+            return new Entry( response.code, response.headers, response.body, etag, lastModified, now, maxAge );
+        }
+
+        Entry revalidate( RestHeaders notModifiedHeaders, long now ) {
+            RestHeaders.Builder builder = headers.newBuilder();
+            for ( String name : notModifiedHeaders.names() ) {
+                builder.remove( name );
+                for ( String value : notModifiedHeaders.values( name ) ) {
+                    builder.add( name, value );
+                }
+            }
+            RestHeaders merged = builder.build();
+            String cacheControl = findHeader( merged, CACHE_CONTROL_KEY );
+            long maxAge = hasDirective( cacheControl, "no-cache" ) ? 0 : parseMaxAgeMillis( cacheControl );
+            String newEtag = findHeader( notModifiedHeaders, ETAG_KEY );
+            String newLastModified = findHeader( notModifiedHeaders, LAST_MODIFIED_KEY );
+            return new Entry( code, merged, body, newEtag != null ? newEtag : etag,
+                    newLastModified != null ? newLastModified : lastModified, now, maxAge );
+        }
+
+        public boolean isFresh( long now ) {
+            return now - receivedAt < maxAgeMillis;
+        }
+
+        public boolean isFresh() {
+            return isFresh( System.currentTimeMillis() );
+        }
+
+        public RestResponse toRestResponse() {
+            return new RestResponse( code, headers, body );
+        }
+
+        long size() {
+            long size = body.length() * 2;
+            for ( int i = 0; i < headers.getCount(); i++ ) {
+                size += ( headers.getName( i ).length() + headers.getValue( i ).length() ) * 2;
+            }
+            return size;
+        }
+
+        void write( DataOutputStream out ) throws IOException {
+            out.writeInt( code );
+            out.writeLong( receivedAt );
+            out.writeLong( maxAgeMillis );
+            writeNullable( out, etag );
+            writeNullable( out, lastModified );
+            out.writeInt( headers.getCount() );
+            for ( int i = 0; i < headers.getCount(); i++ ) {
+                out.writeUTF( headers.getName( i ) );
+                writeNullable( out, headers.getValue( i ) );
+            }
+            byte[] bodyBytes = body.getBytes( UTF_8 );
+            out.writeInt( bodyBytes.length );
+            out.write( bodyBytes );
+        }
+
+        static Entry read( DataInputStream in ) throws IOException {
+            int code = in.readInt();
+            long receivedAt = in.readLong();
+            long maxAge = in.readLong();
+            String etag = readNullable( in );
+            String lastModified = readNullable( in );
+            int headerCount = in.readInt();
+            RestHeaders.Builder headers = new RestHeaders.Builder();
+            for ( int i = 0; i < headerCount; i++ ) {
+                String name = in.readUTF();
+                String value = readNullable( in );
+                if ( value != null ) {
+                    headers.add( name, value );
+                }
+            }
+            byte[] bodyBytes = new byte[in.readInt()];
+            in.readFully( bodyBytes );
+            return new Entry( code, headers.build(), new String( bodyBytes, UTF_8 ), etag, lastModified, receivedAt, maxAge );
+        }
+
+        private static void writeNullable( DataOutputStream out, String value ) throws IOException {
+            out.writeBoolean( value != null );
+            if ( value != null ) {
+                out.writeUTF( value );
+            }
+        }
+
+        private static String readNullable( DataInputStream in ) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+
+        private static boolean hasCacheableVary( String vary ) {
+            if ( vary == null ) {
+                return true;
+            }
+            for ( String field : vary.split( "," ) ) {
+                String trimmed = field.trim();
+                if ( !trimmed.isEmpty() && !isCacheableVaryField( trimmed ) ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isCacheableVaryField( String field ) {
+            for ( String cacheable : CACHEABLE_VARY_FIELDS ) {
+                if ( cacheable.equalsIgnoreCase( field ) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean hasDirective( String cacheControl, String directive ) {
+            if ( cacheControl == null ) {
+                return false;
+            }
+            for ( String part : cacheControl.split( "[,;]" ) ) {
+                if ( part.trim().equalsIgnoreCase( directive ) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static long parseMaxAgeMillis( String cacheControl ) {
+            if ( cacheControl == null ) {
+                return 0;
+            }
+            for ( String part : cacheControl.split( "[,;]" ) ) {
+                String trimmed = part.trim();
+                if ( trimmed.regionMatches( true, 0, "max-age=", 0, 8 ) ) {
+                    try {
+                        return Long.parseLong( trimmed.substring( 8 ).replace( "\"", "" ).trim() ) * 1000L;
+                    } catch ( NumberFormatException e ) {
+                        return 0;
+                    }
+                }
+            }
+            return 0;
+        }
+    }
+}
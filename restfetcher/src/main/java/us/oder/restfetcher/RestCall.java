@@ -0,0 +1,201 @@
+package us.oder.restfetcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A handle on one execution of a {@link RestFetcher}. Cancelling it disconnects the connection in
+ * use, or closes the exchange of its {@link RestTransport}, which aborts a blocked connect or read,
+ * stops any further retries and suppresses the listeners. A call with a deadline is aborted the
+ * same way when the deadline passes, but is then reported to the error listener like any other
+ * connection failure.
+ *
+ * <p>Cancelling the leader of coalesced requests aborts the shared request, so the requests waiting
+ * on it get an error.</p>
+ */
+public class RestCall {
+
+    public static final long NO_DEADLINE = 0;
+
+    private static ScheduledExecutorService watchdog;
+
+    private final long deadlineNanos;
+    private volatile boolean cancelled;
+    private volatile boolean deadlineExceeded;
+    private volatile boolean queuedOffline;
+    private volatile boolean sent;
+    private HttpURLConnection connection;
+    private Closeable exchange;
+    private ScheduledFuture<?> watchdogTask;
+
+    /**
+     * @param deadlineMillis how long the whole call, including queueing and retries, may take, or
+     *                       {@link #NO_DEADLINE}
+     */
+    RestCall( long deadlineMillis ) {
+        if ( deadlineMillis > 0 ) {
+            deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( deadlineMillis );
+            watchdogTask = getWatchdog().schedule( new Runnable() {
+                @Override
+                public void run() {
+                    expire();
+                }
+            }, deadlineMillis, TimeUnit.MILLISECONDS );
+        } else {
+            deadlineNanos = 0;
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+        abort();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDeadlineExceeded() {
+        return deadlineExceeded || ( deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0 );
+    }
+
+    /**
+     * True if the call failed to reach the server and was saved to a {@link RestOfflineQueue} to be
+     * sent later.
+     */
+    public boolean isQueuedOffline() {
+        return queuedOffline;
+    }
+
+    void setQueuedOffline() {
+        queuedOffline = true;
+    }
+
+    /**
+     * True once an attempt got as far as a connection, so the server may have the request even if
+     * the call failed.
+     */
+    boolean wasSent() {
+        return sent;
+    }
+
+    void setSent() {
+        sent = true;
+    }
+
+    boolean hasDeadline() {
+        return deadlineNanos != 0;
+    }
+
+    /**
+     * @return the milliseconds left before the deadline, or {@link Long#MAX_VALUE} without one
+     */
+    long getRemainingMillis() {
+        if ( deadlineNanos == 0 ) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max( 0, TimeUnit.NANOSECONDS.toMillis( deadlineNanos - System.nanoTime() ) );
+    }
+
+    void throwIfInactive() throws IOException {
+        if ( cancelled ) {
+            throw new InterruptedIOException( "Canceled" );
+        }
+        if ( isDeadlineExceeded() ) {
+            throw new InterruptedIOException( "Deadline exceeded" );
+        }
+    }
+
+    /**
+     * Makes the connection the one {@link #cancel()} disconnects, failing straight away if the call
+     * is already over.
+     */
+    synchronized void attach( HttpURLConnection connection ) throws IOException {
+        throwIfInactive();
+        this.connection = connection;
+    }
+
+    /**
+     * Makes the exchange of a {@link RestTransport} the one {@link #cancel()} closes.
+     */
+    synchronized void attach( Closeable exchange ) throws IOException {
+        throwIfInactive();
+        this.exchange = exchange;
+    }
+
+    synchronized void detach() {
+        connection = null;
+        exchange = null;
+    }
+
+    /**
+     * Waits between attempts of a synchronous call.
+     *
+     * @return false if the call was cancelled, ran out of time, or the thread was interrupted
+     */
+    synchronized boolean sleep( long millis ) {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( millis );
+        try {
+            long remaining;
+            while ( !cancelled && !deadlineExceeded && ( remaining = end - System.nanoTime() ) > 0 ) {
+                TimeUnit.NANOSECONDS.timedWait( this, remaining );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !cancelled && !deadlineExceeded;
+    }
+
+    /**
+     * Stops the deadline watchdog once the call has delivered its result.
+     */
+    synchronized void finish() {
+        if ( watchdogTask != null ) {
+            watchdogTask.cancel( false );
+            watchdogTask = null;
+        }
+    }
+
+    private void expire() {
+        deadlineExceeded = true;
+        abort();
+    }
+
+    private synchronized void abort() {
+        finish();
+        notifyAll();
+        if ( connection != null ) {
+            connection.disconnect();
+            connection = null;
+        }
+        if ( exchange != null ) {
+            RestTransport.closeQuietly( exchange );
+            exchange = null;
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getWatchdog() {
+        if ( watchdog == null ) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor( 1, new ThreadFactory() {
+                @Override
+                public Thread newThread( Runnable runnable ) {
+                    Thread thread = new Thread( runnable, "RestCall watchdog" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+            executor.setKeepAliveTime( 60, TimeUnit.SECONDS );
+            executor.allowCoreThreadTimeOut( true );
+            watchdog = executor;
+        }
+        return watchdog;
+    }
+}
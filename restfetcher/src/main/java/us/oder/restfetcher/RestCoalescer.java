@@ -0,0 +1,183 @@
+package us.oder.restfetcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class RestCoalescer {
+
+    public interface Callback {
+        void onComplete( RestResponse response, IOException error );
+    }
+
+    private static RestCoalescer defaultCoalescer;
+
+    private final Map<String, Call> inFlightCalls = new HashMap<>();
+    private int coalescedCount;
+
+    public static synchronized RestCoalescer getDefault() {
+        return defaultCoalescer;
+    }
+
+    public static synchronized void setDefault( RestCoalescer coalescer ) {
+        defaultCoalescer = coalescer;
+    }
+
+    public static String createKey( RestMethod method, String url, Map<String, String> headers ) {
+        StringBuilder builder = new StringBuilder();
+        builder.append( method ).append( ' ' ).append( url );
+        if ( headers != null ) {
+            for ( Map.Entry<String, String> header : new TreeMap<>( headers ).entrySet() ) {
+                builder.append( '\n' ).append( header.getKey() ).append( ':' ).append( header.getValue() );
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the in-flight call for the key, starting a new one if there is none. Exactly one caller
+     * gets {@code true} from {@link Call#claim()} and must complete the call; everyone else waits on it.
+     */
+    public synchronized Call acquire( String key ) {
+        Call call = inFlightCalls.get( key );
+        if ( call == null ) {
+            call = new Call( key );
+            inFlightCalls.put( key, call );
+        } else {
+            coalescedCount++;
+        }
+        return call;
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlightCalls.size();
+    }
+
+    public synchronized int getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    private synchronized void finished( Call call ) {
+        if ( inFlightCalls.get( call.key ) == call ) {
+            inFlightCalls.remove( call.key );
+        }
+    }
+
+    public class Call {
+        private final String key;
+        private final List<Callback> callbacks = new ArrayList<>();
+        private boolean claimed;
+        private boolean done;
+        private RestResponse response;
+        private IOException error;
+
+        private Call( String key ) {
+            this.key = key;
+        }
+
+        public synchronized boolean claim() {
+            if ( claimed ) {
+                return false;
+            }
+            claimed = true;
+            return true;
+        }
+
+        public void addCallback( Callback callback ) {
+            synchronized ( this ) {
+                if ( !done ) {
+                    callbacks.add( callback );
+                    return;
+                }
+            }
+            callback.onComplete( response, error );
+        }
+
+        /**
+         * @throws InterruptedIOException if the thread is interrupted while waiting
+         */
+        public RestResponse await() throws IOException {
+            synchronized ( this ) {
+                while ( !done ) {
+                    waitForCompletion();
+                }
+            }
+            return getResult();
+        }
+
+        /**
+         * Waits on behalf of the follower's call, giving up when it is cancelled or its deadline passes.
+         * The shared request carries on for everyone else.
+         */
+        RestResponse await( RestCall follower ) throws IOException {
+            follower.attach( new Closeable() {
+                @Override
+                public void close() {
+                    synchronized ( Call.this ) {
+                        Call.this.notifyAll();
+                    }
+                }
+            } );
+            try {
+                synchronized ( this ) {
+                    while ( !done ) {
+                        follower.throwIfInactive();
+                        waitForCompletion();
+                    }
+                }
+            } finally {
+                follower.detach();
+            }
+            return getResult();
+        }
+
+        private void waitForCompletion() throws InterruptedIOException {
+            try {
+                wait();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Interrupted waiting for a coalesced response" );
+            }
+        }
+
+        private synchronized RestResponse getResult() throws IOException {
+            if ( error != null ) {
+                throw error;
+            }
+            return response;
+        }
+
+        public void complete( RestResponse response ) {
+            finish( response, null );
+        }
+
+        public void fail( IOException error ) {
+            finish( null, error );
+        }
+
+        private void finish( RestResponse response, IOException error ) {
+            // stop handing this call out before anyone is notified, so late arrivals start a fresh one
+            finished( this );
+            List<Callback> toNotify;
+            synchronized ( this ) {
+                if ( done ) {
+                    return;
+                }
+                this.response = response;
+                this.error = error;
+                done = true;
+                toNotify = new ArrayList<>( callbacks );
+                callbacks.clear();
+                notifyAll();
+            }
+            for ( Callback callback : toNotify ) {
+                callback.onComplete( response, error );
+            }
+        }
+    }
+}
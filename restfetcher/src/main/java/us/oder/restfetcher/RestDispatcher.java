@@ -0,0 +1,298 @@
+package us.oder.restfetcher;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RestDispatcher {
+
+    public static final int DEFAULT_MAX_REQUESTS = 64;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+
+    public enum QueuePolicy {
+        FIFO, LIFO
+    }
+
+    /**
+     * Implemented by tasks that have to fail their call when the executor won't run them, typically
+     * because it has been shut down. Other tasks are dropped.
+     */
+    public interface IRejectable {
+        void onRejected( RejectedExecutionException e );
+    }
+
+    private static RestDispatcher defaultDispatcher;
+
+    private final ExecutorService executorService;
+    private ScheduledExecutorService timer;
+    private Executor callbackExecutor;
+    private int maxRequests = DEFAULT_MAX_REQUESTS;
+    private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+    private QueuePolicy queuePolicy = QueuePolicy.FIFO;
+
+    private final Deque<AsyncCall> readyCalls = new ArrayDeque<>();
+    private final Map<String, Integer> runningCallsPerHost = new HashMap<>();
+    private int runningCallCount;
+
+    public RestDispatcher() {
+        this( createDefaultExecutorService() );
+    }
+
+    /**
+     * Calls listeners on the main thread on Android, and on the dispatcher thread that finished the
+     * call on a plain JVM.
+     */
+    public RestDispatcher( ExecutorService executorService ) {
+        this( executorService, Platform.isAndroid() ? new MainThreadExecutor() : new DirectExecutor() );
+    }
+
+    public RestDispatcher( ExecutorService executorService, Executor callbackExecutor ) {
+        this.executorService = executorService;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public static synchronized RestDispatcher getDefault() {
+        if ( defaultDispatcher == null ) {
+            defaultDispatcher = new RestDispatcher();
+        }
+        return defaultDispatcher;
+    }
+
+    public static synchronized void setDefault( RestDispatcher dispatcher ) {
+        defaultDispatcher = dispatcher;
+    }
+
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    public synchronized Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    public synchronized void setCallbackExecutor( Executor callbackExecutor ) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public synchronized int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public void setMaxRequests( int maxRequests ) {
+        if ( maxRequests < 1 ) {
+            throw new IllegalArgumentException( "max < 1: " + maxRequests );
+        }
+        synchronized ( this ) {
+            this.maxRequests = maxRequests;
+        }
+        promoteCalls();
+    }
+
+    public synchronized int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    public void setMaxRequestsPerHost( int maxRequestsPerHost ) {
+        if ( maxRequestsPerHost < 1 ) {
+            throw new IllegalArgumentException( "max < 1: " + maxRequestsPerHost );
+        }
+        synchronized ( this ) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+        }
+        promoteCalls();
+    }
+
+    public synchronized QueuePolicy getQueuePolicy() {
+        return queuePolicy;
+    }
+
+    public synchronized void setQueuePolicy( QueuePolicy queuePolicy ) {
+        this.queuePolicy = queuePolicy;
+    }
+
+    public synchronized int getRunningCallCount() {
+        return runningCallCount;
+    }
+
+    public synchronized int getQueuedCallCount() {
+        return readyCalls.size();
+    }
+
+    public void enqueue( String host, Runnable task ) {
+        AsyncCall call = new AsyncCall( host == null ? "" : host, task );
+        synchronized ( this ) {
+            if ( queuePolicy == QueuePolicy.LIFO ) {
+                readyCalls.addFirst( call );
+            } else {
+                readyCalls.addLast( call );
+            }
+        }
+        promoteCalls();
+    }
+
+    /**
+     * Enqueues the task once the delay has passed. Nothing is held while waiting: no worker thread and
+     * no slot counting against the request limits.
+     */
+    public void enqueueDelayed( final String host, final Runnable task, long delayMillis ) {
+        if ( delayMillis <= 0 ) {
+            enqueue( host, task );
+            return;
+        }
+        try {
+            getTimer().schedule( new Runnable() {
+                @Override
+                public void run() {
+                    enqueue( host, task );
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS );
+        } catch ( RejectedExecutionException e ) {
+            // the timer only rejects after shutdown; run the task now rather than dropping it
+            enqueue( host, task );
+        }
+    }
+
+    private synchronized ScheduledExecutorService getTimer() {
+        if ( timer == null ) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor( 1, new DispatcherThreadFactory( "RestDispatcher timer #" ) );
+            executor.setKeepAliveTime( 60, TimeUnit.SECONDS );
+            executor.allowCoreThreadTimeOut( true );
+            timer = executor;
+        }
+        return timer;
+    }
+
+    private void promoteCalls() {
+        Deque<AsyncCall> toExecute = new ArrayDeque<>();
+        synchronized ( this ) {
+            Iterator<AsyncCall> iterator = readyCalls.iterator();
+            while ( iterator.hasNext() && runningCallCount < maxRequests ) {
+                AsyncCall call = iterator.next();
+                int runningForHost = runningCallsForHost( call.host );
+                if ( runningForHost < maxRequestsPerHost ) {
+                    iterator.remove();
+                    runningCallCount++;
+                    runningCallsPerHost.put( call.host, runningForHost + 1 );
+                    toExecute.add( call );
+                }
+            }
+        }
+        for ( AsyncCall call : toExecute ) {
+            try {
+                executorService.execute( call );
+            } catch ( RejectedExecutionException e ) {
+                // the executor has been shut down, give back the slot and let the task fail its call
+                finished( call );
+                if ( call.task instanceof IRejectable ) {
+                    ( (IRejectable) call.task ).onRejected( e );
+                }
+            }
+        }
+    }
+
+    private synchronized void finished( AsyncCall call ) {
+        runningCallCount--;
+        int runningForHost = runningCallsForHost( call.host ) - 1;
+        if ( runningForHost > 0 ) {
+            runningCallsPerHost.put( call.host, runningForHost );
+        } else {
+            runningCallsPerHost.remove( call.host );
+        }
+    }
+
+    private int runningCallsForHost( String host ) {
+        Integer count = runningCallsPerHost.get( host );
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Runs each call on its own virtual thread where the runtime has them (Java 21 and later), so a
+     * service can keep thousands of blocking fetches in flight without a thread each. Elsewhere this
+     * is the default pool of platform threads. Raise {@link #setMaxRequests(int)} and
+     * {@link #setMaxRequestsPerHost(int)} to let that many run at once.
+     */
+    public static ExecutorService newVirtualThreadExecutorService() {
+        try {
+            return (ExecutorService) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+        } catch ( Exception e ) {
+            return createDefaultExecutorService();
+        }
+    }
+
+    private static ExecutorService createDefaultExecutorService() {
+        // concurrency is bounded by the dispatcher itself, so the pool only needs to grow on demand
+        return new ThreadPoolExecutor( 0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new DispatcherThreadFactory( "RestDispatcher #" ) );
+    }
+
+    private class AsyncCall implements Runnable {
+        private final String host;
+        private final Runnable task;
+
+        AsyncCall( String host, Runnable task ) {
+            this.host = host;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                finished( this );
+                promoteCalls();
+            }
+        }
+    }
+
+    private static class DispatcherThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger count = new AtomicInteger( 1 );
+
+        DispatcherThreadFactory( String namePrefix ) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread( Runnable runnable ) {
+            Thread thread = new Thread( runnable, namePrefix + count.getAndIncrement() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+
+    public static class MainThreadExecutor implements Executor {
+        private final Handler handler = new Handler( Looper.getMainLooper() );
+
+        @Override
+        public void execute( Runnable runnable ) {
+            handler.post( runnable );
+        }
+    }
+
+    /**
+     * Runs callbacks on the dispatcher thread that finished the call.
+     */
+    public static class DirectExecutor implements Executor {
+        @Override
+        public void execute( Runnable runnable ) {
+            runnable.run();
+        }
+    }
+}
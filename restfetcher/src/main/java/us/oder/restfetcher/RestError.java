@@ -1,6 +1,10 @@
 package us.oder.restfetcher;
 
-public class RestError {
+import java.io.Serializable;
+
+public class RestError implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     public final int code;
     public final String reason;
 
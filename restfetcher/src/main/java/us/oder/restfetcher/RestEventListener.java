@@ -0,0 +1,77 @@
+package us.oder.restfetcher;
+
+import java.io.IOException;
+
+/**
+ * Receives timings for each stage of a request. Every method is a no-op, so subclasses only override
+ * the stages they care about. Events are delivered synchronously on the thread doing the work, so
+ * implementations must be quick, thread safe and must not throw. All durations are in nanoseconds.
+ *
+ * <p>HttpURLConnection resolves the host as part of connecting, so DNS time is included in
+ * {@link #connectEnd(String, long)}.</p>
+ */
+public class RestEventListener {
+
+    public static final RestEventListener NONE = new RestEventListener();
+
+    private static RestEventListener defaultListener = NONE;
+
+    public static synchronized RestEventListener getDefault() {
+        return defaultListener;
+    }
+
+    public static synchronized void setDefault( RestEventListener listener ) {
+        defaultListener = listener != null ? listener : NONE;
+    }
+
+    /**
+     * An asynchronous request waited {@code queueNanos} in the dispatcher before it started.
+     */
+    public void callDispatched( String route, long queueNanos ) {
+    }
+
+    /**
+     * A request is about to go to the network. Fresh cache hits and coalesced followers don't get here.
+     */
+    public void callStart( String route, RestMethod method, String url ) {
+    }
+
+    public void connectEnd( String route, long connectNanos ) {
+    }
+
+    public void requestBodyEnd( String route, long byteCount, long writeNanos ) {
+    }
+
+    /**
+     * The status line arrived {@code waitNanos} after the request was sent, i.e. time to first byte.
+     */
+    public void responseCodeReceived( String route, int code, long waitNanos ) {
+    }
+
+    /**
+     * {@code byteCount} is the number of bytes read off the wire, before any decompression.
+     */
+    public void responseBodyEnd( String route, long byteCount, long readNanos ) {
+    }
+
+    public void responseHeadersEnd( String route, int headerCount, long extractNanos ) {
+    }
+
+    /**
+     * {@link RestApiBase.Request#createApiResponse(RestResponse)} took {@code parseNanos}.
+     */
+    public void responseParsed( String route, long parseNanos ) {
+    }
+
+    /**
+     * Attempt number {@code attempt} will be retried after {@code delayMillis}.
+     */
+    public void retryScheduled( String route, int attempt, long delayMillis ) {
+    }
+
+    public void callEnd( String route, int code, long totalNanos ) {
+    }
+
+    public void callFailed( String route, IOException error, long totalNanos ) {
+    }
+}
@@ -0,0 +1,15 @@
+package us.oder.restfetcher;
+
+/**
+ * How a {@link RestFuture} reports a request that ended in a {@link RestError}.
+ */
+public class RestException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public final RestError error;
+
+    public RestException( RestError error ) {
+        super( error.code + " " + error.reason );
+        this.error = error;
+    }
+}
@@ -1,36 +1,77 @@
 package us.oder.restfetcher;
 
-import android.os.AsyncTask;
-import android.support.annotation.NonNull;
-import android.util.Log;
-
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.NoRouteToHostException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.HashMap;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import us.oder.restfetcher.util.JsonScrubber;
+import us.oder.restfetcher.util.ContentEncoding;
+import us.oder.restfetcher.util.CountingInputStream;
+import us.oder.restfetcher.util.CountingOutputStream;
 
 public class RestFetcher {
 
-    private static String[] fieldsToScrub = new String[]{"password", "username"};
-    private static final String TAG = RestFetcher.class.getSimpleName();
+    private static final Charset DEFAULT_CHARSET = Charset.forName( "UTF-8" );
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    public static final int COMPRESSION_DISABLED = -1;
+    public static final int USE_FACTORY_TIMEOUT = -1;
+    private static final long MAX_DRAIN_BYTES = 64 * 1024;
+    // Content-Length is only a hint, so never trust it for more than this up front
+    private static final int MAX_INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    private static volatile List<IInterceptor> defaultInterceptors = Collections.emptyList();
+    private static volatile List<IInterceptor> defaultNetworkInterceptors = Collections.emptyList();
 
     private final IConnectionFactory connectionFactory;
+    private List<IInterceptor> interceptors;
+    private RestTransport transport;
+    private List<IInterceptor> networkInterceptors;
+    private RestDispatcher dispatcher;
+    private Executor callbackExecutor;
+    private IResponseStreamHandler responseStreamHandler;
+    private RestCache cache;
+    private RestCoalescer coalescer;
+    private RestLogger logger;
+    private RestEventListener eventListener;
+    private RestRetryPolicy retryPolicy;
+    private RestOfflineQueue offlineQueue;
+    private boolean offlineQueueDisabled;
+    private String route;
+    private int requestCompressionThreshold = COMPRESSION_DISABLED;
+    private boolean responseDecompressionEnabled = true;
+    private int connectTimeout = USE_FACTORY_TIMEOUT;
+    private int readTimeout = USE_FACTORY_TIMEOUT;
+    private long deadlineMillis = RestCall.NO_DEADLINE;
+    private volatile RestCall call;
 
     private String url;
     private Map<String, String> headers;
     private RestMethod method;
     private String body;
+    private RestRequestBody requestBody;
+    private IProgressListener uploadProgressListener;
     public OnFetchErrorListener onFetchErrorListener;
     public OnFetchSuccessListener onFetchSuccessListener;
+    public ISuccessPreprocessor successPreprocessor;
 
     public String getUrl() {
         return url;
@@ -44,10 +85,290 @@ public class RestFetcher {
         return headers;
     }
 
+    /**
+     * The body passed as a String, or null if a {@link RestRequestBody} was given instead.
+     */
     public String getBody() {
         return body;
     }
 
+    public RestRequestBody getRequestBody() {
+        if ( requestBody == null && body != null ) {
+            requestBody = RestRequestBody.create( body );
+        }
+        return requestBody;
+    }
+
+    /**
+     * Replaces the String body, e.g. with a file or stream that should not be loaded into memory.
+     */
+    public void setRequestBody( RestRequestBody requestBody ) {
+        this.requestBody = requestBody;
+        this.body = null;
+    }
+
+    public IProgressListener getUploadProgressListener() {
+        return uploadProgressListener;
+    }
+
+    public void setUploadProgressListener( IProgressListener uploadProgressListener ) {
+        this.uploadProgressListener = uploadProgressListener;
+    }
+
+    public IResponseStreamHandler getResponseStreamHandler() {
+        return responseStreamHandler;
+    }
+
+    public void setResponseStreamHandler( IResponseStreamHandler responseStreamHandler ) {
+        this.responseStreamHandler = responseStreamHandler;
+    }
+
+    public RestCache getCache() {
+        return cache;
+    }
+
+    public void setCache( RestCache cache ) {
+        this.cache = cache;
+    }
+
+    public RestCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    public void setCoalescer( RestCoalescer coalescer ) {
+        this.coalescer = coalescer;
+    }
+
+    public int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * Gzips request bodies of at least this many bytes and marks them with Content-Encoding. Only
+     * enable this for servers that accept compressed requests.
+     */
+    public void setRequestCompressionThreshold( int requestCompressionThreshold ) {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    public boolean isResponseDecompressionEnabled() {
+        return responseDecompressionEnabled;
+    }
+
+    public void setResponseDecompressionEnabled( boolean responseDecompressionEnabled ) {
+        this.responseDecompressionEnabled = responseDecompressionEnabled;
+    }
+
+    public RestLogger getLogger() {
+        return logger != null ? logger : RestLogger.getDefault();
+    }
+
+    public void setLogger( RestLogger logger ) {
+        this.logger = logger;
+    }
+
+    public RestEventListener getEventListener() {
+        return eventListener != null ? eventListener : RestEventListener.getDefault();
+    }
+
+    public void setEventListener( RestEventListener eventListener ) {
+        this.eventListener = eventListener;
+    }
+
+    public RestRetryPolicy getRetryPolicy() {
+        return retryPolicy != null ? retryPolicy : RestRetryPolicy.getDefault();
+    }
+
+    public void setRetryPolicy( RestRetryPolicy retryPolicy ) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RestOfflineQueue getOfflineQueue() {
+        if ( offlineQueueDisabled ) {
+            return null;
+        }
+        return offlineQueue != null ? offlineQueue : RestOfflineQueue.getDefault();
+    }
+
+    public void setOfflineQueue( RestOfflineQueue offlineQueue ) {
+        this.offlineQueue = offlineQueue;
+    }
+
+    /**
+     * Keeps requests replayed from a queue from being queued again or starting another replay.
+     */
+    void disableOfflineQueue() {
+        offlineQueueDisabled = true;
+    }
+
+    public RestTransport getTransport() {
+        return transport != null ? transport : RestTransport.getDefault();
+    }
+
+    /**
+     * Sends requests through the transport instead of HttpURLConnection, except for those it can't
+     * send and those with a {@link IResponseStreamHandler}. Upload progress and connection timings
+     * are only reported for HttpURLConnection. The transport applies its own connect and read
+     * timeouts instead of {@link #setConnectTimeout(int)} and {@link #setReadTimeout(int)}; the
+     * {@link #setDeadlineMillis(long) deadline} still aborts the exchange.
+     */
+    public void setTransport( RestTransport transport ) {
+        this.transport = transport;
+    }
+
+    /**
+     * Adds an interceptor that runs once per fetch, around the cache, coalescing and retries.
+     */
+    public void addInterceptor( IInterceptor interceptor ) {
+        if ( interceptors == null ) {
+            interceptors = new ArrayList<>( 2 );
+        }
+        interceptors.add( interceptor );
+    }
+
+    /**
+     * Adds an interceptor that runs around each attempt that goes to the network, after the cache has
+     * been checked.
+     */
+    public void addNetworkInterceptor( IInterceptor interceptor ) {
+        if ( networkInterceptors == null ) {
+            networkInterceptors = new ArrayList<>( 2 );
+        }
+        networkInterceptors.add( interceptor );
+    }
+
+    public List<IInterceptor> getInterceptors() {
+        return interceptors == null ? Collections.<IInterceptor>emptyList() : Collections.unmodifiableList( interceptors );
+    }
+
+    public List<IInterceptor> getNetworkInterceptors() {
+        return networkInterceptors == null ? Collections.<IInterceptor>emptyList() : Collections.unmodifiableList( networkInterceptors );
+    }
+
+    /**
+     * Adds an interceptor to every fetcher, ahead of the fetcher's own.
+     */
+    public static synchronized void addDefaultInterceptor( IInterceptor interceptor ) {
+        defaultInterceptors = copyWith( defaultInterceptors, interceptor );
+    }
+
+    public static synchronized void addDefaultNetworkInterceptor( IInterceptor interceptor ) {
+        defaultNetworkInterceptors = copyWith( defaultNetworkInterceptors, interceptor );
+    }
+
+    public static synchronized void removeDefaultInterceptor( IInterceptor interceptor ) {
+        List<IInterceptor> output = new ArrayList<>( defaultInterceptors );
+        output.remove( interceptor );
+        defaultInterceptors = Collections.unmodifiableList( output );
+        output = new ArrayList<>( defaultNetworkInterceptors );
+        output.remove( interceptor );
+        defaultNetworkInterceptors = Collections.unmodifiableList( output );
+    }
+
+    private static List<IInterceptor> copyWith( List<IInterceptor> interceptors, IInterceptor interceptor ) {
+        List<IInterceptor> output = new ArrayList<>( interceptors.size() + 1 );
+        output.addAll( interceptors );
+        output.add( interceptor );
+        return Collections.unmodifiableList( output );
+    }
+
+    /**
+     * @return the default interceptors followed by the fetcher's own, or null if there are none
+     */
+    private List<IInterceptor> getInterceptorsForCall( boolean network ) {
+        List<IInterceptor> defaults = network ? defaultNetworkInterceptors : defaultInterceptors;
+        List<IInterceptor> own = network ? networkInterceptors : interceptors;
+        if ( own == null || own.isEmpty() ) {
+            return defaults.isEmpty() ? null : defaults;
+        }
+        if ( defaults.isEmpty() ) {
+            return own;
+        }
+        List<IInterceptor> output = new ArrayList<>( defaults.size() + own.size() );
+        output.addAll( defaults );
+        output.addAll( own );
+        return output;
+    }
+
+    /**
+     * The name events are reported under. Defaults to the path of the url, without the query.
+     */
+    public String getRoute() {
+        if ( route == null ) {
+            try {
+                route = new URL( url ).getPath();
+            } catch ( MalformedURLException e ) {
+                route = url;
+            }
+        }
+        return route;
+    }
+
+    public void setRoute( String route ) {
+        this.route = route;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout( int connectTimeout ) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout( int readTimeout ) {
+        this.readTimeout = readTimeout;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Limits how long each fetch may take from start to finish, including time spent queued and
+     * retrying. Connect and read timeouts are shortened to fit in what is left of it.
+     */
+    public void setDeadlineMillis( long deadlineMillis ) {
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * The handle of the latest {@link #fetch()} or {@link #fetchAsync()}, or null before the first one.
+     */
+    public RestCall getCall() {
+        return call;
+    }
+
+    public void cancel() {
+        RestCall call = this.call;
+        if ( call != null ) {
+            call.cancel();
+        }
+    }
+
+    public RestDispatcher getDispatcher() {
+        return dispatcher != null ? dispatcher : RestDispatcher.getDefault();
+    }
+
+    public void setDispatcher( RestDispatcher dispatcher ) {
+        this.dispatcher = dispatcher;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor != null ? callbackExecutor : getDispatcher().getCallbackExecutor();
+    }
+
+    /**
+     * Calls the listeners of asynchronous fetches on this executor instead of the dispatcher's.
+     */
+    public void setCallbackExecutor( Executor callbackExecutor ) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
     public interface OnFetchErrorListener {
         void onFetchError( RestError error );
     }
@@ -56,6 +377,57 @@ public class RestFetcher {
         void onFetchSuccess( RestResponse response );
     }
 
+    /**
+     * Called with a successful response on the thread that performed the request, before
+     * {@link OnFetchSuccessListener} is called on the callback thread. Use it for expensive work
+     * such as parsing, so it stays off the main thread.
+     */
+    public interface ISuccessPreprocessor {
+        void preprocessSuccess( RestResponse response );
+    }
+
+    /**
+     * Observes, rewrites or answers requests. Application interceptors, added with
+     * {@link #addInterceptor(IInterceptor)}, see each fetch once and can answer it without touching the
+     * cache or the network. Network interceptors, added with {@link #addNetworkInterceptor(IInterceptor)},
+     * see each attempt that is about to go to the network. Interceptors run on the thread performing
+     * the request, in the order they were added.
+     */
+    public interface IInterceptor {
+        /**
+         * Call {@link IChain#proceed(RestRequest)} to pass the request, or a rewritten one, on to the
+         * rest of the chain, or return a response without calling it.
+         */
+        RestResponse intercept( IChain chain ) throws IOException;
+    }
+
+    public interface IChain {
+        RestRequest getRequest();
+
+        RestCall getCall();
+
+        RestResponse proceed( RestRequest request ) throws IOException;
+    }
+
+    /**
+     * Reports transfer progress on the thread performing the request.
+     */
+    public interface IProgressListener {
+        /**
+         * @param totalBytes the size of the whole transfer, or -1 if it isn't known
+         */
+        void onProgress( long bytesTransferred, long totalBytes );
+    }
+
+    /**
+     * Consumes a successful response body straight from the connection, on the thread performing the
+     * request, before the connection is released. When one is set the body is not buffered and
+     * {@link RestResponse#body} is left empty.
+     */
+    public interface IResponseStreamHandler {
+        void onResponseStream( int code, Map<String, String> headers, InputStream stream ) throws IOException;
+    }
+
     public RestFetcher( String url, RestMethod method, Map<String, String> headers, String body ) {
         this( url, method, headers, body, new ConnectionFactory() );
     }
@@ -68,8 +440,13 @@ public class RestFetcher {
         this.connectionFactory = factory;
     }
 
+    public RestFetcher( String url, RestMethod method, Map<String, String> headers, RestRequestBody requestBody, IConnectionFactory factory ) {
+        this( url, method, headers, (String) null, factory );
+        this.requestBody = requestBody;
+    }
+
     public static void setFieldsToScrub( String[] fieldsToScrub ) {
-        RestFetcher.fieldsToScrub = fieldsToScrub;
+        RestLogger.getDefault().setFieldsToScrub( fieldsToScrub );
     }
 
     private void processRestResponse(RestResponse restResponse) {
@@ -80,67 +457,373 @@ public class RestFetcher {
         }
     }
 
+    private void preprocessRestResponse( RestResponse restResponse ) {
+        if ( successPreprocessor != null && restResponse != null && isSuccess( restResponse ) ) {
+            successPreprocessor.preprocessSuccess( restResponse );
+        }
+    }
+
+    private static boolean isSuccess( RestResponse restResponse ) {
+        return restResponse.code > 199 && restResponse.code < 300;
+    }
+
     private void sendResponse(RestResponse restResponse) {
-        if (restResponse.code > 199 && restResponse.code < 300) {
+        if ( isSuccess( restResponse ) ) {
             sendSuccess(restResponse);
         } else {
             sendError( new RestError( restResponse.code, restResponse.body ) );
         }
     }
 
-    private RestResponse performRequest() throws IOException {
-        logRequest();
-        RestResponse output = null;
-        HttpURLConnection conn = null;
+    private RestResponse performRequest( RestCall restCall ) throws IOException {
+        RestRequest request = createRequest();
+        List<IInterceptor> interceptors = getInterceptorsForCall( false );
+        if ( interceptors == null ) {
+            return performRequest( restCall, request );
+        }
+        return new InterceptorChain( interceptors, 0, restCall, request, false, null ).proceed( request );
+    }
+
+    private RestRequest createRequest() {
+        return new RestRequest( method, url, RestHeaders.of( headers ), hasRequestBody() ? getRequestBody() : null );
+    }
+
+    private RestResponse performRequest( RestCall restCall, RestRequest request ) throws IOException {
+        RestCoalescer coalescer = getCoalescerForRequest( request );
+        if ( coalescer == null ) {
+            return performWithRetries( restCall, request );
+        }
+        RestCoalescer.Call call = coalescer.acquire( getCoalescingKey( request ) );
+        if ( call.claim() ) {
+            return performClaimedRequest( restCall, call, request );
+        }
+        return call.await( restCall );
+    }
+
+    private RestResponse performClaimedRequest( RestCall restCall, RestCoalescer.Call call, RestRequest request ) throws IOException {
         try {
+            RestResponse response = performWithRetries( restCall, request );
+            call.complete( response );
+            return response;
+        } catch ( IOException e ) {
+            call.fail( e );
+            throw e;
+        } catch ( RuntimeException e ) {
+            call.fail( new IOException( e ) );
+            throw e;
+        }
+    }
 
-            conn = establishConnection();
-            
-            String body = getBodyString(conn);
+    /**
+     * Runs the request until it succeeds or the retry policy gives up, sleeping on the calling thread
+     * between attempts. {@link #fetchAsync()} schedules its retries instead.
+     */
+    private RestResponse performWithRetries( RestCall restCall, RestRequest request ) throws IOException {
+        RestRetryPolicy policy = getRetryPolicy();
+        int attempt = 1;
+        while ( true ) {
+            RestResponse response = null;
+            IOException error = null;
+            try {
+                response = performUncoalescedRequest( restCall, request );
+            } catch ( IOException e ) {
+                error = e;
+            }
+            long delay = getRetryDelay( restCall, request, policy, attempt, response, error );
+            if ( delay == RestRetryPolicy.NO_RETRY || !restCall.sleep( delay ) ) {
+                if ( error != null ) {
+                    throw error;
+                }
+                return response;
+            }
+            attempt++;
+        }
+    }
 
-            Map<String, String> responseHeaders = extractResponseHeaders(conn);
+    private long getRetryDelay( RestCall restCall, RestRequest request, RestRetryPolicy policy, int attempt, RestResponse response, IOException error ) {
+        if ( policy == null || restCall.isCancelled() ) {
+            return RestRetryPolicy.NO_RETRY;
+        }
+        if ( request.body != null && !request.body.isRepeatable() ) {
+            // the body has already been consumed by the first attempt
+            return RestRetryPolicy.NO_RETRY;
+        }
+        long delay = policy.getRetryDelayMillis( request.method, attempt, response, error );
+        if ( delay >= restCall.getRemainingMillis() ) {
+            // the next attempt could not finish in time
+            return RestRetryPolicy.NO_RETRY;
+        }
+        if ( delay != RestRetryPolicy.NO_RETRY ) {
+            getEventListener().retryScheduled( getRoute(), attempt, delay );
+        }
+        return delay;
+    }
 
-            output = new RestResponse(conn.getResponseCode(), responseHeaders, body);
-        } catch (IOException e) {
+    private RestCoalescer getCoalescerForRequest( RestRequest request ) {
+        if ( request.method != RestMethod.GET || responseStreamHandler != null ) {
+            return null;
+        }
+        return coalescer != null ? coalescer : RestCoalescer.getDefault();
+    }
+
+    private static String getCoalescingKey( RestRequest request ) {
+        return RestCoalescer.createKey( request.method, request.url, request.headers );
+    }
+
+    private RestResponse performUncoalescedRequest( RestCall restCall, RestRequest request ) throws IOException {
+        restCall.throwIfInactive();
+        RestCache cache = getCacheForRequest( request );
+        String cacheKey = null;
+        RestCache.Entry cached = null;
+        if ( cache != null ) {
+            cacheKey = RestCache.createKey( request.url, request.headers );
+            cached = cache.get( cacheKey );
+            if ( cached != null && cached.isFresh() ) {
+                cache.recordHit();
+                return cached.toRestResponse();
+            }
+        }
+        List<IInterceptor> interceptors = getInterceptorsForCall( true );
+        RestResponse output = interceptors == null ? exchange( restCall, request, cached )
+                : new InterceptorChain( interceptors, 0, restCall, request, true, cached ).proceed( request );
+        if ( cache != null ) {
+            output = cache.update( cacheKey, cached, output );
+        }
+        return output;
+    }
+
+    /**
+     * Sends the request over a connection and reads the response.
+     *
+     * @param cached a stale cache entry to revalidate, or null
+     */
+    private RestResponse exchange( RestCall restCall, RestRequest request, RestCache.Entry cached ) throws IOException {
+        RestLogger logger = getLogger();
+        boolean logged = logger.shouldLog();
+        if ( logged ) {
+            logger.logRequest( request.method, request.url, request.headers, request.body != null ? request.body.getLogString() : null );
+        }
+        RestEventListener listener = getEventListener();
+        String route = getRoute();
+        long callStart = System.nanoTime();
+        listener.callStart( route, request.method, request.url );
+        RestTransport transport = getTransportForRequest( request );
+        RestResponse output;
+        try {
+            if ( transport != null ) {
+                output = transport.execute( prepareForTransport( request, cached ), restCall );
+            } else {
+                output = exchangeOverConnection( restCall, request, listener, route, cached );
+            }
+            // a read aborted by cancel() or the deadline can look like a short body, don't pass it off as the response
+            restCall.throwIfInactive();
+        } catch ( IOException e ) {
+            if ( transport != null ) {
+                markSentUnlessUnconnected( restCall, e );
+            }
+            listener.callFailed( route, e, System.nanoTime() - callStart );
             throw e;
+        }
+        listener.callEnd( route, output.code, System.nanoTime() - callStart );
+        if ( logged ) {
+            logger.logResponse( output );
+        }
+        return output;
+    }
+
+    private RestResponse exchangeOverConnection( RestCall restCall, RestRequest request, RestEventListener listener, String route, RestCache.Entry cached ) throws IOException {
+        HttpURLConnection conn = null;
+        boolean completed = false;
+        try {
+            conn = establishConnection( restCall, request, listener, route, cached );
+            long requestSent = System.nanoTime();
+            int code = conn.getResponseCode();
+            listener.responseCodeReceived( route, code, System.nanoTime() - requestSent );
+
+            RestResponse output;
+            if ( responseStreamHandler != null ) {
+                output = streamResponse( conn, code, listener, route );
+            } else {
+                String body = getBodyString( conn, listener, route );
+                RestHeaders responseHeaders = extractResponseHeaders( conn, listener, route );
+                output = new RestResponse( code, responseHeaders, body );
+            }
+            completed = true;
+            return output;
         } finally {
             if ( conn != null ) {
-                conn.disconnect();
+                restCall.detach();
+                if ( completed ) {
+                    releaseConnection( conn );
+                } else {
+                    // a failed exchange can leave the socket mid-response, so never hand it back to the pool
+                    conn.disconnect();
+                }
             }
         }
-        logResponse( output );
-        return output;
     }
 
-    @NonNull
-    private String getBodyString(HttpURLConnection conn) {
+    /**
+     * @return the transport to send the request with, or null to use HttpURLConnection
+     */
+    private RestTransport getTransportForRequest( RestRequest request ) {
+        RestTransport transport = getTransport();
+        if ( transport == null || responseStreamHandler != null || !transport.canSend( request ) ) {
+            return null;
+        }
+        return transport;
+    }
+
+    /**
+     * Applies what {@link #establishConnection} sets on the connection to the request itself.
+     */
+    private RestRequest prepareForTransport( RestRequest request, RestCache.Entry cached ) throws IOException {
+        RestHeaders.Builder headers = request.headers.newBuilder();
+        if ( cached != null && cached.etag != null ) {
+            headers.set( RestCache.IF_NONE_MATCH_KEY, cached.etag );
+        }
+        if ( cached != null && cached.lastModified != null ) {
+            headers.set( RestCache.IF_MODIFIED_SINCE_KEY, cached.lastModified );
+        }
+        if ( responseDecompressionEnabled && headers.get( ContentEncoding.ACCEPT_ENCODING_KEY ) == null ) {
+            headers.set( ContentEncoding.ACCEPT_ENCODING_KEY, ContentEncoding.SUPPORTED_ENCODINGS );
+        }
+        RestRequestBody requestBody = request.body;
+        if ( requestBody != null ) {
+            long length = requestBody.getContentLength();
+            if ( requestCompressionThreshold != COMPRESSION_DISABLED && length >= requestCompressionThreshold ) {
+                requestBody = RestRequestBody.gzip( requestBody );
+                headers.set( ContentEncoding.CONTENT_ENCODING_KEY, ContentEncoding.GZIP );
+            }
+            if ( requestBody.getContentType() != null ) {
+                headers.set( RestApiBase.CONTENT_TYPE_KEY, requestBody.getContentType() );
+            }
+        }
+        return new RestRequest( request.method, request.url, headers.build(), requestBody );
+    }
+
+    /**
+     * One link of an interceptor chain; the last one hands the request to the fetcher itself.
+     */
+    private class InterceptorChain implements IChain {
+        private final List<IInterceptor> interceptors;
+        private final int index;
+        private final RestCall restCall;
+        private final RestRequest request;
+        private final boolean network;
+        private final RestCache.Entry cached;
+
+        InterceptorChain( List<IInterceptor> interceptors, int index, RestCall restCall, RestRequest request, boolean network, RestCache.Entry cached ) {
+            this.interceptors = interceptors;
+            this.index = index;
+            this.restCall = restCall;
+            this.request = request;
+            this.network = network;
+            this.cached = cached;
+        }
+
+        @Override
+        public RestRequest getRequest() {
+            return request;
+        }
+
+        @Override
+        public RestCall getCall() {
+            return restCall;
+        }
+
+        @Override
+        public RestResponse proceed( RestRequest request ) throws IOException {
+            if ( index == interceptors.size() ) {
+                return network ? exchange( restCall, request, cached ) : performRequest( restCall, request );
+            }
+            IInterceptor interceptor = interceptors.get( index );
+            RestResponse response = interceptor.intercept( new InterceptorChain( interceptors, index + 1, restCall, request, network, cached ) );
+            if ( response == null ) {
+                throw new IllegalStateException( "interceptor " + interceptor + " returned null" );
+            }
+            return response;
+        }
+    }
+
+    private RestCache getCacheForRequest( RestRequest request ) {
+        if ( request.method != RestMethod.GET || responseStreamHandler != null ) {
+            return null;
+        }
+        return cache != null ? cache : RestCache.getDefault();
+    }
+
+    private void injectCacheValidators( HttpURLConnection conn, RestCache.Entry cached ) {
+        if ( cached.etag != null ) {
+            conn.setRequestProperty( RestCache.IF_NONE_MATCH_KEY, cached.etag );
+        }
+        if ( cached.lastModified != null ) {
+            conn.setRequestProperty( RestCache.IF_MODIFIED_SINCE_KEY, cached.lastModified );
+        }
+    }
+
+    private RestResponse streamResponse( HttpURLConnection conn, int code, RestEventListener listener, String route ) throws IOException {
+        RestHeaders responseHeaders = extractResponseHeaders( conn, listener, route );
+        if ( code < 200 || code > 299 ) {
+            return new RestResponse( code, responseHeaders, getBodyString( conn, listener, route ) );
+        }
+        long readStart = System.nanoTime();
+        CountingInputStream counted = new CountingInputStream( conn.getInputStream() );
+        InputStream is = decodeResponseStream( conn, counted );
+        try {
+            responseStreamHandler.onResponseStream( code, responseHeaders, is );
+        } finally {
+            drainAndClose( is );
+            listener.responseBodyEnd( route, counted.getCount(), System.nanoTime() - readStart );
+        }
+        return new RestResponse( code, responseHeaders, "" );
+    }
+
+    private String getBodyString( HttpURLConnection conn, RestEventListener listener, String route ) {
         String body = "";
         try {
-            InputStream is = conn.getInputStream();
-            if (is != null) {
-                body = convertInputStreamToString(is);
-            }
+            body = readBody( conn, conn.getInputStream(), listener, route );
         } catch (IOException e) {
-            // Just don't populate the body
+            // error responses only have an error stream; reading it gives us the reason and frees the connection for reuse
+            try {
+                body = readBody( conn, conn.getErrorStream(), listener, route );
+            } catch ( IOException errorStreamException ) {
+                // Just don't populate the body
+            }
         }
         return body;
     }
 
-    @NonNull
-    private Map<String, String> extractResponseHeaders( HttpURLConnection conn ) {
-        Map<String, String> responseHeaders = new HashMap<>();
-        Map<String, List<String>> incomingHeaders = conn.getHeaderFields();
-        for (String h : incomingHeaders.keySet()) {
-            String header = "";
-            for (int i = 0; i < incomingHeaders.get( h ).size(); i++) {
-                header += incomingHeaders.get( h ).get( i );
-                header += i == incomingHeaders.get( h ).size() - 1 ? "" : ";";
-            }
-            responseHeaders.put(h, header);
+    private String readBody( HttpURLConnection conn, InputStream stream, RestEventListener listener, String route ) throws IOException {
+        if ( stream == null ) {
+            return "";
+        }
+        long readStart = System.nanoTime();
+        CountingInputStream counted = new CountingInputStream( stream );
+        InputStream is = decodeResponseStream( conn, counted );
+        String body = convertInputStreamToString( is, conn.getContentLength(), charsetFromContentType( conn.getContentType() ) );
+        listener.responseBodyEnd( route, counted.getCount(), System.nanoTime() - readStart );
+        return body;
+    }
+
+    private InputStream decodeResponseStream( HttpURLConnection conn, InputStream is ) throws IOException {
+        if ( is == null || !responseDecompressionEnabled ) {
+            return is;
         }
+        return ContentEncoding.decode( is, conn.getContentEncoding() );
+    }
+
+    private RestHeaders extractResponseHeaders( HttpURLConnection conn, RestEventListener listener, String route ) {
+        long extractStart = System.nanoTime();
+        RestHeaders responseHeaders = extractResponseHeaders( conn.getHeaderFields() );
+        listener.responseHeadersEnd( route, responseHeaders.getCount(), System.nanoTime() - extractStart );
         return responseHeaders;
     }
 
+    static RestHeaders extractResponseHeaders( Map<String, List<String>> incomingHeaders ) {
+        return RestHeaders.fromMultimap( incomingHeaders );
+    }
+
     private void sendSuccess( final RestResponse restResponse) {
         if (onFetchSuccessListener != null) {
             onFetchSuccessListener.onFetchSuccess( restResponse );
@@ -154,140 +837,610 @@ public class RestFetcher {
     }
 
 
-    private HttpURLConnection establishConnection() throws IOException {
-        HttpURLConnection output;
-        if (method == RestMethod.POST || method == RestMethod.PUT) {
-            output = createBodyConnection( method );
-        } else {
-            output = createConnection( method );
+    private HttpURLConnection establishConnection( RestCall restCall, RestRequest request, RestEventListener listener, String route, RestCache.Entry cached ) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection)connectionFactory.createHttpURLConnection( request.url );
+        boolean established = false;
+        try {
+            restCall.attach( conn );
+            applyTimeouts( conn, restCall );
+            conn.setRequestMethod( request.method.toString() );
+            injectHeaders( conn, request.headers );
+            if ( cached != null ) {
+                injectCacheValidators( conn, cached );
+            }
+            RestRequestBody requestBody = null;
+            if ( request.body != null ) {
+                requestBody = prepareBody( conn, request.body );
+            }
+            // everything that configures the request has to happen before connect()
+            long connectStart = System.nanoTime();
+            conn.connect();
+            restCall.setSent();
+            listener.connectEnd( route, System.nanoTime() - connectStart );
+            if ( requestBody != null ) {
+                long writeStart = System.nanoTime();
+                long written = writeBody( conn, requestBody );
+                listener.requestBodyEnd( route, written, System.nanoTime() - writeStart );
+            }
+            established = true;
+            return conn;
+        } finally {
+            if ( !established ) {
+                restCall.detach();
+                conn.disconnect();
+            }
         }
-        return output;
     }
 
-    private HttpURLConnection createConnection( RestMethod method ) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection)connectionFactory.createHttpURLConnection(url);
-        conn.setRequestMethod( method.toString() );
-        injectHeaders( conn );
-        return conn;
+    private void applyTimeouts( HttpURLConnection conn, RestCall restCall ) {
+        if ( connectTimeout != USE_FACTORY_TIMEOUT ) {
+            conn.setConnectTimeout( connectTimeout );
+        }
+        if ( readTimeout != USE_FACTORY_TIMEOUT ) {
+            conn.setReadTimeout( readTimeout );
+        }
+        if ( restCall.hasDeadline() ) {
+            // 0 means no timeout, so never let the remaining time round down to it
+            int remaining = (int) Math.max( 1, Math.min( Integer.MAX_VALUE, restCall.getRemainingMillis() ) );
+            conn.setConnectTimeout( shorterTimeout( conn.getConnectTimeout(), remaining ) );
+            conn.setReadTimeout( shorterTimeout( conn.getReadTimeout(), remaining ) );
+        }
     }
 
-    private HttpURLConnection createBodyConnection( RestMethod method ) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection)connectionFactory.createHttpURLConnection( url );
-        conn.setRequestMethod( method.toString() );
-        injectHeaders( conn );
-        writeBody( conn );
-        return conn;
+    private static int shorterTimeout( int timeout, int remaining ) {
+        return timeout > 0 ? Math.min( timeout, remaining ) : remaining;
     }
 
-    private void writeBody( HttpURLConnection conn ) throws IOException {
-        conn.setDoOutput( true );
-        OutputStreamWriter writer = new OutputStreamWriter( conn.getOutputStream() );
-        writer.write( body );
-        writer.close();
+    private void releaseConnection( HttpURLConnection conn ) {
+        if ( connectionFactory instanceof IConnectionReleaser ) {
+            ( (IConnectionReleaser) connectionFactory ).releaseConnection( conn );
+        } else {
+            conn.disconnect();
+        }
     }
 
-    private void injectHeaders( HttpURLConnection conn ) {
-        for (String key : headers.keySet()) {
-            conn.setRequestProperty( key, headers.get( key ) );
+    private static void drainAndClose( InputStream is ) throws IOException {
+        // reading the rest of a small body lets the socket go back to the keep-alive pool; past the limit
+        // it is cheaper to just close it
+        try {
+            byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+            long remaining = MAX_DRAIN_BYTES;
+            int read;
+            while ( remaining > 0 && ( read = is.read( buffer, 0, buffer.length ) ) != -1 ) {
+                remaining -= read;
+            }
+        } catch ( IOException e ) {
+            // the connection is unusable anyway, closing below is all we can do
+        } finally {
+            is.close();
         }
     }
 
-    private void logRequest() {
-        Log.d( TAG, "Request URL: " + url );
-        Log.d( TAG, "Request Method: " + headers );
-        String headerLog = "Request Headers: ";
-        for(String key : headers.keySet()) {
-            headerLog += " | " + key + " : " + headers.get( key );
+    private boolean hasRequestBody() {
+        return ( method == RestMethod.POST || method == RestMethod.PUT ) && getRequestBody() != null;
+    }
+
+    private RestRequestBody prepareBody( HttpURLConnection conn, RestRequestBody requestBody ) throws IOException {
+        conn.setDoOutput( true );
+        long length = requestBody.getContentLength();
+        if ( requestCompressionThreshold != COMPRESSION_DISABLED && length >= requestCompressionThreshold ) {
+            requestBody = RestRequestBody.gzip( requestBody );
+            length = requestBody.getContentLength();
+            conn.setRequestProperty( ContentEncoding.CONTENT_ENCODING_KEY, ContentEncoding.GZIP );
+        }
+        if ( requestBody.getContentType() != null ) {
+            conn.setRequestProperty( RestApiBase.CONTENT_TYPE_KEY, requestBody.getContentType() );
+        }
+        // without a streaming mode HttpURLConnection buffers the whole body to work out Content-Length;
+        // the long overload of setFixedLengthStreamingMode needs API 19
+        if ( length >= 0 && length <= Integer.MAX_VALUE ) {
+            conn.setFixedLengthStreamingMode( (int) length );
+        } else {
+            conn.setChunkedStreamingMode( 0 );
         }
-        Log.d( TAG, headerLog );
-        JsonScrubber scrubber = new JsonScrubber( fieldsToScrub );
-        Log.d( TAG, "Request Body: " + scrubber.scrub( body ) );
+        return requestBody;
     }
 
-    private void logResponse(RestResponse response) {
-        if (response != null) {
-            Log.d( TAG, "Response Code: " + response.code );
-            String headerLog = "Response Headers: ";
-            Map<String, String> headers = response.headers;
-            for (String key : headers.keySet()) {
-                headerLog += " | " + key + " : " + headers.get(key);
+    private long writeBody( HttpURLConnection conn, RestRequestBody requestBody ) throws IOException {
+        final IProgressListener progressListener = uploadProgressListener;
+        final long total = requestBody.getContentLength();
+        CountingOutputStream out = new CountingOutputStream( conn.getOutputStream() ) {
+            @Override
+            protected void onWrite( long count ) {
+                if ( progressListener != null ) {
+                    progressListener.onProgress( count, total );
+                }
             }
-            Log.d( TAG, headerLog );
-            Log.d( TAG, "Response Body: " + response.body );
-        } else {
-            Log.d( TAG, "No Response Received!" );
+        };
+        try {
+            requestBody.writeTo( out );
+        } finally {
+            out.close();
+        }
+        return out.getCount();
+    }
+
+    private void injectHeaders( HttpURLConnection conn, RestHeaders headers ) {
+        boolean acceptEncodingSet = false;
+        for ( String name : headers.names() ) {
+            List<String> values = headers.values( name );
+            conn.setRequestProperty( name, values.get( 0 ) );
+            for ( int i = 1; i < values.size(); i++ ) {
+                conn.addRequestProperty( name, values.get( i ) );
+            }
+            acceptEncodingSet |= ContentEncoding.ACCEPT_ENCODING_KEY.equalsIgnoreCase( name );
+        }
+        if ( responseDecompressionEnabled && !acceptEncodingSet ) {
+            conn.setRequestProperty( ContentEncoding.ACCEPT_ENCODING_KEY, ContentEncoding.SUPPORTED_ENCODINGS );
         }
     }
 
     public void fetch() {
+        RestCall restCall = newCall();
         RestResponse restResponse;
         try {
-            restResponse = performRequest();
+            restResponse = performRequest( restCall );
+            onServerReached();
         } catch ( IOException e ) {
+            queueOffline( restCall );
             restResponse = getServerConnectionErrorResponse();
+        } finally {
+            restCall.finish();
+        }
+        if ( restCall.isCancelled() ) {
+            return;
         }
+        preprocessRestResponse( restResponse );
         processRestResponse( restResponse );
 
     }
 
-    public void fetchAsync() {
-        new AsyncTask<Void, Void, RestResponse>() {
+    /**
+     * Performs the request on the calling thread without calling any listener.
+     */
+    RestResponse execute() throws IOException {
+        RestCall restCall = newCall();
+        try {
+            return performRequest( restCall );
+        } finally {
+            restCall.finish();
+        }
+    }
 
-            @Override
-            protected RestResponse doInBackground(Void... params) {
+    private void onServerReached() {
+        RestOfflineQueue queue = getOfflineQueue();
+        if ( queue != null ) {
+            queue.replay();
+        }
+    }
+
+    private void queueOffline( RestCall restCall ) {
+        RestOfflineQueue queue = getOfflineQueue();
+        if ( queue == null || method == RestMethod.GET || restCall.isCancelled() || restCall.isDeadlineExceeded() ) {
+            return;
+        }
+        if ( restCall.wasSent() ) {
+            // the server may have acted on it, replaying it could apply it twice
+            return;
+        }
+        byte[] bytes = null;
+        String contentType = null;
+        if ( hasRequestBody() ) {
+            RestRequestBody requestBody = getRequestBody();
+            bytes = requestBody.getBytes();
+            contentType = requestBody.getContentType();
+            if ( bytes == null ) {
+                // a streamed body can't be kept
+                return;
+            }
+        }
+        if ( queue.offer( method, url, headers, bytes, contentType ) ) {
+            restCall.setQueuedOffline();
+        }
+    }
+
+    /**
+     * A transport doesn't say how far an exchange got, so only the errors a connect attempt fails
+     * with show that the request never left.
+     */
+    private static void markSentUnlessUnconnected( RestCall restCall, IOException error ) {
+        if ( !( error instanceof ConnectException || error instanceof NoRouteToHostException || error instanceof UnknownHostException ) ) {
+            restCall.setSent();
+        }
+    }
+
+    private RestCall newCall() {
+        RestCall restCall = new RestCall( deadlineMillis );
+        call = restCall;
+        return restCall;
+    }
+
+    /**
+     * @return a handle for cancelling the request
+     */
+    public RestCall fetchAsync() {
+        final RestCall restCall = newCall();
+        final RestDispatcher dispatcher = getDispatcher();
+        if ( getInterceptorsForCall( false ) != null ) {
+            // application interceptors wrap the whole call, so it runs start to finish on one dispatcher thread
+            dispatcher.enqueue( getHost(), new InterceptedAsyncCall( restCall, dispatcher ) );
+            return restCall;
+        }
+        RestRequest request = createRequest();
+        RestCoalescer coalescer = getCoalescerForRequest( request );
+        if ( coalescer != null ) {
+            final RestCoalescer.Call call = coalescer.acquire( getCoalescingKey( request ) );
+            if ( !call.claim() ) {
+                // an identical request is already in flight, wait for its response without taking a dispatcher slot
+                final AtomicBoolean delivered = new AtomicBoolean();
+                Closeable follower = new Closeable() {
+                    @Override
+                    public void close() {
+                        // the deadline or a cancel ends this call without waiting for the leader
+                        if ( delivered.compareAndSet( false, true ) ) {
+                            deliverAsync( restCall, dispatcher, getServerConnectionErrorResponse() );
+                        }
+                    }
+                };
                 try {
-                    return performRequest();
+                    restCall.attach( follower );
                 } catch ( IOException e ) {
-                    return getServerConnectionErrorResponse();
+                    deliverAsync( restCall, dispatcher, getServerConnectionErrorResponse() );
+                    return restCall;
                 }
+                call.addCallback( new RestCoalescer.Callback() {
+                    @Override
+                    public void onComplete( RestResponse response, IOException error ) {
+                        restCall.detach();
+                        if ( delivered.compareAndSet( false, true ) ) {
+                            deliverAsync( restCall, dispatcher, error == null ? response : getServerConnectionErrorResponse() );
+                        }
+                    }
+                } );
+                return restCall;
             }
+            dispatcher.enqueue( getHost(), new AsyncAttempt( restCall, dispatcher, call, request ) );
+            return restCall;
+        }
+        dispatcher.enqueue( getHost(), new AsyncAttempt( restCall, dispatcher, null, request ) );
+        return restCall;
+    }
+
+    /**
+     * An asynchronous request with application interceptors. Retries wait on the dispatcher thread, as
+     * they do for {@link #fetch()}.
+     */
+    private class InterceptedAsyncCall implements Runnable, RestDispatcher.IRejectable {
+        private final RestCall restCall;
+        private final RestDispatcher dispatcher;
+        private final long enqueuedAt = System.nanoTime();
 
+        InterceptedAsyncCall( RestCall restCall, RestDispatcher dispatcher ) {
+            this.restCall = restCall;
+            this.dispatcher = dispatcher;
+        }
+
+        @Override
+        public void run() {
+            getEventListener().callDispatched( getRoute(), System.nanoTime() - enqueuedAt );
+            RestResponse response;
+            try {
+                response = performRequest( restCall );
+                onServerReached();
+            } catch ( IOException e ) {
+                queueOffline( restCall );
+                response = getServerConnectionErrorResponse();
+            } catch ( RuntimeException e ) {
+                // a broken interceptor, one returning null for instance, still ends the call
+                response = getServerConnectionErrorResponse();
+            }
+            deliverAsync( restCall, dispatcher, response );
+        }
+
+        @Override
+        public void onRejected( RejectedExecutionException e ) {
+            deliverAsync( restCall, dispatcher, getServerConnectionErrorResponse() );
+        }
+    }
+
+    /**
+     * One attempt of an asynchronous request. When the retry policy wants another attempt it is put
+     * back on the dispatcher after the backoff, so no thread is blocked while waiting. A coalesced
+     * leader keeps its claim across attempts and only completes the shared call at the end.
+     */
+    private class AsyncAttempt implements Runnable, RestDispatcher.IRejectable {
+        private final RestCall restCall;
+        private final RestDispatcher dispatcher;
+        private final RestCoalescer.Call call;
+        private final RestRequest request;
+        private final RestRetryPolicy policy = getRetryPolicy();
+        private int attempt = 1;
+        private long enqueuedAt = System.nanoTime();
+
+        AsyncAttempt( RestCall restCall, RestDispatcher dispatcher, RestCoalescer.Call call, RestRequest request ) {
+            this.restCall = restCall;
+            this.dispatcher = dispatcher;
+            this.call = call;
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            getEventListener().callDispatched( getRoute(), System.nanoTime() - enqueuedAt );
+            RestResponse response = null;
+            IOException error = null;
+            try {
+                if ( sendWithoutBlocking() ) {
+                    return;
+                }
+                response = performUncoalescedRequest( restCall, request );
+            } catch ( IOException e ) {
+                error = e;
+            } catch ( RuntimeException e ) {
+                // a broken network interceptor, one returning null for instance, still ends the call
+                error = new IOException( e );
+            }
+            finish( response, error );
+        }
+
+        /**
+         * Hands the attempt to the transport, when there is one and nothing needs this thread, and
+         * finishes it on a dispatcher thread once the response is in.
+         *
+         * @return false if the attempt has to be made on this thread
+         */
+        private boolean sendWithoutBlocking() throws IOException {
+            final RestTransport transport = getTransportForRequest( request );
+            if ( transport == null || getInterceptorsForCall( true ) != null ) {
+                return false;
+            }
+            restCall.throwIfInactive();
+            final RestCache cache = getCacheForRequest( request );
+            final String cacheKey = RestCache.createKey( request.url, request.headers );
+            final RestCache.Entry cached = cache != null ? cache.get( cacheKey ) : null;
+            if ( cached != null && cached.isFresh() ) {
+                // answered from the cache without a network round trip
+                return false;
+            }
+            final RestLogger logger = getLogger();
+            if ( logger.shouldLog() ) {
+                logger.logRequest( request.method, request.url, request.headers, request.body != null ? request.body.getLogString() : null );
+            }
+            final RestEventListener listener = getEventListener();
+            final String route = getRoute();
+            final long callStart = System.nanoTime();
+            listener.callStart( route, request.method, request.url );
+            transport.enqueue( prepareForTransport( request, cached ), restCall, new RestTransport.ICallback() {
+                @Override
+                public void onResponse( final RestResponse response ) {
+                    dispatcher.enqueue( getHost(), new Completion() {
+                        @Override
+                        public void run() {
+                            listener.callEnd( route, response.code, System.nanoTime() - callStart );
+                            if ( logger.shouldLog() ) {
+                                logger.logResponse( response );
+                            }
+                            finish( cache != null ? cache.update( cacheKey, cached, response ) : response, null );
+                        }
+                    } );
+                }
+
+                @Override
+                public void onFailure( final IOException error ) {
+                    dispatcher.enqueue( getHost(), new Completion() {
+                        @Override
+                        public void run() {
+                            markSentUnlessUnconnected( restCall, error );
+                            listener.callFailed( route, error, System.nanoTime() - callStart );
+                            finish( null, error );
+                        }
+                    } );
+                }
+            } );
+            return true;
+        }
+
+        private void finish( RestResponse response, IOException error ) {
+            long delay = getRetryDelay( restCall, request, policy, attempt, response, error );
+            if ( delay != RestRetryPolicy.NO_RETRY ) {
+                attempt++;
+                enqueuedAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( delay );
+                dispatcher.enqueueDelayed( getHost(), this, delay );
+                return;
+            }
+            if ( call != null ) {
+                if ( error == null ) {
+                    call.complete( response );
+                } else {
+                    call.fail( error );
+                }
+            }
+            if ( error == null ) {
+                onServerReached();
+            } else {
+                queueOffline( restCall );
+            }
+            deliverAsync( restCall, dispatcher, error == null ? response : getServerConnectionErrorResponse() );
+        }
+
+        /**
+         * Fails the call without retrying or queueing it offline, since the dispatcher won't run either.
+         */
+        @Override
+        public void onRejected( RejectedExecutionException e ) {
+            if ( call != null ) {
+                // the requests coalesced onto this one would otherwise wait for it forever
+                call.fail( new IOException( "Dispatcher rejected the request", e ) );
+            }
+            deliverAsync( restCall, dispatcher, getServerConnectionErrorResponse() );
+        }
+
+        /**
+         * Finishes the attempt on the dispatcher once the transport has answered.
+         */
+        private abstract class Completion implements Runnable, RestDispatcher.IRejectable {
             @Override
-            protected void onPostExecute(RestResponse restResponse) {
-                processRestResponse(restResponse);
+            public void onRejected( RejectedExecutionException e ) {
+                AsyncAttempt.this.onRejected( e );
             }
-        }.execute();
+        }
+    }
+
+    private void deliverAsync( final RestCall restCall, RestDispatcher dispatcher, RestResponse response ) {
+        restCall.finish();
+        if ( restCall.isCancelled() ) {
+            return;
+        }
+        // like fetch(), a response that comes in after the deadline is reported as a failure
+        final RestResponse restResponse = restCall.isDeadlineExceeded() ? getServerConnectionErrorResponse() : response;
+        preprocessRestResponse( restResponse );
+        Executor executor = callbackExecutor != null ? callbackExecutor : dispatcher.getCallbackExecutor();
+        executor.execute( new Runnable() {
+            @Override
+            public void run() {
+                // checked again on the callback thread, so cancelling from there always wins
+                if ( !restCall.isCancelled() ) {
+                    processRestResponse( restResponse );
+                }
+            }
+        } );
+    }
+
+    private String getHost() {
+        try {
+            return new URL( url ).getHost();
+        } catch ( MalformedURLException e ) {
+            return "";
+        }
     }
 
-    @NonNull
     private RestResponse getServerConnectionErrorResponse() {
-        return new RestResponse( 404, new HashMap<String, String>(), "Could not reach server" );
+        return new RestResponse( 404, RestHeaders.EMPTY, "Could not reach server" );
     }
 
     public static String convertInputStreamToString( InputStream inputStream ) throws IOException {
-        String line;
-        String result = "";
-        if ( inputStream != null ) {
-            BufferedReader bufferedReader = new BufferedReader( new InputStreamReader( inputStream ) );
-            try {
-                while ( ( line = bufferedReader.readLine() ) != null ) {
-                    result += line;
+        return convertInputStreamToString( inputStream, -1, DEFAULT_CHARSET );
+    }
+
+    public static String convertInputStreamToString( InputStream inputStream, int contentLength, Charset charset ) throws IOException {
+        if ( inputStream == null ) {
+            throw new IOException( "InputStream: null" );
+        }
+        try {
+            byte[] buffer = new byte[contentLength > 0 ? Math.min( contentLength, MAX_INITIAL_BUFFER_SIZE ) : DEFAULT_BUFFER_SIZE];
+            int count = 0;
+            while ( true ) {
+                if ( count == buffer.length ) {
+                    // the buffer is full, only grow it if the stream really has more to give
+                    int next = inputStream.read();
+                    if ( next == -1 ) {
+                        break;
+                    }
+                    if ( buffer.length == MAX_BUFFER_SIZE ) {
+                        throw new IOException( "Response body too large" );
+                    }
+                    buffer = Arrays.copyOf( buffer, (int) Math.min( buffer.length * 2L, MAX_BUFFER_SIZE ) );
+                    buffer[count++] = (byte) next;
+                }
+                int read = inputStream.read( buffer, count, buffer.length - count );
+                if ( read == -1 ) {
+                    break;
+                }
+                count += read;
+            }
+            return new String( buffer, 0, count, charset );
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    static Charset charsetFromContentType( String contentType ) {
+        if ( contentType != null ) {
+            for ( String param : contentType.split( ";" ) ) {
+                String trimmed = param.trim();
+                if ( trimmed.regionMatches( true, 0, "charset=", 0, 8 ) ) {
+                    String name = trimmed.substring( 8 ).replace( "\"", "" ).trim();
+                    try {
+                        return Charset.forName( name );
+                    } catch ( IllegalArgumentException e ) {
+                        // unknown or malformed charset, fall back to the default
+                    }
                 }
-            } catch ( IOException e ) {
-                throw e;
-            } finally {
-                inputStream.close();
             }
-        } else {
-            throw new IOException( "InputStream: null" );
         }
-        return result.trim();
+        return DEFAULT_CHARSET;
     }
 
     public interface IConnectionFactory {
         URLConnection createHttpURLConnection(String url) throws IOException;
     }
 
-    public static class ConnectionFactory implements IConnectionFactory {
+    /**
+     * Optionally implemented by an {@link IConnectionFactory} to decide what happens to a connection
+     * once its response has been read. Factories that don't implement it get their connections
+     * disconnected.
+     */
+    public interface IConnectionReleaser {
+        void releaseConnection( HttpURLConnection conn );
+    }
+
+    public static class ConnectionFactory implements IConnectionFactory, IConnectionReleaser {
+        public static final int DEFAULT_READ_TIMEOUT = 10000;
+        public static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+
+        private final int connectTimeout;
+        private final int readTimeout;
+        private final boolean keepAlive;
+
+        public ConnectionFactory() {
+            this( DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, true );
+        }
+
+        public ConnectionFactory( int connectTimeout, int readTimeout, boolean keepAlive ) {
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+            this.keepAlive = keepAlive;
+        }
+
+        /**
+         * Sets how many idle keep-alive connections the platform HttpURLConnection pool keeps per host.
+         * This is process wide and should be called before the first request.
+         */
+        public static void setMaxIdleConnections( int maxIdleConnections ) {
+            System.setProperty( "http.maxConnections", String.valueOf( maxIdleConnections ) );
+        }
+
+        public int getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public int getReadTimeout() {
+            return readTimeout;
+        }
+
+        public boolean isKeepAlive() {
+            return keepAlive;
+        }
+
         @Override
         public URLConnection createHttpURLConnection( String url ) throws IOException {
             URL u = new URL( url );
             HttpURLConnection conn = (HttpURLConnection) u.openConnection();
-            conn.setReadTimeout( 10000 );
-            conn.setConnectTimeout( 15000 );
+            conn.setReadTimeout( readTimeout );
+            conn.setConnectTimeout( connectTimeout );
+            if ( !keepAlive ) {
+                conn.setRequestProperty( "Connection", "close" );
+            }
             return conn;
         }
-    }
-
 
+        @Override
+        public void releaseConnection( HttpURLConnection conn ) {
+            // the response streams have been read to the end and closed, which already hands a
+            // keep-alive socket back to the pool; disconnect() would close it instead
+            if ( !keepAlive ) {
+                conn.disconnect();
+            }
+        }
+    }
 }
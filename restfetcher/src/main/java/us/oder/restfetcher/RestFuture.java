@@ -0,0 +1,372 @@
+package us.oder.restfetcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The result of a request still in flight, for chaining dependent requests and fanning out to
+ * several without nesting listeners. Continuations run on the thread that completes the future, so
+ * a chain stays on background threads until {@link #addListener(IListener, Executor)} hands the end
+ * result over, to the main thread for instance.
+ *
+ * <p>A request that fails with a {@link RestError} fails its future with a {@link RestException}.
+ * Cancelling a future cancels the requests it is waiting on, and its listeners aren't called.</p>
+ */
+public class RestFuture<T> implements Future<T> {
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    public interface IFunction<A, B> {
+        B apply( A value ) throws Exception;
+    }
+
+    public interface IListener<T> {
+        void onSuccess( T value );
+
+        void onFailure( Throwable error );
+    }
+
+    private int state = PENDING;
+    private T value;
+    private Throwable failure;
+    private List<Runnable> continuations;
+    private Runnable canceller;
+
+    public static <T> RestFuture<T> completed( T value ) {
+        RestFuture<T> output = new RestFuture<>();
+        output.complete( value );
+        return output;
+    }
+
+    public static <T> RestFuture<T> failed( Throwable error ) {
+        RestFuture<T> output = new RestFuture<>();
+        output.fail( error );
+        return output;
+    }
+
+    /**
+     * Succeeds once every future has, with their values in the same order, or fails with the first
+     * failure.
+     */
+    public static <T> RestFuture<List<T>> allOf( final List<? extends RestFuture<? extends T>> futures ) {
+        final RestFuture<List<T>> output = new RestFuture<>();
+        if ( futures.isEmpty() ) {
+            output.complete( Collections.<T>emptyList() );
+            return output;
+        }
+        final Object[] values = new Object[futures.size()];
+        final AtomicInteger remaining = new AtomicInteger( futures.size() );
+        for ( int i = 0; i < futures.size(); i++ ) {
+            final int index = i;
+            final RestFuture<? extends T> future = futures.get( i );
+            future.onComplete( new Runnable() {
+                @Override
+                public void run() {
+                    if ( future.state != SUCCEEDED ) {
+                        future.propagateFailure( output );
+                        return;
+                    }
+                    values[index] = future.value;
+                    if ( remaining.decrementAndGet() == 0 ) {
+                        output.complete( RestFuture.<T>toList( values ) );
+                    }
+                }
+            } );
+        }
+        output.onCancel( new Runnable() {
+            @Override
+            public void run() {
+                for ( RestFuture<? extends T> future : futures ) {
+                    future.cancel( false );
+                }
+            }
+        } );
+        return output;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static <T> List<T> toList( Object[] values ) {
+        List<T> output = new ArrayList<>( values.length );
+        for ( Object value : values ) {
+            output.add( (T) value );
+        }
+        return output;
+    }
+
+    /**
+     * @return false if the future was already done
+     */
+    public boolean complete( T value ) {
+        return finish( SUCCEEDED, value, null );
+    }
+
+    public boolean fail( Throwable error ) {
+        return finish( FAILED, null, error );
+    }
+
+    @Override
+    public boolean cancel( boolean mayInterruptIfRunning ) {
+        return finish( CANCELLED, null, null );
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != PENDING;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while ( state == PENDING ) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized T get( long timeout, TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException {
+        long end = System.nanoTime() + unit.toNanos( timeout );
+        long remaining;
+        while ( state == PENDING ) {
+            remaining = end - System.nanoTime();
+            if ( remaining <= 0 ) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait( this, remaining );
+        }
+        return getResult();
+    }
+
+    private T getResult() throws ExecutionException {
+        if ( state == CANCELLED ) {
+            throw new CancellationException();
+        }
+        if ( state == FAILED ) {
+            throw new ExecutionException( failure );
+        }
+        return value;
+    }
+
+    /**
+     * @return a future for the function's result, failed if the function throws
+     */
+    public <U> RestFuture<U> thenApply( final IFunction<? super T, ? extends U> function ) {
+        final RestFuture<U> output = derive();
+        onComplete( new Runnable() {
+            @Override
+            public void run() {
+                if ( state != SUCCEEDED ) {
+                    propagateFailure( output );
+                    return;
+                }
+                U result;
+                try {
+                    result = function.apply( value );
+                } catch ( Exception e ) {
+                    output.fail( e );
+                    return;
+                }
+                output.complete( result );
+            }
+        } );
+        return output;
+    }
+
+    /**
+     * Starts the next request once this one succeeds, typically one that needs this one's result.
+     */
+    public <U> RestFuture<U> thenCompose( final IFunction<? super T, ? extends RestFuture<U>> function ) {
+        final RestFuture<U> output = derive();
+        onComplete( new Runnable() {
+            @Override
+            public void run() {
+                if ( state != SUCCEEDED ) {
+                    propagateFailure( output );
+                    return;
+                }
+                final RestFuture<U> next;
+                try {
+                    next = function.apply( value );
+                } catch ( Exception e ) {
+                    output.fail( e );
+                    return;
+                }
+                if ( next == null ) {
+                    output.fail( new NullPointerException( "thenCompose function returned null" ) );
+                    return;
+                }
+                output.onCancel( new Runnable() {
+                    @Override
+                    public void run() {
+                        next.cancel( false );
+                    }
+                } );
+                next.onComplete( new Runnable() {
+                    @Override
+                    public void run() {
+                        if ( next.state == SUCCEEDED ) {
+                            output.complete( next.value );
+                        } else {
+                            next.propagateFailure( output );
+                        }
+                    }
+                } );
+            }
+        } );
+        return output;
+    }
+
+    /**
+     * Replaces a failure with the function's result. Cancellation isn't recovered from.
+     */
+    public RestFuture<T> recover( final IFunction<Throwable, ? extends T> function ) {
+        final RestFuture<T> output = derive();
+        onComplete( new Runnable() {
+            @Override
+            public void run() {
+                if ( state == SUCCEEDED ) {
+                    output.complete( value );
+                } else if ( state == CANCELLED ) {
+                    output.cancel( false );
+                } else {
+                    try {
+                        output.complete( function.apply( failure ) );
+                    } catch ( Exception e ) {
+                        output.fail( e );
+                    }
+                }
+            }
+        } );
+        return output;
+    }
+
+    /**
+     * Calls the listener on the thread that completes the future, or straight away if it is done.
+     */
+    public RestFuture<T> addListener( IListener<? super T> listener ) {
+        return addListener( listener, null );
+    }
+
+    /**
+     * @param executor where to call the listener, or null for the thread that completes the future
+     */
+    public RestFuture<T> addListener( final IListener<? super T> listener, final Executor executor ) {
+        onComplete( new Runnable() {
+            @Override
+            public void run() {
+                if ( state == CANCELLED ) {
+                    return;
+                }
+                Runnable notify = new Runnable() {
+                    @Override
+                    public void run() {
+                        if ( state == SUCCEEDED ) {
+                            listener.onSuccess( value );
+                        } else {
+                            listener.onFailure( failure );
+                        }
+                    }
+                };
+                if ( executor != null ) {
+                    executor.execute( notify );
+                } else {
+                    notify.run();
+                }
+            }
+        } );
+        return this;
+    }
+
+    /**
+     * Runs when the future is cancelled, straight away if it already has been.
+     */
+    void onCancel( Runnable canceller ) {
+        synchronized ( this ) {
+            if ( state == PENDING ) {
+                this.canceller = canceller;
+                return;
+            }
+            if ( state != CANCELLED ) {
+                return;
+            }
+        }
+        canceller.run();
+    }
+
+    /**
+     * A future fed by this one, which cancels this one when it is cancelled.
+     */
+    private <U> RestFuture<U> derive() {
+        RestFuture<U> output = new RestFuture<>();
+        output.onCancel( new Runnable() {
+            @Override
+            public void run() {
+                cancel( false );
+            }
+        } );
+        return output;
+    }
+
+    private void propagateFailure( RestFuture<?> output ) {
+        if ( state == CANCELLED ) {
+            output.cancel( false );
+        } else {
+            output.fail( failure );
+        }
+    }
+
+    private void onComplete( Runnable continuation ) {
+        synchronized ( this ) {
+            if ( state == PENDING ) {
+                if ( continuations == null ) {
+                    continuations = new ArrayList<>( 2 );
+                }
+                continuations.add( continuation );
+                return;
+            }
+        }
+        continuation.run();
+    }
+
+    private boolean finish( int state, T value, Throwable failure ) {
+        List<Runnable> pending;
+        Runnable cancel;
+        synchronized ( this ) {
+            if ( this.state != PENDING ) {
+                return false;
+            }
+            this.state = state;
+            this.value = value;
+            this.failure = failure;
+            pending = continuations;
+            cancel = canceller;
+            continuations = null;
+            canceller = null;
+            notifyAll();
+        }
+        if ( state == CANCELLED && cancel != null ) {
+            cancel.run();
+        }
+        if ( pending != null ) {
+            for ( Runnable continuation : pending ) {
+                continuation.run();
+            }
+        }
+        return true;
+    }
+}
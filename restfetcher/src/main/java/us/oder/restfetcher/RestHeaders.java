@@ -0,0 +1,259 @@
+package us.oder.restfetcher;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable list of header fields, kept in the order they were given and looked up by name
+ * without regard to case. A header sent more than once keeps each of its values: use
+ * {@link #values(String)} for headers like Set-Cookie that can't be joined into one.
+ *
+ * <p>It is also a read-only {@code Map<String, String>} with one entry per name, mapped to its last
+ * value like {@link java.net.HttpURLConnection#getHeaderField(String)}.</p>
+ */
+public final class RestHeaders extends AbstractMap<String, String> {
+
+    public static final RestHeaders EMPTY = new RestHeaders( new String[0] );
+
+    // name, value, name, value...
+    private final String[] namesAndValues;
+    private volatile Set<Entry<String, String>> entrySet;
+
+    private RestHeaders( String[] namesAndValues ) {
+        this.namesAndValues = namesAndValues;
+    }
+
+    /**
+     * @param namesAndValues alternating names and values
+     */
+    public static RestHeaders of( String... namesAndValues ) {
+        if ( namesAndValues.length % 2 != 0 ) {
+            throw new IllegalArgumentException( "expected alternating names and values" );
+        }
+        Builder builder = new Builder();
+        for ( int i = 0; i < namesAndValues.length; i += 2 ) {
+            builder.add( namesAndValues[i], namesAndValues[i + 1] );
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the map itself if it already is a RestHeaders, and an empty one for null.
+     */
+    public static RestHeaders of( Map<String, String> headers ) {
+        if ( headers instanceof RestHeaders ) {
+            return (RestHeaders) headers;
+        }
+        if ( headers == null || headers.isEmpty() ) {
+            return EMPTY;
+        }
+        Builder builder = new Builder();
+        for ( Map.Entry<String, String> header : headers.entrySet() ) {
+            if ( header.getKey() != null && header.getValue() != null ) {
+                builder.add( header.getKey(), header.getValue() );
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads {@link java.net.HttpURLConnection#getHeaderFields()}, leaving out the status line that
+     * it files under a null name.
+     */
+    public static RestHeaders fromMultimap( Map<String, List<String>> headers ) {
+        if ( headers == null || headers.isEmpty() ) {
+            return EMPTY;
+        }
+        int count = 0;
+        for ( Map.Entry<String, List<String>> header : headers.entrySet() ) {
+            if ( header.getKey() != null && header.getValue() != null ) {
+                count += header.getValue().size();
+            }
+        }
+        String[] namesAndValues = new String[count * 2];
+        int i = 0;
+        for ( Map.Entry<String, List<String>> header : headers.entrySet() ) {
+            String name = header.getKey();
+            if ( name == null || header.getValue() == null ) {
+                continue;
+            }
+            for ( String value : header.getValue() ) {
+                namesAndValues[i++] = name;
+                namesAndValues[i++] = value == null ? "" : value;
+            }
+        }
+        return new RestHeaders( namesAndValues );
+    }
+
+    /**
+     * The number of header fields, counting each value of a repeated header.
+     */
+    public int getCount() {
+        return namesAndValues.length / 2;
+    }
+
+    public String getName( int index ) {
+        return namesAndValues[index * 2];
+    }
+
+    public String getValue( int index ) {
+        return namesAndValues[index * 2 + 1];
+    }
+
+    /**
+     * @return the last value of the header, or null if it is absent
+     */
+    public String get( String name ) {
+        for ( int i = namesAndValues.length - 2; i >= 0; i -= 2 ) {
+            if ( name.equalsIgnoreCase( namesAndValues[i] ) ) {
+                return namesAndValues[i + 1];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String get( Object key ) {
+        return key instanceof String ? get( (String) key ) : null;
+    }
+
+    @Override
+    public boolean containsKey( Object key ) {
+        return get( key ) != null;
+    }
+
+    /**
+     * @return every value of the header in the order received, empty if it is absent
+     */
+    public List<String> values( String name ) {
+        List<String> output = null;
+        for ( int i = 0; i < namesAndValues.length; i += 2 ) {
+            if ( name.equalsIgnoreCase( namesAndValues[i] ) ) {
+                if ( output == null ) {
+                    output = new ArrayList<>( 2 );
+                }
+                output.add( namesAndValues[i + 1] );
+            }
+        }
+        return output == null ? Collections.<String>emptyList() : Collections.unmodifiableList( output );
+    }
+
+    /**
+     * The distinct names, spelled as they first appear.
+     */
+    public Set<String> names() {
+        Set<String> output = new LinkedHashSet<>();
+        for ( int i = 0; i < namesAndValues.length; i += 2 ) {
+            if ( indexOf( namesAndValues[i] ) == i ) {
+                output.add( namesAndValues[i] );
+            }
+        }
+        return Collections.unmodifiableSet( output );
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        Set<Entry<String, String>> output = entrySet;
+        if ( output == null ) {
+            // only built for callers that use the Map view
+            Map<String, String> map = new LinkedHashMap<>();
+            for ( String name : names() ) {
+                map.put( name, get( name ) );
+            }
+            output = Collections.unmodifiableMap( map ).entrySet();
+            entrySet = output;
+        }
+        return output;
+    }
+
+    public Builder newBuilder() {
+        return new Builder( this );
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for ( int i = 0; i < namesAndValues.length; i += 2 ) {
+            builder.append( namesAndValues[i] ).append( ": " ).append( namesAndValues[i + 1] ).append( '\n' );
+        }
+        return builder.toString();
+    }
+
+    private int indexOf( String name ) {
+        for ( int i = 0; i < namesAndValues.length; i += 2 ) {
+            if ( name.equalsIgnoreCase( namesAndValues[i] ) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static class Builder {
+        private final List<String> namesAndValues = new ArrayList<>( 20 );
+
+        public Builder() {
+        }
+
+        Builder( RestHeaders headers ) {
+            namesAndValues.addAll( Arrays.asList( headers.namesAndValues ) );
+        }
+
+        /**
+         * Adds a field, keeping any others with the same name.
+         */
+        public Builder add( String name, String value ) {
+            checkNameAndValue( name, value );
+            namesAndValues.add( name );
+            namesAndValues.add( value );
+            return this;
+        }
+
+        /**
+         * Replaces every field with this name.
+         */
+        public Builder set( String name, String value ) {
+            checkNameAndValue( name, value );
+            remove( name );
+            return add( name, value );
+        }
+
+        public Builder remove( String name ) {
+            for ( int i = namesAndValues.size() - 2; i >= 0; i -= 2 ) {
+                if ( name.equalsIgnoreCase( namesAndValues.get( i ) ) ) {
+                    namesAndValues.remove( i + 1 );
+                    namesAndValues.remove( i );
+                }
+            }
+            return this;
+        }
+
+        public String get( String name ) {
+            for ( int i = namesAndValues.size() - 2; i >= 0; i -= 2 ) {
+                if ( name.equalsIgnoreCase( namesAndValues.get( i ) ) ) {
+                    return namesAndValues.get( i + 1 );
+                }
+            }
+            return null;
+        }
+
+        public RestHeaders build() {
+            return namesAndValues.isEmpty() ? EMPTY : new RestHeaders( namesAndValues.toArray( new String[namesAndValues.size()] ) );
+        }
+
+        private static void checkNameAndValue( String name, String value ) {
+            if ( name == null || name.isEmpty() ) {
+                throw new IllegalArgumentException( "header name is empty" );
+            }
+            if ( value == null ) {
+                throw new IllegalArgumentException( "value for " + name + " is null" );
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package us.oder.restfetcher;
+
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import us.oder.restfetcher.util.JsonScrubber;
+
+public class RestLogger {
+
+    public static final String TAG = RestFetcher.class.getSimpleName();
+    public static final int DEFAULT_MAX_BODY_LENGTH = 4096;
+
+    public enum Level {
+        /** Nothing is logged and nothing is formatted. */
+        NONE,
+        /** Request method and URL, response code. */
+        BASIC,
+        /** BASIC plus request and response headers. */
+        HEADERS,
+        /** HEADERS plus bodies, scrubbed and truncated. */
+        BODY
+    }
+
+    public interface ILogWriter {
+        void log( String message );
+    }
+
+    private static RestLogger defaultLogger;
+
+    private final ILogWriter writer;
+    private volatile Level level = Level.NONE;
+    private volatile int maxBodyLength = DEFAULT_MAX_BODY_LENGTH;
+    private volatile int sampleRate = 1;
+    private volatile JsonScrubber scrubber = new JsonScrubber( new String[]{"password", "username"} );
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * Writes to logcat on Android, and to java.util.logging on a plain JVM.
+     */
+    public RestLogger() {
+        this( Platform.isAndroid() ? new AndroidLogWriter() : new JavaLogWriter() );
+    }
+
+    public RestLogger( ILogWriter writer ) {
+        this.writer = writer;
+    }
+
+    public static synchronized RestLogger getDefault() {
+        if ( defaultLogger == null ) {
+            defaultLogger = new RestLogger();
+        }
+        return defaultLogger;
+    }
+
+    public static synchronized void setDefault( RestLogger logger ) {
+        defaultLogger = logger;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public void setLevel( Level level ) {
+        this.level = level;
+    }
+
+    public int getMaxBodyLength() {
+        return maxBodyLength;
+    }
+
+    public void setMaxBodyLength( int maxBodyLength ) {
+        this.maxBodyLength = maxBodyLength;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Logs one out of every {@code sampleRate} requests; 1 logs them all.
+     */
+    public void setSampleRate( int sampleRate ) {
+        if ( sampleRate < 1 ) {
+            throw new IllegalArgumentException( "sampleRate < 1: " + sampleRate );
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    public void setFieldsToScrub( String[] fieldsToScrub ) {
+        scrubber = new JsonScrubber( fieldsToScrub );
+    }
+
+    /**
+     * Decides once per request whether it gets logged, so its request and response lines stay together.
+     */
+    public boolean shouldLog() {
+        if ( level == Level.NONE ) {
+            return false;
+        }
+        int rate = sampleRate;
+        return rate == 1 || requestCount.getAndIncrement() % rate == 0;
+    }
+
+    public void logRequest( RestMethod method, String url, Map<String, String> headers, String body ) {
+        Level level = this.level;
+        if ( level == Level.NONE ) {
+            return;
+        }
+        writer.log( "Request: " + method + " " + url );
+        if ( level.compareTo( Level.HEADERS ) >= 0 ) {
+            writer.log( formatHeaders( "Request Headers: ", headers ) );
+        }
+        if ( level == Level.BODY && body != null && !body.isEmpty() ) {
+            writer.log( "Request Body: " + truncate( scrubber.scrub( body ) ) );
+        }
+    }
+
+    public void logResponse( RestResponse response ) {
+        Level level = this.level;
+        if ( level == Level.NONE ) {
+            return;
+        }
+        if ( response == null ) {
+            writer.log( "No Response Received!" );
+            return;
+        }
+        writer.log( "Response Code: " + response.code );
+        if ( level.compareTo( Level.HEADERS ) >= 0 ) {
+            writer.log( formatHeaders( "Response Headers: ", response.headers ) );
+        }
+        if ( level == Level.BODY && response.body != null && !response.body.isEmpty() ) {
+            writer.log( "Response Body: " + truncate( scrubber.scrub( response.body ) ) );
+        }
+    }
+
+    private String formatHeaders( String prefix, Map<String, String> headers ) {
+        StringBuilder builder = new StringBuilder( prefix );
+        if ( headers != null ) {
+            for ( Map.Entry<String, String> header : headers.entrySet() ) {
+                builder.append( " | " ).append( header.getKey() ).append( " : " ).append( header.getValue() );
+            }
+        }
+        return builder.toString();
+    }
+
+    private String truncate( String body ) {
+        int max = maxBodyLength;
+        if ( body.length() <= max ) {
+            return body;
+        }
+        return body.substring( 0, max ) + "... (" + ( body.length() - max ) + " more chars)";
+    }
+
+    public static class AndroidLogWriter implements ILogWriter {
+        @Override
+        public void log( String message ) {
+            Log.d( TAG, message );
+        }
+    }
+
+    public static class JavaLogWriter implements ILogWriter {
+        private final Logger logger = Logger.getLogger( TAG );
+
+        @Override
+        public void log( String message ) {
+            logger.info( message );
+        }
+    }
+}
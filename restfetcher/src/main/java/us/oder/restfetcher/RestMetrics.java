@@ -0,0 +1,212 @@
+package us.oder.restfetcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link RestEventListener} that keeps latency histograms and byte counts per route, for finding
+ * slow endpoints. Install it with {@link RestEventListener#setDefault(RestEventListener)} or per request.
+ */
+public class RestMetrics extends RestEventListener {
+
+    private final ConcurrentMap<String, RouteStats> routes = new ConcurrentHashMap<>();
+
+    public List<String> getRoutes() {
+        List<String> output = new ArrayList<>( routes.keySet() );
+        Collections.sort( output );
+        return output;
+    }
+
+    /**
+     * Returns the live stats for the route, or null if nothing has been recorded for it.
+     */
+    public RouteStats getRouteStats( String route ) {
+        return routes.get( route );
+    }
+
+    public void reset() {
+        routes.clear();
+    }
+
+    private RouteStats stats( String route ) {
+        RouteStats stats = routes.get( route );
+        if ( stats == null ) {
+            RouteStats created = new RouteStats( route );
+            stats = routes.putIfAbsent( route, created );
+            if ( stats == null ) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public void callDispatched( String route, long queueNanos ) {
+        stats( route ).queue.record( queueNanos );
+    }
+
+    @Override
+    public void connectEnd( String route, long connectNanos ) {
+        stats( route ).connect.record( connectNanos );
+    }
+
+    @Override
+    public void requestBodyEnd( String route, long byteCount, long writeNanos ) {
+        RouteStats stats = stats( route );
+        stats.requestBody.record( writeNanos );
+        stats.bytesSent.addAndGet( byteCount );
+    }
+
+    @Override
+    public void responseCodeReceived( String route, int code, long waitNanos ) {
+        stats( route ).timeToFirstByte.record( waitNanos );
+    }
+
+    @Override
+    public void responseBodyEnd( String route, long byteCount, long readNanos ) {
+        RouteStats stats = stats( route );
+        stats.responseBody.record( readNanos );
+        stats.bytesReceived.addAndGet( byteCount );
+    }
+
+    @Override
+    public void responseHeadersEnd( String route, int headerCount, long extractNanos ) {
+        stats( route ).responseHeaders.record( extractNanos );
+    }
+
+    @Override
+    public void responseParsed( String route, long parseNanos ) {
+        stats( route ).parse.record( parseNanos );
+    }
+
+    @Override
+    public void retryScheduled( String route, int attempt, long delayMillis ) {
+        stats( route ).retries.incrementAndGet();
+    }
+
+    @Override
+    public void callEnd( String route, int code, long totalNanos ) {
+        RouteStats stats = stats( route );
+        stats.total.record( totalNanos );
+        if ( code < 200 || code > 299 ) {
+            stats.errorResponses.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void callFailed( String route, IOException error, long totalNanos ) {
+        RouteStats stats = stats( route );
+        stats.total.record( totalNanos );
+        stats.failures.incrementAndGet();
+    }
+
+    public static class RouteStats {
+        public final String route;
+        public final Histogram queue = new Histogram();
+        public final Histogram connect = new Histogram();
+        public final Histogram requestBody = new Histogram();
+        public final Histogram timeToFirstByte = new Histogram();
+        public final Histogram responseBody = new Histogram();
+        public final Histogram responseHeaders = new Histogram();
+        public final Histogram parse = new Histogram();
+        public final Histogram total = new Histogram();
+        public final AtomicLong bytesSent = new AtomicLong();
+        public final AtomicLong bytesReceived = new AtomicLong();
+        public final AtomicLong errorResponses = new AtomicLong();
+        public final AtomicLong failures = new AtomicLong();
+        public final AtomicLong retries = new AtomicLong();
+
+        RouteStats( String route ) {
+            this.route = route;
+        }
+
+        @Override
+        public String toString() {
+            return route + ": calls=" + total.getCount()
+                    + " p50=" + TimeUnit.NANOSECONDS.toMillis( total.getPercentile( 50 ) ) + "ms"
+                    + " p99=" + TimeUnit.NANOSECONDS.toMillis( total.getPercentile( 99 ) ) + "ms"
+                    + " ttfb.p50=" + TimeUnit.NANOSECONDS.toMillis( timeToFirstByte.getPercentile( 50 ) ) + "ms"
+                    + " errors=" + errorResponses.get()
+                    + " failures=" + failures.get()
+                    + " retries=" + retries.get()
+                    + " sent=" + bytesSent.get() + "B"
+                    + " received=" + bytesReceived.get() + "B";
+        }
+    }
+
+    /**
+     * A lock-free latency histogram with power-of-two microsecond buckets, from under 1us up to about
+     * 35 minutes. Percentiles are reported as the upper bound of the bucket they fall in, capped at the
+     * largest value seen, so they are accurate to within a factor of two.
+     */
+    public static class Histogram {
+        private static final int BUCKET_COUNT = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray( BUCKET_COUNT );
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record( long nanos ) {
+            if ( nanos < 0 ) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet( bucketFor( nanos ) );
+            count.incrementAndGet();
+            sum.addAndGet( nanos );
+            long currentMax;
+            while ( nanos > ( currentMax = max.get() ) && !max.compareAndSet( currentMax, nanos ) ) {
+                // another thread raised the max, try again against the new value
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public long getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : sum.get() / n;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the latency in nanoseconds, or 0 if nothing has been recorded
+         */
+        public long getPercentile( double percentile ) {
+            long n = count.get();
+            if ( n == 0 ) {
+                return 0;
+            }
+            long rank = (long) Math.ceil( n * percentile / 100 );
+            long seen = 0;
+            for ( int i = 0; i < BUCKET_COUNT; i++ ) {
+                seen += buckets.get( i );
+                if ( seen >= rank && seen > 0 ) {
+                    return Math.min( bucketUpperBound( i ), max.get() );
+                }
+            }
+            return max.get();
+        }
+
+        static int bucketFor( long nanos ) {
+            long micros = nanos / 1000;
+            return Math.min( BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros( micros ) );
+        }
+
+        static long bucketUpperBound( int bucket ) {
+            return ( 1L << bucket ) * 1000;
+        }
+    }
+}
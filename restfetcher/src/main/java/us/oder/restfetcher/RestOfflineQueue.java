@@ -0,0 +1,604 @@
+package us.oder.restfetcher;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps mutating requests that failed to reach the server in an append-only journal file and sends
+ * them again, oldest first, once the server can be reached. Install it with
+ * {@link #setDefault(RestOfflineQueue)} or per request; nothing is queued without one.
+ *
+ * <p>A request is queued when it fails, after retries, without any attempt getting as far as a
+ * connection, and was not cancelled or out of time. One that may have reached the server, like a
+ * read timeout after the body was sent, is not queued, since the server may have acted on it. Its
+ * error listener is still called; {@link RestCall#isQueuedOffline()} tells the two apart. A PUT or
+ * DELETE replaces any queued PUT or DELETE of the same url, since only the last one would have any
+ * effect. Bodies given as a stream are not queued.</p>
+ *
+ * <p>Delivery is at least once: an entry whose replay reaches the server but gets no answer stays
+ * at the head of the queue and is sent again, so a POST that isn't safe to repeat should carry
+ * something the server can recognize it by, such as an idempotency key header.</p>
+ *
+ * <p>Replay starts by itself when any request using the queue gets a response, or can be started
+ * with {@link #replay()}, e.g. when the device reports connectivity. It stops at the first
+ * connection error, 408, 429 or 5xx and leaves that entry at the head of the queue; other error
+ * responses drop the entry and are reported to the {@link IReplayListener}.</p>
+ */
+public class RestOfflineQueue {
+
+    public static final int DEFAULT_MAX_ENTRIES = 500;
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    private static final byte RECORD_ADD = 1;
+    private static final byte RECORD_REMOVE = 2;
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+    private static final long MIN_COMPACTION_BYTES = 64 * 1024;
+
+    private static RestOfflineQueue defaultQueue;
+
+    /**
+     * Called on a dispatcher thread as replayed entries leave the queue.
+     */
+    public interface IReplayListener {
+        void onReplayed( Entry entry, RestResponse response );
+
+        /**
+         * @param response the response that rejected the entry, or null if it was evicted to keep the
+         *                 queue within its limits
+         */
+        void onDropped( Entry entry, RestResponse response );
+    }
+
+    public static class Entry {
+        public final long id;
+        public final long createdAt;
+        public final RestMethod method;
+        public final String url;
+        public final Map<String, String> headers;
+        public final String contentType;
+        private final byte[] body;
+        private final int size;
+
+        Entry( long id, long createdAt, RestMethod method, String url, Map<String, String> headers, String contentType, byte[] body, int size ) {
+            this.id = id;
+            this.createdAt = createdAt;
+            this.method = method;
+            this.url = url;
+            this.headers = headers;
+            this.contentType = contentType;
+            this.body = body;
+            this.size = size;
+        }
+
+        public byte[] getBody() {
+            return body == null ? null : body.clone();
+        }
+
+        private boolean replaces( Entry other ) {
+            return isReplaceable( method ) && isReplaceable( other.method ) && url.equals( other.url );
+        }
+
+        private static boolean isReplaceable( RestMethod method ) {
+            return method == RestMethod.PUT || method == RestMethod.DELETE;
+        }
+    }
+
+    private final File file;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>();
+    private RestFetcher.IConnectionFactory connectionFactory = new RestFetcher.ConnectionFactory();
+    private RestDispatcher dispatcher;
+    private IReplayListener replayListener;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long liveBytes;
+    private long nextId = 1;
+    private FileOutputStream journal;
+    private long journalLength;
+    private boolean replaying;
+
+    /**
+     * Opens the journal, creating it if needed, and loads the entries it holds. A record cut short by
+     * a crash is discarded.
+     */
+    public RestOfflineQueue( File file ) throws IOException {
+        this.file = file;
+        load();
+    }
+
+    public static synchronized RestOfflineQueue getDefault() {
+        return defaultQueue;
+    }
+
+    public static synchronized void setDefault( RestOfflineQueue queue ) {
+        defaultQueue = queue;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized RestFetcher.IConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    public synchronized void setConnectionFactory( RestFetcher.IConnectionFactory connectionFactory ) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    public synchronized RestDispatcher getDispatcher() {
+        return dispatcher != null ? dispatcher : RestDispatcher.getDefault();
+    }
+
+    public synchronized void setDispatcher( RestDispatcher dispatcher ) {
+        this.dispatcher = dispatcher;
+    }
+
+    public synchronized IReplayListener getReplayListener() {
+        return replayListener;
+    }
+
+    public synchronized void setReplayListener( IReplayListener replayListener ) {
+        this.replayListener = replayListener;
+    }
+
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * When a new entry would exceed either limit the oldest entries are dropped.
+     */
+    public synchronized void setMaxEntries( int maxEntries ) {
+        this.maxEntries = maxEntries;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized void setMaxBytes( long maxBytes ) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * The bytes used by the queued entries; the journal itself may be up to twice as large before it
+     * is compacted.
+     */
+    public synchronized long getByteCount() {
+        return liveBytes;
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return Collections.unmodifiableList( new ArrayList<>( entries.values() ) );
+    }
+
+    public synchronized boolean isReplaying() {
+        return replaying;
+    }
+
+    /**
+     * Persists the request before returning.
+     *
+     * @param body the whole request body, or null
+     * @return false if it can't be queued: a GET, larger than the byte limit, or the journal could not
+     *         be written
+     */
+    public boolean offer( RestMethod method, String url, Map<String, String> headers, byte[] body, String contentType ) {
+        if ( method == RestMethod.GET ) {
+            return false;
+        }
+        List<Entry> evicted = new ArrayList<>();
+        synchronized ( this ) {
+            Entry entry = new Entry( nextId, System.currentTimeMillis(), method, url,
+                    headers == null ? Collections.<String, String>emptyMap() : Collections.unmodifiableMap( new HashMap<>( headers ) ),
+                    contentType, body, 0 );
+            try {
+                byte[] record = encodeAdd( entry );
+                if ( record.length > maxBytes ) {
+                    return false;
+                }
+                entry = new Entry( entry.id, entry.createdAt, method, url, entry.headers, contentType, body, record.length );
+                // written before the entries it replaces are dropped, so a failed write loses nothing
+                append( record );
+            } catch ( IOException e ) {
+                return false;
+            }
+            nextId++;
+            List<Entry> removed = new ArrayList<>();
+            for ( Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+                Entry queued = it.next();
+                if ( entry.replaces( queued ) ) {
+                    it.remove();
+                    liveBytes -= queued.size;
+                    removed.add( queued );
+                }
+            }
+            entries.put( entry.id, entry );
+            liveBytes += entry.size;
+            while ( entries.size() > maxEntries || liveBytes > maxBytes ) {
+                Entry oldest = entries.values().iterator().next();
+                entries.remove( oldest.id );
+                liveBytes -= oldest.size;
+                removed.add( oldest );
+                evicted.add( oldest );
+            }
+            try {
+                for ( Entry queued : removed ) {
+                    append( encodeRemove( queued.id ) );
+                }
+                sync();
+                compactIfNeeded();
+            } catch ( IOException e ) {
+                // the entry is queued; at worst the ones it replaced or evicted come back after a restart
+            }
+        }
+        IReplayListener listener = getReplayListener();
+        if ( listener != null ) {
+            for ( Entry entry : evicted ) {
+                listener.onDropped( entry, null );
+            }
+        }
+        return true;
+    }
+
+    public synchronized boolean remove( long id ) {
+        Entry entry = entries.get( id );
+        if ( entry == null ) {
+            return false;
+        }
+        try {
+            removeEntry( entry );
+            sync();
+            compactIfNeeded();
+        } catch ( IOException e ) {
+            // the entry is gone from memory; at worst it is replayed again after a restart
+        }
+        return true;
+    }
+
+    public synchronized void clear() throws IOException {
+        entries.clear();
+        liveBytes = 0;
+        rewrite();
+    }
+
+    /**
+     * Starts sending the queued requests in order on the dispatcher, unless the queue is empty or
+     * already replaying.
+     */
+    public void replay() {
+        Entry head;
+        synchronized ( this ) {
+            if ( replaying || entries.isEmpty() ) {
+                return;
+            }
+            replaying = true;
+            head = entries.values().iterator().next();
+        }
+        getDispatcher().enqueue( getHost( head.url ), new ReplayTask() );
+    }
+
+    /**
+     * Whether a response with this code means the request should stay queued and be tried later.
+     */
+    protected boolean shouldKeep( int code ) {
+        return code == 408 || code == 429 || code >= 500;
+    }
+
+    private class ReplayTask implements Runnable, RestDispatcher.IRejectable {
+
+        @Override
+        public void run() {
+            Entry entry;
+            RestFetcher.IConnectionFactory factory;
+            synchronized ( RestOfflineQueue.this ) {
+                if ( entries.isEmpty() ) {
+                    replaying = false;
+                    return;
+                }
+                entry = entries.values().iterator().next();
+                factory = connectionFactory;
+            }
+            RestRequestBody body = entry.body == null ? null : RestRequestBody.create( entry.body, entry.contentType );
+            RestFetcher fetcher = new RestFetcher( entry.url, entry.method, entry.headers, body, factory );
+            fetcher.disableOfflineQueue();
+            RestResponse response;
+            try {
+                response = fetcher.execute();
+            } catch ( IOException e ) {
+                stop();
+                return;
+            } catch ( RuntimeException e ) {
+                stop();
+                throw e;
+            }
+            if ( shouldKeep( response.code ) ) {
+                stop();
+                return;
+            }
+            remove( entry.id );
+            IReplayListener listener = getReplayListener();
+            if ( listener != null ) {
+                if ( response.code > 199 && response.code < 300 ) {
+                    listener.onReplayed( entry, response );
+                } else {
+                    listener.onDropped( entry, response );
+                }
+            }
+            Entry next;
+            synchronized ( RestOfflineQueue.this ) {
+                if ( entries.isEmpty() ) {
+                    replaying = false;
+                    return;
+                }
+                next = entries.values().iterator().next();
+            }
+            getDispatcher().enqueue( getHost( next.url ), this );
+        }
+
+        @Override
+        public void onRejected( RejectedExecutionException e ) {
+            stop();
+        }
+    }
+
+    private synchronized void stop() {
+        replaying = false;
+    }
+
+    private static String getHost( String url ) {
+        try {
+            return new URL( url ).getHost();
+        } catch ( MalformedURLException e ) {
+            return "";
+        }
+    }
+
+    private void removeEntry( Entry entry ) throws IOException {
+        entries.remove( entry.id );
+        liveBytes -= entry.size;
+        append( encodeRemove( entry.id ) );
+    }
+
+    private void load() throws IOException {
+        if ( !file.exists() ) {
+            rewrite();
+            return;
+        }
+        long validLength = 0;
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try {
+            while ( true ) {
+                byte[] record = readRecord( in );
+                if ( record == null ) {
+                    break;
+                }
+                apply( record );
+                validLength += 8 + record.length;
+            }
+        } finally {
+            in.close();
+        }
+        if ( validLength < file.length() ) {
+            // a torn write at the end of the journal, drop it so new records follow valid ones
+            RandomAccessFile truncated = new RandomAccessFile( file, "rw" );
+            try {
+                truncated.setLength( validLength );
+            } finally {
+                truncated.close();
+            }
+        }
+        journalLength = validLength;
+        journal = new FileOutputStream( file, true );
+    }
+
+    /**
+     * @return the record, or null at the end of the journal or at the first damaged record
+     */
+    private static byte[] readRecord( DataInputStream in ) throws IOException {
+        try {
+            int length = in.readInt();
+            if ( length <= 0 || length > MAX_RECORD_LENGTH ) {
+                return null;
+            }
+            byte[] record = new byte[length];
+            in.readFully( record );
+            int checksum = in.readInt();
+            return checksum == checksum( record ) ? record : null;
+        } catch ( EOFException e ) {
+            return null;
+        }
+    }
+
+    private void apply( byte[] record ) throws IOException {
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( record ) );
+        byte type = in.readByte();
+        long id = in.readLong();
+        nextId = Math.max( nextId, id + 1 );
+        if ( type == RECORD_REMOVE ) {
+            Entry removed = entries.remove( id );
+            if ( removed != null ) {
+                liveBytes -= removed.size;
+            }
+            return;
+        }
+        long createdAt = in.readLong();
+        RestMethod method = RestMethod.valueOf( in.readUTF() );
+        String url = in.readUTF();
+        int headerCount = in.readInt();
+        Map<String, String> headers = new HashMap<>();
+        for ( int i = 0; i < headerCount; i++ ) {
+            headers.put( in.readUTF(), in.readUTF() );
+        }
+        String contentType = in.readBoolean() ? in.readUTF() : null;
+        int bodyLength = in.readInt();
+        byte[] body = null;
+        if ( bodyLength >= 0 ) {
+            body = new byte[bodyLength];
+            in.readFully( body );
+        }
+        Entry entry = new Entry( id, createdAt, method, url, Collections.unmodifiableMap( headers ), contentType, body, 8 + record.length );
+        entries.put( id, entry );
+        liveBytes += entry.size;
+    }
+
+    private static byte[] encodeAdd( Entry entry ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeByte( RECORD_ADD );
+        out.writeLong( entry.id );
+        out.writeLong( entry.createdAt );
+        out.writeUTF( entry.method.name() );
+        out.writeUTF( entry.url );
+        out.writeInt( entry.headers.size() );
+        for ( Map.Entry<String, String> header : entry.headers.entrySet() ) {
+            out.writeUTF( header.getKey() );
+            out.writeUTF( header.getValue() );
+        }
+        out.writeBoolean( entry.contentType != null );
+        if ( entry.contentType != null ) {
+            out.writeUTF( entry.contentType );
+        }
+        out.writeInt( entry.body == null ? -1 : entry.body.length );
+        if ( entry.body != null ) {
+            out.write( entry.body );
+        }
+        return frame( bytes.toByteArray() );
+    }
+
+    private static byte[] encodeRemove( long id ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( 9 );
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeByte( RECORD_REMOVE );
+        out.writeLong( id );
+        return frame( bytes.toByteArray() );
+    }
+
+    /**
+     * Wraps a record as length, record, CRC32, so a partly written one is recognized when loading.
+     */
+    private static byte[] frame( byte[] record ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( record.length + 8 );
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( record.length );
+        out.write( record );
+        out.writeInt( checksum( record ) );
+        return bytes.toByteArray();
+    }
+
+    private static int checksum( byte[] record ) {
+        CRC32 crc = new CRC32();
+        crc.update( record, 0, record.length );
+        return (int) crc.getValue();
+    }
+
+    private void append( byte[] framed ) throws IOException {
+        try {
+            write( journal, framed );
+        } catch ( IOException e ) {
+            // a torn record would hide every record appended after it when the journal is loaded
+            try {
+                journal.getChannel().truncate( journalLength );
+            } catch ( IOException truncateError ) {
+                try {
+                    rewrite();
+                } catch ( IOException rewriteError ) {
+                    // reported as the failed write below
+                }
+            }
+            throw e;
+        }
+        journalLength += framed.length;
+    }
+
+    /**
+     * Overridden by tests to fail partway through a record.
+     */
+    void write( FileOutputStream journal, byte[] framed ) throws IOException {
+        journal.write( framed );
+    }
+
+    private void sync() throws IOException {
+        journal.flush();
+        journal.getFD().sync();
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if ( journalLength > MIN_COMPACTION_BYTES && journalLength > 2 * liveBytes ) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Writes the live entries to a new journal and swaps it in, so removed entries stop taking space.
+     */
+    private void rewrite() throws IOException {
+        File temp = new File( file.getPath() + ".tmp" );
+        FileOutputStream out = new FileOutputStream( temp );
+        long length = 0;
+        try {
+            for ( Entry entry : entries.values() ) {
+                byte[] record = encodeAdd( entry );
+                out.write( record );
+                length += record.length;
+            }
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if ( journal != null ) {
+            journal.close();
+        }
+        if ( !temp.renameTo( file ) ) {
+            file.delete();
+            if ( !temp.renameTo( file ) ) {
+                reopen();
+                throw new IOException( "Could not replace " + file );
+            }
+        }
+        journalLength = length;
+        journal = new FileOutputStream( file, true );
+    }
+
+    /**
+     * Goes back to the journal that could not be replaced, or writes the live entries to a new one
+     * if it is already gone, so the queue can still be appended to.
+     */
+    private void reopen() throws IOException {
+        boolean existed = file.exists();
+        journal = new FileOutputStream( file, true );
+        if ( !existed ) {
+            journalLength = 0;
+            for ( Entry entry : entries.values() ) {
+                byte[] record = encodeAdd( entry );
+                journal.write( record );
+                journalLength += record.length;
+            }
+        }
+    }
+}
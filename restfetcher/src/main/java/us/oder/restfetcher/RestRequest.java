@@ -0,0 +1,78 @@
+package us.oder.restfetcher;
+
+/**
+ * The request a {@link RestFetcher} sends, as seen and rewritten by a {@link RestFetcher.IInterceptor}.
+ */
+public final class RestRequest {
+    public final RestMethod method;
+    public final String url;
+    public final RestHeaders headers;
+    /** Null for requests without a body. */
+    public final RestRequestBody body;
+
+    public RestRequest( RestMethod method, String url, RestHeaders headers, RestRequestBody body ) {
+        if ( body != null && method == RestMethod.GET ) {
+            throw new IllegalArgumentException( "GET requests can't have a body" );
+        }
+        this.method = method;
+        this.url = url;
+        this.headers = headers != null ? headers : RestHeaders.EMPTY;
+        this.body = body;
+    }
+
+    public Builder newBuilder() {
+        return new Builder( this );
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + url;
+    }
+
+    public static class Builder {
+        private RestMethod method;
+        private String url;
+        private RestHeaders.Builder headers;
+        private RestRequestBody body;
+
+        Builder( RestRequest request ) {
+            this.method = request.method;
+            this.url = request.url;
+            this.headers = request.headers.newBuilder();
+            this.body = request.body;
+        }
+
+        public Builder url( String url ) {
+            this.url = url;
+            return this;
+        }
+
+        public Builder method( RestMethod method, RestRequestBody body ) {
+            this.method = method;
+            this.body = body;
+            return this;
+        }
+
+        /**
+         * Replaces any headers with this name.
+         */
+        public Builder header( String name, String value ) {
+            headers.set( name, value );
+            return this;
+        }
+
+        public Builder addHeader( String name, String value ) {
+            headers.add( name, value );
+            return this;
+        }
+
+        public Builder removeHeader( String name ) {
+            headers.remove( name );
+            return this;
+        }
+
+        public RestRequest build() {
+            return new RestRequest( method, url, headers.build(), body );
+        }
+    }
+}
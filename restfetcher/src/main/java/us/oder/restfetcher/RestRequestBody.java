@@ -0,0 +1,261 @@
+package us.oder.restfetcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
+
+import us.oder.restfetcher.util.ContentEncoding;
+
+/**
+ * A request body that is written straight to the connection. Bodies that know their length are sent
+ * in fixed-length streaming mode and the rest chunked, so HttpURLConnection never buffers a whole
+ * upload in memory.
+ */
+public abstract class RestRequestBody {
+
+    public static final long UNKNOWN_LENGTH = -1;
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Produces a body on demand, for content generated while it is uploaded.
+     */
+    public interface IBodyWriter {
+        void writeTo( OutputStream out ) throws IOException;
+    }
+
+    /**
+     * @return the Content-Type to send, or null to keep the one in the request headers
+     */
+    public String getContentType() {
+        return null;
+    }
+
+    /**
+     * @return the exact number of bytes {@link #writeTo(OutputStream)} writes, or {@link #UNKNOWN_LENGTH}
+     */
+    public long getContentLength() {
+        return UNKNOWN_LENGTH;
+    }
+
+    /**
+     * Bodies that can only be written once, like an InputStream, are never retried.
+     */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    public abstract void writeTo( OutputStream out ) throws IOException;
+
+    /**
+     * The body as text for the logger, or null if it wasn't given as a String.
+     */
+    String getLogString() {
+        return null;
+    }
+
+    /**
+     * The whole body, for bodies that are already in memory; null for the others.
+     */
+    byte[] getBytes() {
+        return null;
+    }
+
+    public static RestRequestBody create( final String body ) {
+        return new ByteArrayBody( body.getBytes( UTF_8 ), null ) {
+            @Override
+            String getLogString() {
+                return body;
+            }
+        };
+    }
+
+    public static RestRequestBody create( byte[] bytes, String contentType ) {
+        return new ByteArrayBody( bytes, contentType );
+    }
+
+    public static RestRequestBody create( File file, String contentType ) {
+        return new FileBody( file, contentType );
+    }
+
+    /**
+     * The stream is read once and closed after it has been written.
+     *
+     * @param length the number of bytes in the stream, or {@link #UNKNOWN_LENGTH} to send it chunked
+     */
+    public static RestRequestBody create( InputStream stream, long length, String contentType ) {
+        return new InputStreamBody( stream, length, contentType );
+    }
+
+    /**
+     * @param length the number of bytes the writer writes, or {@link #UNKNOWN_LENGTH} to send it chunked
+     */
+    public static RestRequestBody create( IBodyWriter writer, long length, String contentType ) {
+        return new WriterBody( writer, length, contentType );
+    }
+
+    /**
+     * Compresses the body as it is written. In-memory bodies are compressed up front so their length is
+     * still known; anything else becomes chunked.
+     */
+    static RestRequestBody gzip( final RestRequestBody body ) throws IOException {
+        byte[] bytes = body.getBytes();
+        if ( bytes != null ) {
+            return new ByteArrayBody( ContentEncoding.gzip( bytes ), body.getContentType() );
+        }
+        return new RestRequestBody() {
+            @Override
+            public String getContentType() {
+                return body.getContentType();
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return body.isRepeatable();
+            }
+
+            @Override
+            public void writeTo( OutputStream out ) throws IOException {
+                GZIPOutputStream gzip = new GZIPOutputStream( out, BUFFER_SIZE );
+                body.writeTo( gzip );
+                gzip.finish();
+            }
+        };
+    }
+
+    static void copy( InputStream in, OutputStream out ) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ( ( read = in.read( buffer, 0, buffer.length ) ) != -1 ) {
+            out.write( buffer, 0, read );
+        }
+    }
+
+    private static class ByteArrayBody extends RestRequestBody {
+        private final byte[] bytes;
+        private final String contentType;
+
+        ByteArrayBody( byte[] bytes, String contentType ) {
+            this.bytes = bytes;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public long getContentLength() {
+            return bytes.length;
+        }
+
+        @Override
+        public void writeTo( OutputStream out ) throws IOException {
+            out.write( bytes, 0, bytes.length );
+        }
+
+        @Override
+        byte[] getBytes() {
+            return bytes;
+        }
+    }
+
+    private static class FileBody extends RestRequestBody {
+        private final File file;
+        private final String contentType;
+
+        FileBody( File file, String contentType ) {
+            this.file = file;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public long getContentLength() {
+            return file.length();
+        }
+
+        @Override
+        public void writeTo( OutputStream out ) throws IOException {
+            InputStream in = new FileInputStream( file );
+            try {
+                copy( in, out );
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private static class InputStreamBody extends RestRequestBody {
+        private final InputStream stream;
+        private final long length;
+        private final String contentType;
+
+        InputStreamBody( InputStream stream, long length, String contentType ) {
+            this.stream = stream;
+            this.length = length;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public void writeTo( OutputStream out ) throws IOException {
+            try {
+                copy( stream, out );
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    private static class WriterBody extends RestRequestBody {
+        private final IBodyWriter writer;
+        private final long length;
+        private final String contentType;
+
+        WriterBody( IBodyWriter writer, long length, String contentType ) {
+            this.writer = writer;
+            this.length = length;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo( OutputStream out ) throws IOException {
+            writer.writeTo( out );
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package us.oder.restfetcher;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Decides whether a failed attempt is tried again and how long to wait first. Connection failures and
+ * 408, 429, 500, 502, 503 and 504 responses are retried with exponential backoff and jitter, honoring
+ * Retry-After when the server sends one. Only GET, PUT and DELETE are retried unless
+ * {@link #setRetryNonIdempotent(boolean)} is set, since a POST may have been applied before it failed.
+ */
+public class RestRetryPolicy {
+
+    public static final long NO_RETRY = -1;
+    public static final String RETRY_AFTER_KEY = "Retry-After";
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 500;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30 * 1000;
+    public static final long DEFAULT_MAX_RETRY_AFTER_MILLIS = 60 * 1000;
+    public static final double DEFAULT_JITTER = 0.5;
+
+    private static final Random random = new Random();
+    private static RestRetryPolicy defaultPolicy;
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private long maxRetryAfterMillis = DEFAULT_MAX_RETRY_AFTER_MILLIS;
+    private double multiplier = 2;
+    private double jitter = DEFAULT_JITTER;
+    private boolean retryNonIdempotent;
+
+    public static synchronized RestRetryPolicy getDefault() {
+        return defaultPolicy;
+    }
+
+    public static synchronized void setDefault( RestRetryPolicy policy ) {
+        defaultPolicy = policy;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Total attempts including the first one, so 1 disables retries.
+     */
+    public void setMaxAttempts( int maxAttempts ) {
+        if ( maxAttempts < 1 ) {
+            throw new IllegalArgumentException( "maxAttempts < 1: " + maxAttempts );
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public void setInitialBackoffMillis( long initialBackoffMillis ) {
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public void setMaxBackoffMillis( long maxBackoffMillis ) {
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public long getMaxRetryAfterMillis() {
+        return maxRetryAfterMillis;
+    }
+
+    /**
+     * A Retry-After longer than this gives up instead of waiting.
+     */
+    public void setMaxRetryAfterMillis( long maxRetryAfterMillis ) {
+        this.maxRetryAfterMillis = maxRetryAfterMillis;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public void setMultiplier( double multiplier ) {
+        this.multiplier = multiplier;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * The fraction of each backoff that is randomized: 0 waits exactly the backoff, 1 waits anywhere
+     * between zero and the backoff.
+     */
+    public void setJitter( double jitter ) {
+        if ( jitter < 0 || jitter > 1 ) {
+            throw new IllegalArgumentException( "jitter must be between 0 and 1: " + jitter );
+        }
+        this.jitter = jitter;
+    }
+
+    public boolean isRetryNonIdempotent() {
+        return retryNonIdempotent;
+    }
+
+    public void setRetryNonIdempotent( boolean retryNonIdempotent ) {
+        this.retryNonIdempotent = retryNonIdempotent;
+    }
+
+    /**
+     * @param attempt the attempt that just finished, starting at 1
+     * @param response its response, or null if it failed with {@code error}
+     * @return how long to wait before the next attempt, or {@link #NO_RETRY}
+     */
+    public long getRetryDelayMillis( RestMethod method, int attempt, RestResponse response, IOException error ) {
+        if ( attempt >= maxAttempts || !( retryNonIdempotent || isIdempotent( method ) ) ) {
+            return NO_RETRY;
+        }
+        if ( error != null ) {
+            return computeBackoffMillis( attempt );
+        }
+        if ( response == null || !isRetryableCode( response.code ) ) {
+            return NO_RETRY;
+        }
+        long retryAfter = response.headers == null ? NO_RETRY
+                : parseRetryAfterMillis( RestCache.findHeader( response.headers, RETRY_AFTER_KEY ), System.currentTimeMillis() );
+        if ( retryAfter == NO_RETRY ) {
+            return computeBackoffMillis( attempt );
+        }
+        return retryAfter <= maxRetryAfterMillis ? retryAfter : NO_RETRY;
+    }
+
+    protected boolean isRetryableCode( int code ) {
+        return code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    public static boolean isIdempotent( RestMethod method ) {
+        return method == RestMethod.GET || method == RestMethod.PUT || method == RestMethod.DELETE;
+    }
+
+    long computeBackoffMillis( int attempt ) {
+        double backoff = Math.min( maxBackoffMillis, initialBackoffMillis * Math.pow( multiplier, attempt - 1 ) );
+        return (long) ( backoff * ( 1 - jitter * random.nextDouble() ) );
+    }
+
+    /**
+     * Reads a Retry-After value given either in seconds or as an HTTP date.
+     *
+     * @return the delay in milliseconds, or {@link #NO_RETRY} if the value is missing or unreadable
+     */
+    static long parseRetryAfterMillis( String value, long now ) {
+        if ( value == null ) {
+            return NO_RETRY;
+        }
+        String trimmed = value.trim();
+        try {
+            return Math.max( 0, Long.parseLong( trimmed ) * 1000L );
+        } catch ( NumberFormatException e ) {
+            // not delta-seconds, try a date
+        }
+        SimpleDateFormat format = new SimpleDateFormat( "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US );
+        format.setTimeZone( TimeZone.getTimeZone( "GMT" ) );
+        try {
+            Date date = format.parse( trimmed );
+            return Math.max( 0, date.getTime() - now );
+        } catch ( ParseException e ) {
+            return NO_RETRY;
+        }
+    }
+}
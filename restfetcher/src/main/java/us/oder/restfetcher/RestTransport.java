@@ -0,0 +1,133 @@
+package us.oder.restfetcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Sends requests for a {@link RestFetcher} in place of the HttpURLConnection engine that uses its
+ * {@link RestFetcher.IConnectionFactory}. The fetcher keeps doing everything around the exchange:
+ * interceptors, caching, coalescing, retries, logging and the listeners.
+ *
+ * <p>A transport gets the request ready to go on the wire, with cache validators, Accept-Encoding,
+ * Content-Type and request compression applied, and answers with the response body decoded to
+ * text. Without a transport, or for requests it {@link #canSend(RestRequest) can't send}, the
+ * fetcher falls back to HttpURLConnection.</p>
+ */
+public abstract class RestTransport {
+
+    private static RestTransport defaultTransport;
+
+    public interface ICallback {
+        void onResponse( RestResponse response );
+
+        void onFailure( IOException error );
+    }
+
+    /**
+     * @return null unless set, which leaves every fetcher on HttpURLConnection
+     */
+    public static synchronized RestTransport getDefault() {
+        return defaultTransport;
+    }
+
+    public static synchronized void setDefault( RestTransport transport ) {
+        defaultTransport = transport;
+    }
+
+    /**
+     * Called with the request as the interceptors left it, before it is prepared for the wire.
+     */
+    public boolean canSend( RestRequest request ) {
+        return true;
+    }
+
+    /**
+     * Starts sending the request without blocking. The callback is called exactly once, on a thread of
+     * the transport's choosing, and should hand off anything slow.
+     *
+     * @return a handle that aborts the exchange when closed, failing it with an
+     * {@link InterruptedIOException}
+     */
+    public abstract Closeable send( RestRequest request, ICallback callback );
+
+    /**
+     * Sends the request on behalf of the call, which can then cancel it.
+     */
+    void enqueue( RestRequest request, final RestCall call, final ICallback callback ) {
+        try {
+            call.throwIfInactive();
+        } catch ( IOException e ) {
+            callback.onFailure( e );
+            return;
+        }
+        Closeable exchange = send( request, new ICallback() {
+            @Override
+            public void onResponse( RestResponse response ) {
+                call.detach();
+                callback.onResponse( response );
+            }
+
+            @Override
+            public void onFailure( IOException error ) {
+                call.detach();
+                callback.onFailure( error );
+            }
+        } );
+        try {
+            call.attach( exchange );
+        } catch ( IOException e ) {
+            // cancelled while it was being sent, the callback reports it
+            closeQuietly( exchange );
+        }
+    }
+
+    /**
+     * Sends the request and waits for the response on the calling thread.
+     */
+    RestResponse execute( RestRequest request, RestCall call ) throws IOException {
+        BlockingCallback callback = new BlockingCallback();
+        enqueue( request, call, callback );
+        return callback.await();
+    }
+
+    static void closeQuietly( Closeable closeable ) {
+        try {
+            closeable.close();
+        } catch ( IOException e ) {
+            // nothing more to release
+        }
+    }
+
+    private static class BlockingCallback implements ICallback {
+        private final CountDownLatch done = new CountDownLatch( 1 );
+        private volatile RestResponse response;
+        private volatile IOException error;
+
+        @Override
+        public void onResponse( RestResponse response ) {
+            this.response = response;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure( IOException error ) {
+            this.error = error;
+            done.countDown();
+        }
+
+        RestResponse await() throws IOException {
+            try {
+                done.await();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Interrupted waiting for the response" );
+            }
+            if ( error != null ) {
+                throw error;
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package us.oder.restfetcher;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds request urls in a single pass. Query parameters are sorted by name, keeping the order of
+ * repeated names, so equal requests always produce the same url and it can be used as a cache key.
+ * Values are encoded like {@link java.net.URLEncoder} with UTF-8.
+ */
+public final class RestUrl {
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final ConcurrentMap<String, Template> templates = new ConcurrentHashMap<>();
+
+    private static final Comparator<String[]> BY_NAME = new Comparator<String[]>() {
+        @Override
+        public int compare( String[] lhs, String[] rhs ) {
+            return lhs[0].compareTo( rhs[0] );
+        }
+    };
+
+    private RestUrl() {
+    }
+
+    /**
+     * A path with {name} placeholders, e.g. "/users/{id}/posts". The text around the placeholders is
+     * encoded once, when the template is compiled.
+     */
+    public static final class Template {
+        private final String template;
+        // literal, name, literal, name... literal
+        private final String[] parts;
+        private final int literalLength;
+
+        private Template( String template ) {
+            this.template = template;
+            List<String> output = new ArrayList<>();
+            StringBuilder literal = new StringBuilder( template.length() );
+            int length = 0;
+            int start = 0;
+            int open;
+            while ( ( open = template.indexOf( '{', start ) ) != -1 ) {
+                int close = template.indexOf( '}', open );
+                if ( close == -1 ) {
+                    throw new IllegalArgumentException( "unclosed placeholder in " + template );
+                }
+                appendPathEncoded( literal, template.substring( start, open ), true );
+                output.add( literal.toString() );
+                length += literal.length();
+                literal.setLength( 0 );
+                output.add( template.substring( open + 1, close ) );
+                start = close + 1;
+            }
+            appendPathEncoded( literal, template.substring( start ), true );
+            output.add( literal.toString() );
+            length += literal.length();
+            parts = output.toArray( new String[output.size()] );
+            literalLength = length;
+        }
+
+        /**
+         * Returns the compiled template, compiling it on first use.
+         */
+        public static Template compile( String template ) {
+            Template compiled = templates.get( template );
+            if ( compiled == null ) {
+                compiled = new Template( template );
+                Template existing = templates.putIfAbsent( template, compiled );
+                if ( existing != null ) {
+                    compiled = existing;
+                }
+            }
+            return compiled;
+        }
+
+        public List<String> getParameterNames() {
+            List<String> output = new ArrayList<>( parts.length / 2 );
+            for ( int i = 1; i < parts.length; i += 2 ) {
+                output.add( parts[i] );
+            }
+            return Collections.unmodifiableList( output );
+        }
+
+        public String expand( Map<String, String> parameters ) {
+            StringBuilder builder = new StringBuilder( literalLength + 16 * ( parts.length / 2 ) );
+            appendTo( builder, parameters );
+            return builder.toString();
+        }
+
+        /**
+         * Appends the path with each placeholder replaced by its encoded value; a value may not
+         * contain "/" unencoded or be a bare "." or "..", so ids can't escape their segment.
+         */
+        void appendTo( StringBuilder builder, Map<String, String> parameters ) {
+            builder.append( parts[0] );
+            for ( int i = 1; i < parts.length; i += 2 ) {
+                String value = parameters == null ? null : parameters.get( parts[i] );
+                if ( value == null ) {
+                    throw new IllegalArgumentException( "no value for {" + parts[i] + "} in " + template );
+                }
+                appendPathEncoded( builder, value, false );
+                builder.append( parts[i + 1] );
+            }
+        }
+
+        @Override
+        public String toString() {
+            return template;
+        }
+    }
+
+    public static final class Builder {
+        private final String base;
+        private String path = "";
+        private Template template;
+        private Map<String, String> pathParameters;
+        private final List<String[]> query = new ArrayList<>();
+
+        public Builder( String base ) {
+            this.base = base;
+        }
+
+        /**
+         * Appends the path as is, without encoding.
+         */
+        public Builder path( String path ) {
+            this.path = path;
+            this.template = null;
+            return this;
+        }
+
+        public Builder path( Template template, Map<String, String> parameters ) {
+            this.template = template;
+            this.pathParameters = parameters;
+            return this;
+        }
+
+        /**
+         * Adds a parameter, keeping any others with the same name. Null values are skipped.
+         */
+        public Builder addQueryParameter( String name, String value ) {
+            if ( name != null && value != null ) {
+                query.add( new String[]{name, value} );
+            }
+            return this;
+        }
+
+        public Builder addQueryParameters( Map<String, String> parameters ) {
+            if ( parameters != null ) {
+                for ( Map.Entry<String, String> parameter : parameters.entrySet() ) {
+                    addQueryParameter( parameter.getKey(), parameter.getValue() );
+                }
+            }
+            return this;
+        }
+
+        public String build() {
+            int capacity = base.length() + ( template != null ? template.literalLength + 32 : path.length() );
+            for ( String[] parameter : query ) {
+                // leave room for a little encoding without growing
+                capacity += 2 + ( parameter[0].length() + parameter[1].length() ) * 5 / 4;
+            }
+            StringBuilder builder = new StringBuilder( capacity );
+            builder.append( base );
+            if ( template != null ) {
+                template.appendTo( builder, pathParameters );
+            } else {
+                builder.append( path );
+            }
+            if ( query.isEmpty() ) {
+                return builder.toString();
+            }
+            // a stable sort, so repeated names keep their order
+            List<String[]> sorted = query;
+            if ( sorted.size() > 1 ) {
+                sorted = new ArrayList<>( query );
+                Collections.sort( sorted, BY_NAME );
+            }
+            char separator = builder.indexOf( "?" ) == -1 ? '?' : '&';
+            for ( String[] parameter : sorted ) {
+                builder.append( separator );
+                appendQueryEncoded( builder, parameter[0] );
+                builder.append( '=' );
+                appendQueryEncoded( builder, parameter[1] );
+                separator = '&';
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Encodes like {@link java.net.URLEncoder#encode(String, String)} with UTF-8, straight into the
+     * builder.
+     */
+    static void appendQueryEncoded( StringBuilder builder, String value ) {
+        int length = value.length();
+        for ( int i = 0; i < length; i++ ) {
+            char c = value.charAt( i );
+            if ( isUnreservedForQuery( c ) ) {
+                builder.append( c );
+            } else if ( c == ' ' ) {
+                builder.append( '+' );
+            } else {
+                i = appendPercentEncoded( builder, value, i ) - 1;
+            }
+        }
+    }
+
+    /**
+     * Encodes a path segment, leaving the characters RFC 3986 allows in one. Template literals also
+     * keep slashes, escapes that are already encoded and a fixed query.
+     */
+    static void appendPathEncoded( StringBuilder builder, String value, boolean literal ) {
+        if ( !literal && ( value.equals( "." ) || value.equals( ".." ) ) ) {
+            // a dot segment would be resolved away by the server or any client normalizing the URL
+            for ( int i = 0; i < value.length(); i++ ) {
+                builder.append( "%2E" );
+            }
+            return;
+        }
+        int length = value.length();
+        for ( int i = 0; i < length; i++ ) {
+            char c = value.charAt( i );
+            if ( isAllowedInPath( c ) || ( literal && ( c == '/' || c == '%' || c == '?' ) ) ) {
+                builder.append( c );
+            } else {
+                i = appendPercentEncoded( builder, value, i ) - 1;
+            }
+        }
+    }
+
+    /**
+     * Percent-encodes the run of characters starting at {@code start} that need encoding.
+     *
+     * @return the index after the run
+     */
+    private static int appendPercentEncoded( StringBuilder builder, String value, int start ) {
+        int end = start + 1;
+        if ( value.charAt( start ) >= 0x80 ) {
+            // encode runs of non-ASCII together so surrogate pairs stay intact
+            while ( end < value.length() && value.charAt( end ) >= 0x80 ) {
+                end++;
+            }
+        }
+        byte[] bytes = value.substring( start, end ).getBytes( UTF_8 );
+        for ( byte b : bytes ) {
+            builder.append( '%' ).append( HEX_DIGITS[( b >> 4 ) & 0xF] ).append( HEX_DIGITS[b & 0xF] );
+        }
+        return end;
+    }
+
+    private static boolean isUnreservedForQuery( char c ) {
+        return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' )
+                || c == '.' || c == '-' || c == '*' || c == '_';
+    }
+
+    private static boolean isAllowedInPath( char c ) {
+        if ( ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' ) ) {
+            return true;
+        }
+        switch ( c ) {
+            case '-': case '.': case '_': case '~':
+            case '!': case '$': case '&': case '\'': case '(': case ')':
+            case '*': case '+': case ',': case ';': case '=': case ':': case '@':
+                return true;
+            default:
+                return false;
+        }
+    }
+}
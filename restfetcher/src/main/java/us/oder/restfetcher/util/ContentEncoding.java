@@ -0,0 +1,82 @@
+package us.oder.restfetcher.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+public class ContentEncoding {
+
+    public static final String CONTENT_ENCODING_KEY = "Content-Encoding";
+    public static final String ACCEPT_ENCODING_KEY = "Accept-Encoding";
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final String IDENTITY = "identity";
+    public static final String SUPPORTED_ENCODINGS = GZIP + ", " + DEFLATE;
+
+    private ContentEncoding() {
+    }
+
+    public static byte[] gzip( byte[] data ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( Math.max( 64, data.length / 4 ) );
+        GZIPOutputStream gzip = new GZIPOutputStream( bytes );
+        try {
+            gzip.write( data, 0, data.length );
+        } finally {
+            gzip.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Wraps the stream so it yields the decoded body for the given Content-Encoding. Unknown or
+     * missing encodings return the stream untouched.
+     */
+    public static InputStream decode( InputStream inputStream, String encoding ) throws IOException {
+        if ( inputStream == null || encoding == null ) {
+            return inputStream;
+        }
+        String trimmed = encoding.trim();
+        boolean gzip = GZIP.equalsIgnoreCase( trimmed );
+        if ( !gzip && !DEFLATE.equalsIgnoreCase( trimmed ) ) {
+            return inputStream;
+        }
+        PushbackInputStream pushback = new PushbackInputStream( inputStream, 2 );
+        int first = pushback.read();
+        if ( first == -1 ) {
+            // an empty body has no header to decode, whatever Content-Encoding says
+            return pushback;
+        }
+        pushback.unread( first );
+        return gzip ? new GZIPInputStream( pushback ) : inflate( pushback );
+    }
+
+    private static InputStream inflate( PushbackInputStream pushback ) throws IOException {
+        // "deflate" is meant to be zlib-wrapped, but plenty of servers send raw deflate, so sniff the header
+        int first = pushback.read();
+        int second = pushback.read();
+        if ( second != -1 ) {
+            pushback.unread( second );
+        }
+        if ( first != -1 ) {
+            pushback.unread( first );
+        }
+        boolean zlibWrapped = first != -1 && second != -1
+                && ( first & 0x0f ) == 8
+                && ( ( first << 8 ) | second ) % 31 == 0;
+        final Inflater inflater = new Inflater( !zlibWrapped );
+        return new InflaterInputStream( pushback, inflater ) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                // we own the inflater, so release its native memory with the stream
+                inflater.end();
+            }
+        };
+    }
+}
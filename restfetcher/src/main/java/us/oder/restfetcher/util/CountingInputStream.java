@@ -0,0 +1,48 @@
+package us.oder.restfetcher.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class CountingInputStream extends FilterInputStream {
+
+    private long count;
+
+    public CountingInputStream( InputStream in ) {
+        super( in );
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int result = in.read();
+        if ( result != -1 ) {
+            count++;
+        }
+        return result;
+    }
+
+    @Override
+    public int read( byte[] buffer, int offset, int length ) throws IOException {
+        int result = in.read( buffer, offset, length );
+        if ( result != -1 ) {
+            count += result;
+        }
+        return result;
+    }
+
+    @Override
+    public long skip( long n ) throws IOException {
+        long result = in.skip( n );
+        count += result;
+        return result;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,39 @@
+package us.oder.restfetcher.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+
+    public CountingOutputStream( OutputStream out ) {
+        super( out );
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void write( int b ) throws IOException {
+        out.write( b );
+        count++;
+        onWrite( count );
+    }
+
+    @Override
+    public void write( byte[] buffer, int offset, int length ) throws IOException {
+        // FilterOutputStream would write the array one byte at a time
+        out.write( buffer, offset, length );
+        count += length;
+        onWrite( count );
+    }
+
+    /**
+     * Called after every write with the running total.
+     */
+    protected void onWrite( long count ) {
+    }
+}
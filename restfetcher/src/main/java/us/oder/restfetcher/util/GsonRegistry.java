@@ -0,0 +1,65 @@
+package us.oder.restfetcher.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One shared Gson instance and its type adapters, looked up once per class, so responses don't pay
+ * for building a new Gson and re-reflecting their model classes on every parse.
+ */
+public class GsonRegistry {
+
+    private static volatile Gson gson = new Gson();
+    private static final Map<Class<?>, TypeAdapter<?>> adapters = new ConcurrentHashMap<>();
+
+    private GsonRegistry() {
+    }
+
+    public static Gson getGson() {
+        return gson;
+    }
+
+    public static void setGson( Gson gson ) {
+        GsonRegistry.gson = gson;
+        adapters.clear();
+    }
+
+    public static <T> void registerAdapter( Class<T> type, TypeAdapter<T> adapter ) {
+        adapters.put( type, adapter );
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> TypeAdapter<T> getAdapter( Class<T> type ) {
+        TypeAdapter<T> adapter = (TypeAdapter<T>) adapters.get( type );
+        if ( adapter == null ) {
+            adapter = gson.getAdapter( type );
+            adapters.put( type, adapter );
+        }
+        return adapter;
+    }
+
+    public static <T> T fromJson( String json, Class<T> type ) throws JsonParseException {
+        return fromJson( new StringReader( json ), type );
+    }
+
+    public static <T> T fromJson( Reader json, Class<T> type ) throws JsonParseException {
+        // lenient, like Gson.fromJson, so top-level primitives and the like still parse
+        JsonReader reader = new JsonReader( json );
+        reader.setLenient( true );
+        try {
+            return getAdapter( type ).read( reader );
+        } catch ( IOException e ) {
+            throw new JsonParseException( e );
+        } catch ( IllegalStateException e ) {
+            throw new JsonParseException( e );
+        }
+    }
+}
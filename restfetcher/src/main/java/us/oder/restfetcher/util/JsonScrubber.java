@@ -1,56 +1,138 @@
 package us.oder.restfetcher.util;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
-import java.lang.reflect.Type;
-import java.util.Map;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
 
 public class JsonScrubber {
-    private final String[] fieldsToScrub;
+    private static final String MASK = "************";
+
+    private final Set<String> fieldsToScrub;
 
     public JsonScrubber(String[] fieldsToScrub) {
-        this.fieldsToScrub = fieldsToScrub;
+        this.fieldsToScrub = new HashSet<>();
+        for (String field : fieldsToScrub) {
+            this.fieldsToScrub.add(field.toLowerCase(Locale.US));
+        }
     }
 
     public String scrub(String json) {
+        if (json == null || json.isEmpty()) {
+            return json;
+        }
         try {
-            Gson gson = new Gson();
-            Type stringStringMap = new TypeToken<Map<String, Object>>() {
-            }.getType();
-            Map<String, Object> map = gson.fromJson(json, stringStringMap);
-            map = scrubMap(map);
-            return gson.toJson(map);
-        }catch (JsonSyntaxException e) {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            // as lenient as Gson.fromJson, so sloppy bodies like {password:'secret'} are still scrubbed
+            reader.setLenient(true);
+            StringWriter output = new StringWriter(json.length());
+            JsonWriter writer = new JsonWriter(output);
+            writer.setLenient(true);
+            copyValue(reader, writer);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                return json;
+            }
+            writer.flush();
+            return output.toString();
+        } catch (IOException e) {
+            return json;
+        } catch (IllegalStateException e) {
             return json;
-        } catch (NullPointerException e) {
+        } catch (NumberFormatException e) {
             return json;
         }
     }
 
-    private Map<String, Object> scrubMap(Map<String, Object> map) {
-        for (String key : map.keySet()) {
-            if (isFiltered(key)) {
-                map.put(key, "************");
-            } else if (map.get(key) instanceof Map ) {
-                try {
-                    Map<String, Object> subMap = (Map<String, Object>) map.get(key);
-                    map.put(key, scrubMap(subMap));
-                } catch (ClassCastException e) {
-                    return map;
+    private void copyValue(JsonReader reader, JsonWriter writer) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                writer.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    writer.name(name);
+                    if (isFiltered(name)) {
+                        reader.skipValue();
+                        writer.value(MASK);
+                    } else {
+                        copyValue(reader, writer);
+                    }
                 }
-            }
+                reader.endObject();
+                writer.endObject();
+                break;
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                writer.beginArray();
+                while (reader.hasNext()) {
+                    copyValue(reader, writer);
+                }
+                reader.endArray();
+                writer.endArray();
+                break;
+            case STRING:
+                writer.value(reader.nextString());
+                break;
+            case NUMBER:
+                writer.value(new RawNumber(reader.nextString()));
+                break;
+            case BOOLEAN:
+                writer.value(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                writer.nullValue();
+                break;
+            default:
+                throw new IllegalStateException("Unexpected token " + reader.peek());
         }
-        return map;
     }
 
     private boolean isFiltered(String key) {
-        for (String filter : fieldsToScrub) {
-            if (filter.equalsIgnoreCase(key)) {
-                return true;
-            }
+        return fieldsToScrub.contains(key.toLowerCase(Locale.US));
+    }
+
+    /**
+     * Carries a number through as it was written in the source, so scrubbing doesn't turn 1 into 1.0.
+     */
+    private static final class RawNumber extends Number {
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+
+        RawNumber(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) doubleValue();
+        }
+
+        @Override
+        public long longValue() {
+            return (long) doubleValue();
+        }
+
+        @Override
+        public float floatValue() {
+            return (float) doubleValue();
+        }
+
+        @Override
+        public double doubleValue() {
+            return Double.parseDouble(value);
+        }
+
+        @Override
+        public String toString() {
+            return value;
         }
-        return false;
     }
 }
@@ -0,0 +1,220 @@
+package us.oder.restfetcher;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileDownloadHandlerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private byte[] content;
+
+    @Before
+    public void setup() throws IOException {
+        file = new File( folder.getRoot(), "download.bin" );
+        content = new byte[1000];
+        for ( int i = 0; i < content.length; i++ ) {
+            content[i] = (byte) i;
+        }
+    }
+
+    private Map<String, String> headers( String key, String value ) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put( key, value );
+        return headers;
+    }
+
+    private byte[] readFile() throws IOException {
+        RandomAccessFile input = new RandomAccessFile( file, "r" );
+        try {
+            byte[] output = new byte[(int) input.length()];
+            input.readFully( output );
+            return output;
+        } finally {
+            input.close();
+        }
+    }
+
+    private void writeFile( byte[] bytes ) throws IOException {
+        FileOutputStream output = new FileOutputStream( file );
+        try {
+            output.write( bytes );
+        } finally {
+            output.close();
+        }
+    }
+
+    @Test
+    public void binaryBodiesAreWrittenExactly() throws IOException {
+        FileDownloadHandler testObject = new FileDownloadHandler( file, 64 );
+
+        testObject.onResponseStream( 200, headers( "content-length", "1000" ), new ByteArrayInputStream( content ) );
+
+        assertArrayEquals( content, readFile() );
+        assertEquals( 1000, testObject.getBytesDownloaded() );
+        assertEquals( 1000, testObject.getTotalBytes() );
+    }
+
+    @Test
+    public void progressIsReportedPerChunk() throws IOException {
+        final List<Long> progress = new ArrayList<>();
+        FileDownloadHandler testObject = new FileDownloadHandler( file, 400 );
+        testObject.setProgressListener( new RestFetcher.IProgressListener() {
+            @Override
+            public void onProgress( long bytesDownloaded, long totalBytes ) {
+                assertEquals( -1, totalBytes );
+                progress.add( bytesDownloaded );
+            }
+        } );
+
+        testObject.onResponseStream( 200, new HashMap<String, String>(), new ByteArrayInputStream( content ) );
+
+        assertEquals( 1000, (long) progress.get( progress.size() - 1 ) );
+        assertTrue( progress.size() >= 3 );
+    }
+
+    private void downloadFirstPart( FileDownloadHandler handler, Map<String, String> headers, final int length ) {
+        final ByteArrayInputStream body = new ByteArrayInputStream( content );
+        try {
+            handler.onResponseStream( 200, headers, new InputStream() {
+                private int read;
+
+                @Override
+                public int read() throws IOException {
+                    if ( read++ == length ) {
+                        throw new IOException( "connection reset" );
+                    }
+                    return body.read();
+                }
+            } );
+            fail();
+        } catch ( IOException e ) {
+            assertEquals( length, file.length() );
+        }
+    }
+
+    @Test
+    public void rangeHeaderAsksForTheMissingPart() throws IOException {
+        FileDownloadHandler testObject = new FileDownloadHandler( file, 1 );
+        Map<String, String> original = headers( "Accept", "*/*" );
+
+        Map<String, String> fresh = testObject.applyRangeHeader( original );
+        assertFalse( fresh.containsKey( FileDownloadHandler.RANGE_KEY ) );
+        assertEquals( "identity", fresh.get( "Accept-Encoding" ) );
+
+        downloadFirstPart( testObject, headers( "ETag", "\"v1\"" ), 300 );
+        Map<String, String> resumed = new FileDownloadHandler( file ).applyRangeHeader( original );
+
+        assertEquals( "bytes=300-", resumed.get( FileDownloadHandler.RANGE_KEY ) );
+        assertEquals( "\"v1\"", resumed.get( FileDownloadHandler.IF_RANGE_KEY ) );
+        assertEquals( "*/*", resumed.get( "Accept" ) );
+        assertEquals( 1, original.size() );
+    }
+
+    @Test
+    public void lastModifiedIsTheValidatorWhenTheETagIsWeak() throws IOException {
+        FileDownloadHandler testObject = new FileDownloadHandler( file, 1 );
+        Map<String, String> responseHeaders = headers( "ETag", "W/\"v1\"" );
+        responseHeaders.put( "Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT" );
+
+        downloadFirstPart( testObject, responseHeaders, 300 );
+
+        assertEquals( "Wed, 21 Oct 2015 07:28:00 GMT", testObject.applyRangeHeader( new HashMap<String, String>() ).get( FileDownloadHandler.IF_RANGE_KEY ) );
+    }
+
+    @Test
+    public void partialFilesWithoutAValidatorAreNotResumed() throws IOException {
+        writeFile( Arrays.copyOf( content, 300 ) );
+
+        Map<String, String> headers = new FileDownloadHandler( file ).applyRangeHeader( new HashMap<String, String>() );
+
+        assertFalse( headers.containsKey( FileDownloadHandler.RANGE_KEY ) );
+        assertFalse( headers.containsKey( FileDownloadHandler.IF_RANGE_KEY ) );
+    }
+
+    @Test
+    public void completedDownloadsForgetTheirValidator() throws IOException {
+        FileDownloadHandler testObject = new FileDownloadHandler( file );
+
+        testObject.onResponseStream( 200, headers( "ETag", "\"v1\"" ), new ByteArrayInputStream( content ) );
+
+        assertFalse( new File( file.getPath() + FileDownloadHandler.VALIDATOR_SUFFIX ).exists() );
+        assertFalse( testObject.applyRangeHeader( new HashMap<String, String>() ).containsKey( FileDownloadHandler.RANGE_KEY ) );
+    }
+
+    @Test
+    public void partialContentWithoutContentRangeIsRejected() throws IOException {
+        writeFile( Arrays.copyOf( content, 300 ) );
+        FileDownloadHandler testObject = new FileDownloadHandler( file );
+
+        try {
+            testObject.onResponseStream( 206, new HashMap<String, String>(), new ByteArrayInputStream( content ) );
+            fail();
+        } catch ( IOException e ) {
+            assertArrayEquals( Arrays.copyOf( content, 300 ), readFile() );
+        }
+    }
+
+    @Test
+    public void partialContentIsAppended() throws IOException {
+        writeFile( Arrays.copyOf( content, 300 ) );
+        FileDownloadHandler testObject = new FileDownloadHandler( file );
+
+        testObject.onResponseStream( 206, headers( "Content-Range", "bytes 300-999/1000" ),
+                new ByteArrayInputStream( Arrays.copyOfRange( content, 300, 1000 ) ) );
+
+        assertArrayEquals( content, readFile() );
+        assertEquals( 1000, testObject.getTotalBytes() );
+    }
+
+    @Test
+    public void fullResponseReplacesAPartialFile() throws IOException {
+        writeFile( new byte[2000] );
+        FileDownloadHandler testObject = new FileDownloadHandler( file );
+
+        testObject.onResponseStream( 200, new HashMap<String, String>(), new ByteArrayInputStream( content ) );
+
+        assertArrayEquals( content, readFile() );
+    }
+
+    @Test
+    public void rangePastTheEndOfTheFileIsRejected() throws IOException {
+        writeFile( Arrays.copyOf( content, 100 ) );
+        FileDownloadHandler testObject = new FileDownloadHandler( file );
+
+        try {
+            testObject.onResponseStream( 206, headers( "Content-Range", "bytes 500-999/1000" ), new ByteArrayInputStream( content ) );
+            fail();
+        } catch ( IOException e ) {
+            assertEquals( 100, file.length() );
+        }
+    }
+
+    @Test
+    public void contentRangeIsParsed() throws IOException {
+        assertArrayEquals( new long[]{300, 1000}, FileDownloadHandler.parseContentRange( "bytes 300-999/1000" ) );
+        assertArrayEquals( new long[]{0, -1}, FileDownloadHandler.parseContentRange( "bytes 0-99/*" ) );
+    }
+}
@@ -0,0 +1,431 @@
+package us.oder.restfetcher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NioTransportTest {
+
+    private LoopbackServer server;
+    private NioTransport transport;
+
+    @Before
+    public void setup() throws IOException {
+        server = new LoopbackServer();
+        transport = new NioTransport();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        transport.close();
+        server.close();
+    }
+
+    @Test
+    public void getIsSentThroughTheTransport() {
+        RestResponse response = fetch( RestMethod.GET, "/echo?q=1", null );
+
+        assertEquals( 200, response.code );
+        assertEquals( "GET /echo?q=1", response.body );
+        assertEquals( "yes", response.headers.get( "X-Loopback" ) );
+    }
+
+    @Test
+    public void postBodyIsSent() {
+        RestResponse response = fetch( RestMethod.POST, "/echo", "{\"a\":1}" );
+
+        assertEquals( "POST /echo {\"a\":1}", response.body );
+    }
+
+    @Test
+    public void connectionIsKeptAlive() {
+        fetch( RestMethod.GET, "/echo", null );
+        fetch( RestMethod.GET, "/echo", null );
+        fetch( RestMethod.POST, "/echo", "{}" );
+
+        assertEquals( 1, server.accepted.get() );
+    }
+
+    @Test
+    public void chunkedGzipResponseIsDecoded() {
+        RestResponse response = fetch( RestMethod.GET, "/chunked", null );
+
+        assertEquals( "hello chunked world", response.body );
+    }
+
+    @Test
+    public void closedKeepAliveConnectionIsReplaced() {
+        assertEquals( "closing", fetch( RestMethod.GET, "/close", null ).body );
+        assertEquals( "GET /echo", fetch( RestMethod.GET, "/echo", null ).body );
+        assertEquals( 2, server.accepted.get() );
+    }
+
+    @Test
+    public void postDroppedOnAKeptAliveConnectionIsNotSentTwice() throws InterruptedException {
+        fetch( RestMethod.GET, "/echo", null );
+        RecordingCallback callback = new RecordingCallback();
+
+        transport.send( new RestRequest( RestMethod.POST, server.url( "/drop" ), RestHeaders.EMPTY, RestRequestBody.create( "{}" ) ), callback );
+
+        assertTrue( callback.done.await( 5, TimeUnit.SECONDS ) );
+        assertTrue( callback.error.get() != null );
+        assertEquals( 1, server.dropped.get() );
+    }
+
+    @Test
+    public void manyConcurrentRequestsShareFewThreads() throws InterruptedException {
+        int count = 200;
+        final CountDownLatch done = new CountDownLatch( count );
+        final AtomicInteger succeeded = new AtomicInteger();
+        RestDispatcher dispatcher = new RestDispatcher( Executors.newFixedThreadPool( 2 ), new DirectExecutor() );
+        long start = System.nanoTime();
+        for ( int i = 0; i < count; i++ ) {
+            RestFetcher fetcher = new RestFetcher( server.url( "/slow" ), RestMethod.GET, new HashMap<String, String>(), "" );
+            fetcher.setTransport( transport );
+            fetcher.setDispatcher( dispatcher );
+            fetcher.onFetchSuccessListener = new RestFetcher.OnFetchSuccessListener() {
+                @Override
+                public void onFetchSuccess( RestResponse response ) {
+                    succeeded.incrementAndGet();
+                    done.countDown();
+                }
+            };
+            fetcher.onFetchErrorListener = new RestFetcher.OnFetchErrorListener() {
+                @Override
+                public void onFetchError( RestError error ) {
+                    done.countDown();
+                }
+            };
+            fetcher.fetchAsync();
+        }
+
+        assertTrue( done.await( 20, TimeUnit.SECONDS ) );
+        assertEquals( count, succeeded.get() );
+        // two dispatcher threads blocking on 200ms each would need 20 seconds
+        assertTrue( TimeUnit.NANOSECONDS.toSeconds( System.nanoTime() - start ) < 10 );
+    }
+
+    @Test
+    public void pipelinedGetsShareOneConnection() throws InterruptedException {
+        transport.setPipelining( true );
+        transport.setMaxConnectionsPerHost( 1 );
+        fetch( RestMethod.GET, "/echo", null );
+
+        List<RecordingCallback> callbacks = sendAll( "/echo?i=", 20 );
+
+        for ( int i = 0; i < callbacks.size(); i++ ) {
+            assertTrue( callbacks.get( i ).done.await( 5, TimeUnit.SECONDS ) );
+            assertEquals( "GET /echo?i=" + i, callbacks.get( i ).response.get().body );
+        }
+        assertEquals( 1, server.accepted.get() );
+    }
+
+    @Test
+    public void serverThatDropsPipelinedRequestsGetsOneConnectionPerRequest() throws InterruptedException {
+        transport.setPipelining( true );
+        transport.setMaxConnectionsPerHost( 1 );
+        fetch( RestMethod.GET, "/nopipe", null );
+
+        List<RecordingCallback> callbacks = sendAll( "/nopipe?i=", 5 );
+
+        for ( int i = 0; i < callbacks.size(); i++ ) {
+            assertTrue( callbacks.get( i ).done.await( 5, TimeUnit.SECONDS ) );
+            assertEquals( "GET /nopipe?i=" + i, callbacks.get( i ).response.get().body );
+        }
+        assertTrue( server.accepted.get() > 2 );
+    }
+
+    @Test
+    public void closingTheExchangeCancelsIt() throws InterruptedException {
+        RecordingCallback callback = new RecordingCallback();
+        Closeable exchange = transport.send( request( "/hang" ), callback );
+        Thread.sleep( 100 );
+
+        RestTransport.closeQuietly( exchange );
+
+        assertTrue( callback.done.await( 5, TimeUnit.SECONDS ) );
+        assertTrue( callback.error.get() instanceof InterruptedIOException );
+    }
+
+    @Test
+    public void silentServerTimesOut() throws InterruptedException {
+        NioTransport impatient = new NioTransport( 1, 1000, 200 );
+        RecordingCallback callback = new RecordingCallback();
+
+        impatient.send( request( "/hang" ), callback );
+
+        assertTrue( callback.done.await( 5, TimeUnit.SECONDS ) );
+        assertTrue( callback.error.get() instanceof SocketTimeoutException );
+        impatient.close();
+    }
+
+    @Test
+    public void callbackThatThrowsDoesNotStopTheLoop() throws InterruptedException {
+        NioTransport single = new NioTransport( 1, 1000, 1000 );
+        final CountDownLatch thrown = new CountDownLatch( 1 );
+        single.send( request( "/echo" ), new RecordingCallback() {
+            @Override
+            public void onResponse( RestResponse response ) {
+                thrown.countDown();
+                throw new IllegalStateException( "broken callback" );
+            }
+        } );
+        assertTrue( thrown.await( 5, TimeUnit.SECONDS ) );
+        RecordingCallback callback = new RecordingCallback();
+
+        single.send( request( "/echo" ), callback );
+
+        assertTrue( callback.done.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( "GET /echo", callback.response.get().body );
+        single.close();
+    }
+
+    @Test
+    public void redirectedPostIsFollowedAsAGet() {
+        RestResponse response = fetch( RestMethod.POST, "/redirect/302", "{\"a\":1}" );
+
+        assertEquals( 200, response.code );
+        assertEquals( "GET /echo", response.body );
+    }
+
+    @Test
+    public void temporaryRedirectKeepsTheMethodAndBody() {
+        RestResponse response = fetch( RestMethod.POST, "/redirect/307", "{\"a\":1}" );
+
+        assertEquals( "POST /echo {\"a\":1}", response.body );
+    }
+
+    @Test
+    public void redirectToHttpsIsNotFollowed() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put( "Location", "https://example.com/secure" );
+
+        assertNull( NioTransport.redirect( request( "/echo" ), new RestResponse( 301, headers, "" ) ) );
+    }
+
+    @Test
+    public void httpsIsLeftToHttpURLConnection() {
+        assertTrue( !transport.canSend( new RestRequest( RestMethod.GET, "https://example.com/", RestHeaders.EMPTY, null ) ) );
+        assertTrue( transport.canSend( request( "/echo" ) ) );
+    }
+
+    private List<RecordingCallback> sendAll( String path, int count ) {
+        List<RecordingCallback> callbacks = new ArrayList<>();
+        for ( int i = 0; i < count; i++ ) {
+            RecordingCallback callback = new RecordingCallback();
+            callbacks.add( callback );
+            transport.send( request( path + i ), callback );
+        }
+        return callbacks;
+    }
+
+    private RestRequest request( String path ) {
+        return new RestRequest( RestMethod.GET, server.url( path ), RestHeaders.EMPTY, null );
+    }
+
+    private RestResponse fetch( RestMethod method, String path, String body ) {
+        final AtomicReference<RestResponse> output = new AtomicReference<>();
+        Map<String, String> headers = new HashMap<>();
+        headers.put( "Content-Type", "application/json" );
+        RestFetcher fetcher = new RestFetcher( server.url( path ), method, headers, body );
+        fetcher.setTransport( transport );
+        fetcher.onFetchSuccessListener = new RestFetcher.OnFetchSuccessListener() {
+            @Override
+            public void onFetchSuccess( RestResponse response ) {
+                output.set( response );
+            }
+        };
+        fetcher.fetch();
+        return output.get();
+    }
+
+    private static class RecordingCallback implements RestTransport.ICallback {
+        final CountDownLatch done = new CountDownLatch( 1 );
+        final AtomicReference<IOException> error = new AtomicReference<>();
+        final AtomicReference<RestResponse> response = new AtomicReference<>();
+
+        @Override
+        public void onResponse( RestResponse response ) {
+            this.response.set( response );
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure( IOException error ) {
+            this.error.set( error );
+            done.countDown();
+        }
+    }
+
+    private static class DirectExecutor implements Executor {
+        @Override
+        public void execute( Runnable command ) {
+            command.run();
+        }
+    }
+
+    /**
+     * A blocking HTTP/1.1 server with a thread per connection.
+     */
+    private static class LoopbackServer implements Runnable {
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicInteger dropped = new AtomicInteger();
+        private final ServerSocket serverSocket;
+
+        LoopbackServer() throws IOException {
+            serverSocket = new ServerSocket( 0, 256, InetAddress.getByName( "127.0.0.1" ) );
+            Thread thread = new Thread( this, "LoopbackServer" );
+            thread.setDaemon( true );
+            thread.start();
+        }
+
+        String url( String path ) {
+            return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while ( !serverSocket.isClosed() ) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    accepted.incrementAndGet();
+                    Thread thread = new Thread( new Runnable() {
+                        @Override
+                        public void run() {
+                            serve( socket );
+                        }
+                    } );
+                    thread.setDaemon( true );
+                    thread.start();
+                } catch ( IOException e ) {
+                    return;
+                }
+            }
+        }
+
+        private void serve( Socket socket ) {
+            try {
+                InputStream in = new BufferedInputStream( socket.getInputStream() );
+                OutputStream out = socket.getOutputStream();
+                String requestLine;
+                while ( ( requestLine = readLine( in ) ) != null ) {
+                    int contentLength = 0;
+                    String line;
+                    while ( !( line = readLine( in ) ).isEmpty() ) {
+                        if ( line.toLowerCase().startsWith( "content-length:" ) ) {
+                            contentLength = Integer.parseInt( line.substring( 15 ).trim() );
+                        }
+                    }
+                    byte[] body = new byte[contentLength];
+                    for ( int read = 0; read < contentLength; ) {
+                        read += in.read( body, read, contentLength - read );
+                    }
+                    String[] parts = requestLine.split( " " );
+                    String path = parts[1];
+                    if ( path.equals( "/drop" ) ) {
+                        // took the request, then went away before answering
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                    if ( path.equals( "/hang" ) ) {
+                        Thread.sleep( 10000 );
+                        return;
+                    }
+                    if ( path.startsWith( "/nopipe" ) ) {
+                        // like a server that can't take a request before it has answered the last one
+                        Thread.sleep( 50 );
+                        if ( in.available() > 0 ) {
+                            return;
+                        }
+                    }
+                    if ( path.startsWith( "/redirect/" ) ) {
+                        out.write( ( "HTTP/1.1 " + path.substring( 10 ) + " Moved\r\nLocation: /echo\r\nContent-Length: 0\r\n\r\n" ).getBytes( "UTF-8" ) );
+                        out.flush();
+                        continue;
+                    }
+                    if ( path.equals( "/slow" ) ) {
+                        Thread.sleep( 200 );
+                    }
+                    if ( path.equals( "/chunked" ) ) {
+                        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+                        GZIPOutputStream gzip = new GZIPOutputStream( gzipped );
+                        gzip.write( "hello chunked world".getBytes( "UTF-8" ) );
+                        gzip.close();
+                        byte[] bytes = gzipped.toByteArray();
+                        int half = bytes.length / 2;
+                        out.write( ( "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nContent-Encoding: gzip\r\n\r\n"
+                                + Integer.toHexString( half ) + "\r\n" ).getBytes( "UTF-8" ) );
+                        out.write( bytes, 0, half );
+                        out.write( ( "\r\n" + Integer.toHexString( bytes.length - half ) + ";ext=1\r\n" ).getBytes( "UTF-8" ) );
+                        out.write( bytes, half, bytes.length - half );
+                        out.write( "\r\n0\r\n\r\n".getBytes( "UTF-8" ) );
+                        out.flush();
+                        continue;
+                    }
+                    String text = path.equals( "/close" ) ? "closing"
+                            : parts[0] + " " + path + ( contentLength > 0 ? " " + new String( body, "UTF-8" ) : "" );
+                    byte[] bytes = text.getBytes( "UTF-8" );
+                    out.write( ( "HTTP/1.1 200 OK\r\nX-Loopback: yes\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: "
+                            + bytes.length + "\r\n\r\n" ).getBytes( "UTF-8" ) );
+                    out.write( bytes );
+                    out.flush();
+                    if ( path.equals( "/close" ) ) {
+                        // closed without saying so, like a server dropping an idle keep-alive connection
+                        return;
+                    }
+                }
+            } catch ( IOException | InterruptedException e ) {
+                // the client went away
+            } finally {
+                try {
+                    socket.close();
+                } catch ( IOException e ) {
+                    // already closed
+                }
+            }
+        }
+
+        private static String readLine( InputStream in ) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ( ( c = in.read() ) != -1 ) {
+                if ( c == '\n' ) {
+                    return line.toString().trim();
+                }
+                line.append( (char) c );
+            }
+            return line.length() == 0 ? null : line.toString();
+        }
+    }
+}
@@ -4,14 +4,19 @@ import junit.framework.Assert;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import static junit.framework.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
@@ -19,7 +24,9 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class RestApiBaseTest {
 
@@ -119,6 +126,8 @@ public class RestApiBaseTest {
             assertEquals(expectedHeaders.get(key), lastRequestHeaders.get(key));
         }
         assertEquals( expectedBody, lastRequestBody );
+        verify(mockRestFetcher).setRoute( "/api" );
+        verify(mockRestFetcher).setDeadlineMillis( RestCall.NO_DEADLINE );
     }
 
     @Test
@@ -129,7 +138,7 @@ public class RestApiBaseTest {
         args.put( "arg 1", "value 1" );
         ((ConcreteApiRequest)testObject).queryArgs = args;
 
-        String expectedUrl = "http://google.com/api?arg3=value3&arg2=value2&arg+1=value+1";
+        String expectedUrl = "http://google.com/api?arg+1=value+1&arg2=value2&arg3=value3";
         RestMethod expectedMethod = RestMethod.GET;
         Map<String, String> expectedHeaders = new HashMap<>();
         expectedHeaders.put("Content-Type", "application/json");
@@ -146,6 +155,36 @@ public class RestApiBaseTest {
         assertEquals( expectedBody, lastRequestBody );
     }
 
+    @Test
+    public void routeTemplatesAndRepeatedQueryParametersAreBuilt() {
+        RestApiBase.Request<RestApiBase.Response> request = new RestApiBase.Request<RestApiBase.Response>( new MockRestFetcherFactory() ) {
+            @Override
+            protected String getApiBaseAddress() {
+                return "http://google.com";
+            }
+
+            @Override
+            protected String getApiRoute() {
+                return "/users/{id}/items";
+            }
+
+            @Override
+            protected Map<String, String> getPathParameters() {
+                return Collections.singletonMap( "id", "42" );
+            }
+
+            @Override
+            protected void addQueryParameters( RestUrl.Builder builder ) {
+                builder.addQueryParameter( "tag", "red" ).addQueryParameter( "tag", "blue" );
+            }
+        };
+
+        request.prepare();
+
+        assertEquals( "http://google.com/users/42/items?tag=red&tag=blue", lastRequestUrl );
+        verify(mockRestFetcher).setRoute( "/users/{id}/items" );
+    }
+
     @Test
     public void getFetcherCreatesNewFetcher() {
         assertNull(lastRequestUrl);
@@ -167,6 +206,54 @@ public class RestApiBaseTest {
         verify(mockRestFetcher).fetchAsync();
     }
 
+    @Test
+    public void prepareHandsDispatcherToRestFetcher() {
+        RestDispatcher dispatcher = new RestDispatcher();
+        testObject.setDispatcher( dispatcher );
+
+        testObject.prepare();
+
+        verify(mockRestFetcher).setDispatcher( dispatcher );
+    }
+
+    @Test
+    public void downloadRequestsStreamIntoTheirFile() throws Exception {
+        File file = File.createTempFile( "download", ".bin" );
+        file.deleteOnExit();
+        RestApiBase.DownloadRequest request = new RestApiBase.DownloadRequest( file, new MockRestFetcherFactory() ) {
+            @Override
+            protected String getApiRoute() {
+                return "/file";
+            }
+
+            @Override
+            protected String getApiBaseAddress() {
+                return "http://google.com";
+            }
+        };
+
+        request.prepare();
+
+        assertEquals( "identity", lastRequestHeaders.get( "Accept-Encoding" ) );
+        verify(mockRestFetcher).setResponseStreamHandler( request.getDownloadHandler() );
+        assertEquals( file, request.getDownloadHandler().getFile() );
+    }
+
+    @Test
+    public void prepareHandsResponseStreamHandlerToRestFetcher() {
+        final RestFetcher.IResponseStreamHandler streamHandler = mock( RestFetcher.IResponseStreamHandler.class );
+        testObject = new ConcreteApiRequest( new MockRestFetcherFactory() ) {
+            @Override
+            protected RestFetcher.IResponseStreamHandler getResponseStreamHandler() {
+                return streamHandler;
+            }
+        };
+
+        testObject.prepare();
+
+        verify(mockRestFetcher).setResponseStreamHandler( streamHandler );
+    }
+
     @Test
     public void restErrorCallsErrorCallback() {
 
@@ -222,6 +309,141 @@ public class RestApiBaseTest {
         verify(mockOnApiSuccessListener).onApiSuccess( argThat( responseMatcher ) );
     }
 
+    @Test
+    public void preprocessedResponseIsDeliveredWithoutParsingAgain() {
+        final int[] createCount = new int[1];
+        testObject = new ConcreteApiRequest( new MockRestFetcherFactory() ) {
+            @Override
+            protected RestApiBase.Response createApiResponse( RestResponse response ) {
+                createCount[0]++;
+                return super.createApiResponse( response );
+            }
+        };
+        RestResponse restResponse = new RestResponse( 200, new HashMap<String, String>(), "{}" );
+        testObject.setOnApiSuccessListener( mockOnApiSuccessListener );
+
+        testObject.preprocessSuccess( restResponse );
+        assertEquals( 1, createCount[0] );
+        testObject.onFetchSuccess( restResponse );
+
+        assertEquals( 1, createCount[0] );
+        ArgumentCaptor<RestApiBase.Response> captor = ArgumentCaptor.forClass( RestApiBase.Response.class );
+        verify(mockOnApiSuccessListener).onApiSuccess( captor.capture() );
+        assertEquals( restResponse, captor.getValue().restResponse );
+    }
+
+    @Test
+    public void cancelCancelsTheFetcher() {
+        testObject.prepare();
+
+        testObject.cancel();
+
+        verify(mockRestFetcher).cancel();
+    }
+
+    @Test
+    public void fetchFutureCompletesWithTheParsedResponse() throws Exception {
+        RestResponse restResponse = new RestResponse( 200, new HashMap<String, String>(), "{}" );
+
+        RestFuture<RestApiBase.Response> future = testObject.fetchFuture();
+        testObject.preprocessSuccess( restResponse );
+        testObject.onFetchSuccess( restResponse );
+
+        verify(mockRestFetcher).setCallbackExecutor( argThat( new ArgumentMatcher<Executor>() {
+            @Override
+            public boolean matches( Object argument ) {
+                return argument instanceof RestDispatcher.DirectExecutor;
+            }
+        } ) );
+        assertEquals( restResponse, future.get().restResponse );
+    }
+
+    @Test
+    public void fetchFutureFailsWithTheRestError() throws Exception {
+        RestError error = new RestError( 404, "Not Found" );
+
+        RestFuture<RestApiBase.Response> future = testObject.fetchFuture();
+        testObject.onFetchError( error );
+
+        try {
+            future.get();
+            Assert.fail();
+        } catch ( ExecutionException e ) {
+            assertEquals( error, ( (RestException) e.getCause() ).error );
+        }
+    }
+
+    @Test
+    public void cancellingTheFutureCancelsTheCall() {
+        RestCall call = mock( RestCall.class );
+        when( mockRestFetcher.fetchAsync() ).thenReturn( call );
+
+        testObject.fetchFuture().cancel( false );
+
+        verify(call).cancel();
+    }
+
+    @Test
+    public void parseTimeIsReportedForTheRoute() {
+        RestMetrics metrics = new RestMetrics();
+        testObject.setEventListener( metrics );
+        testObject.setOnApiSuccessListener( mockOnApiSuccessListener );
+
+        testObject.preprocessSuccess( new RestResponse( 200, new HashMap<String, String>(), "{}" ) );
+
+        assertEquals( 1, metrics.getRouteStats( "/api" ).parse.getCount() );
+    }
+
+    @Test
+    public void preprocessedResponseForAnotherRestResponseIsIgnored() {
+        RestResponse first = new RestResponse( 200, new HashMap<String, String>(), "{}" );
+        RestResponse second = new RestResponse( 200, new HashMap<String, String>(), "[]" );
+        testObject.setOnApiSuccessListener( mockOnApiSuccessListener );
+
+        testObject.preprocessSuccess( first );
+        testObject.onFetchSuccess( second );
+
+        ArgumentCaptor<RestApiBase.Response> captor = ArgumentCaptor.forClass( RestApiBase.Response.class );
+        verify(mockOnApiSuccessListener).onApiSuccess( captor.capture() );
+        assertEquals( second, captor.getValue().restResponse );
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void preprocessingFailureIsRethrownOnDelivery() {
+        testObject = new ConcreteApiRequest( new MockRestFetcherFactory() ) {
+            @Override
+            protected RestApiBase.Response createApiResponse( RestResponse response ) {
+                throw new IllegalStateException( "bad json" );
+            }
+        };
+        RestResponse restResponse = new RestResponse( 200, new HashMap<String, String>(), "{" );
+        testObject.setOnApiSuccessListener( mockOnApiSuccessListener );
+
+        testObject.preprocessSuccess( restResponse );
+        testObject.onFetchSuccess( restResponse );
+    }
+
+    static class Cracker {
+        String name;
+        int count;
+    }
+
+    @Test
+    public void responsesCanParseTheirBodyWithTheSharedGson() {
+        RestResponse restResponse = new RestResponse( 200, new HashMap<String, String>(), "{\"name\":\"monkey\",\"count\":3}" );
+        final Cracker[] parsed = new Cracker[1];
+
+        new RestApiBase.Response( restResponse ) {
+            @Override
+            protected void processResponse( RestResponse response ) {
+                parsed[0] = parseJson( Cracker.class );
+            }
+        };
+
+        assertEquals( "monkey", parsed[0].name );
+        assertEquals( 3, parsed[0].count );
+    }
+
     @Test
     public void doesNotBombIfNoSuccessListenerPresent() {
         testObject.onFetchSuccess( null ); //should not throw nullpointer
@@ -0,0 +1,227 @@
+package us.oder.restfetcher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RestBatchTest {
+
+    private RestBatch testObject;
+    private List<StubRequest> started;
+    private List<List<RestBatch.Result>> completions;
+
+    class StubRequest extends RestApiBase.Request<RestApiBase.Response> {
+        @Override
+        protected String getApiRoute() {
+            return "/api";
+        }
+
+        @Override
+        protected String getApiBaseAddress() {
+            return "http://google.com";
+        }
+
+        boolean cancelled;
+        boolean unparseable;
+
+        @Override
+        protected RestApiBase.Response createApiResponse( RestResponse response ) {
+            if ( unparseable ) {
+                throw new IllegalStateException( "malformed" );
+            }
+            return super.createApiResponse( response );
+        }
+
+        @Override
+        public RestCall fetchAsync() {
+            started.add( this );
+            return null;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        void succeed() {
+            RestResponse response = new RestResponse( 200, new HashMap<String, String>(), "{}" );
+            preprocessSuccess( response );
+            onFetchSuccess( response );
+        }
+
+        void fail() {
+            onFetchError( new RestError( 500, "boom" ) );
+        }
+    }
+
+    @Before
+    public void setup() {
+        testObject = new RestBatch();
+        started = new ArrayList<>();
+        completions = new ArrayList<>();
+        testObject.setOnBatchCompleteListener( new RestBatch.OnBatchCompleteListener() {
+            @Override
+            public void onBatchComplete( List<RestBatch.Result> results ) {
+                completions.add( results );
+            }
+        } );
+    }
+
+    private List<StubRequest> addRequests( int count ) {
+        List<StubRequest> output = new ArrayList<>();
+        for ( int i = 0; i < count; i++ ) {
+            StubRequest request = new StubRequest();
+            testObject.add( request );
+            output.add( request );
+        }
+        return output;
+    }
+
+    @Test
+    public void parallelismIsCapped() {
+        testObject.setMaxParallelism( 2 );
+        List<StubRequest> requests = addRequests( 4 );
+
+        testObject.execute();
+        assertEquals( 2, started.size() );
+
+        requests.get( 1 ).succeed();
+        assertEquals( 3, started.size() );
+        assertSame( requests.get( 2 ), started.get( 2 ) );
+    }
+
+    @Test
+    public void resultsAreDeliveredOnceInOrder() {
+        List<StubRequest> requests = addRequests( 3 );
+        testObject.execute();
+
+        requests.get( 2 ).succeed();
+        requests.get( 0 ).fail();
+        assertEquals( 0, completions.size() );
+        requests.get( 1 ).succeed();
+
+        assertEquals( 1, completions.size() );
+        List<RestBatch.Result> results = completions.get( 0 );
+        assertTrue( results.get( 0 ).error != null );
+        assertEquals( 500, results.get( 0 ).error.code );
+        assertTrue( results.get( 1 ).isSuccess() );
+        assertTrue( results.get( 2 ).isSuccess() );
+        assertSame( requests.get( 2 ), results.get( 2 ).request );
+    }
+
+    @Test
+    public void failFastSkipsRemainingRequests() {
+        testObject.setMaxParallelism( 1 );
+        testObject.setFailFast( true );
+        List<StubRequest> requests = addRequests( 3 );
+        testObject.execute();
+
+        requests.get( 0 ).fail();
+
+        assertEquals( 1, started.size() );
+        assertEquals( 1, completions.size() );
+        assertTrue( completions.get( 0 ).get( 1 ).isSkipped() );
+        assertTrue( completions.get( 0 ).get( 2 ).isSkipped() );
+    }
+
+    @Test
+    public void failFastCancelsRequestsStillRunning() {
+        testObject.setMaxParallelism( 2 );
+        testObject.setFailFast( true );
+        List<StubRequest> requests = addRequests( 3 );
+        testObject.execute();
+
+        requests.get( 0 ).fail();
+
+        assertTrue( requests.get( 1 ).cancelled );
+        assertFalse( requests.get( 2 ).cancelled );
+        RestBatch.Result running = completions.get( 0 ).get( 1 );
+        assertTrue( running.isCancelled() );
+        assertFalse( running.isSkipped() );
+        assertTrue( completions.get( 0 ).get( 2 ).isSkipped() );
+        assertFalse( completions.get( 0 ).get( 2 ).isCancelled() );
+    }
+
+    @Test
+    public void cancelledRequestsGetTheirListenersBack() {
+        RestApiBase.OnApiErrorListener listener = new RestApiBase.OnApiErrorListener() {
+            @Override
+            public void onApiError( RestError error ) {
+            }
+        };
+        testObject.setFailFast( true );
+        List<StubRequest> requests = addRequests( 2 );
+        requests.get( 1 ).setOnApiErrorListener( listener );
+        testObject.execute();
+
+        requests.get( 0 ).fail();
+
+        assertTrue( requests.get( 1 ).cancelled );
+        assertSame( listener, requests.get( 1 ).getOnApiErrorListener() );
+        assertNull( requests.get( 1 ).getOnApiSuccessListener() );
+    }
+
+    @Test
+    public void unparseableResponseCompletesTheBatchWithAnError() {
+        StubRequest request = addRequests( 1 ).get( 0 );
+        request.unparseable = true;
+        testObject.execute();
+
+        try {
+            request.succeed();
+            fail( "expected the parse failure to be thrown" );
+        } catch ( IllegalStateException e ) {
+            // still surfaces on the callback thread
+        }
+
+        assertEquals( 1, completions.size() );
+        RestBatch.Result result = completions.get( 0 ).get( 0 );
+        assertFalse( result.isSuccess() );
+        assertEquals( 200, result.error.code );
+        assertNull( request.getOnApiSuccessListener() );
+    }
+
+    @Test
+    public void requestListenersAreStillCalledAndRestored() {
+        final List<RestApiBase.Response> delivered = new ArrayList<>();
+        RestApiBase.OnApiSuccessListener<RestApiBase.Response> listener = new RestApiBase.OnApiSuccessListener<RestApiBase.Response>() {
+            @Override
+            public void onApiSuccess( RestApiBase.Response response ) {
+                delivered.add( response );
+            }
+        };
+        StubRequest request = addRequests( 1 ).get( 0 );
+        request.setOnApiSuccessListener( listener );
+        testObject.execute();
+
+        request.succeed();
+
+        assertEquals( 1, delivered.size() );
+        assertSame( listener, request.getOnApiSuccessListener() );
+        assertNull( request.getOnApiErrorListener() );
+    }
+
+    @Test
+    public void emptyBatchCompletesImmediately() {
+        testObject.execute();
+
+        assertEquals( 1, completions.size() );
+        assertTrue( completions.get( 0 ).isEmpty() );
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void batchesCannotBeExecutedTwice() {
+        testObject.execute();
+        testObject.execute();
+    }
+}
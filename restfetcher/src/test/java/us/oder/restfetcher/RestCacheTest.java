@@ -0,0 +1,174 @@
+package us.oder.restfetcher;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RestCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private RestResponse createResponse( int code, String body, String... headerPairs ) {
+        Map<String, String> headers = new HashMap<>();
+        for ( int i = 0; i < headerPairs.length; i += 2 ) {
+            headers.put( headerPairs[i], headerPairs[i + 1] );
+        }
+        return new RestResponse( code, headers, body );
+    }
+
+    @Test
+    public void storesResponsesWithValidators() {
+        RestCache testObject = new RestCache( 1024 * 1024 );
+
+        testObject.put( "http://a.com/list", createResponse( 200, "[1,2,3]", "ETag", "\"v1\"" ) );
+
+        RestCache.Entry entry = testObject.get( "http://a.com/list" );
+        assertNotNull( entry );
+        assertEquals( "[1,2,3]", entry.body );
+        assertEquals( "\"v1\"", entry.etag );
+        assertFalse( entry.isFresh() );
+    }
+
+    @Test
+    public void maxAgeMakesEntryFresh() {
+        RestCache testObject = new RestCache( 1024 * 1024 );
+
+        testObject.put( "http://a.com/list", createResponse( 200, "[]", "cache-control", "public;max-age=60" ) );
+
+        RestCache.Entry entry = testObject.get( "http://a.com/list" );
+        assertTrue( entry.isFresh( entry.receivedAt + 59000 ) );
+        assertFalse( entry.isFresh( entry.receivedAt + 60000 ) );
+    }
+
+    @Test
+    public void doesNotStoreUncacheableResponses() {
+        RestCache testObject = new RestCache( 1024 * 1024 );
+
+        testObject.put( "http://a.com/1", createResponse( 200, "[]", "Cache-Control", "no-store", "ETag", "\"v1\"" ) );
+        testObject.put( "http://a.com/2", createResponse( 200, "[]" ) );
+        testObject.put( "http://a.com/3", createResponse( 500, "[]", "ETag", "\"v1\"" ) );
+
+        assertNull( testObject.get( "http://a.com/1" ) );
+        assertNull( testObject.get( "http://a.com/2" ) );
+        assertNull( testObject.get( "http://a.com/3" ) );
+        assertEquals( 3, testObject.getMissCount() );
+    }
+
+    @Test
+    public void keysTellUsersApart() {
+        Map<String, String> alice = new HashMap<>();
+        alice.put( "authorization", "Bearer alice" );
+        alice.put( "Accept", "application/json" );
+        Map<String, String> bob = new HashMap<>();
+        bob.put( "Authorization", "Bearer bob" );
+        Map<String, String> anonymous = new HashMap<>();
+        anonymous.put( "Accept", "application/json" );
+
+        assertEquals( "http://a.com/me", RestCache.createKey( "http://a.com/me", anonymous ) );
+        assertFalse( RestCache.createKey( "http://a.com/me", alice ).equals( RestCache.createKey( "http://a.com/me", bob ) ) );
+        assertFalse( RestCache.createKey( "http://a.com/me", alice ).equals( RestCache.createKey( "http://a.com/me", anonymous ) ) );
+    }
+
+    @Test
+    public void doesNotStoreResponsesVaryingOnHeadersOutsideTheKey() {
+        RestCache testObject = new RestCache( 1024 * 1024 );
+
+        testObject.put( "http://a.com/1", createResponse( 200, "[]", "ETag", "\"v1\"", "Vary", "Accept-Language" ) );
+        testObject.put( "http://a.com/2", createResponse( 200, "[]", "ETag", "\"v1\"", "Vary", "*" ) );
+        testObject.put( "http://a.com/3", createResponse( 200, "[]", "ETag", "\"v1\"", "Vary", "accept-encoding, Authorization" ) );
+
+        assertNull( testObject.get( "http://a.com/1" ) );
+        assertNull( testObject.get( "http://a.com/2" ) );
+        assertNotNull( testObject.get( "http://a.com/3" ) );
+    }
+
+    @Test
+    public void notModifiedReturnsCachedBodyAndRefreshesEntry() {
+        RestCache testObject = new RestCache( 1024 * 1024 );
+        testObject.put( "http://a.com/list", createResponse( 200, "[1,2,3]", "ETag", "\"v1\"", "Content-Type", "application/json" ) );
+        RestCache.Entry cached = testObject.get( "http://a.com/list" );
+
+        RestResponse actual = testObject.update( "http://a.com/list", cached, createResponse( 304, "", "ETag", "\"v2\"", "Cache-Control", "max-age=30" ) );
+
+        assertEquals( 200, actual.code );
+        assertEquals( "[1,2,3]", actual.body );
+        assertEquals( "application/json", actual.headers.get( "Content-Type" ) );
+        RestCache.Entry refreshed = testObject.get( "http://a.com/list" );
+        assertEquals( "\"v2\"", refreshed.etag );
+        assertTrue( refreshed.isFresh() );
+        assertEquals( 1, testObject.getRevalidatedCount() );
+    }
+
+    @Test
+    public void modifiedResponseReplacesEntry() {
+        RestCache testObject = new RestCache( 1024 * 1024 );
+        testObject.put( "http://a.com/list", createResponse( 200, "[1]", "ETag", "\"v1\"" ) );
+        RestCache.Entry cached = testObject.get( "http://a.com/list" );
+        RestResponse fresh = createResponse( 200, "[1,2]", "ETag", "\"v2\"" );
+
+        RestResponse actual = testObject.update( "http://a.com/list", cached, fresh );
+
+        assertSame( fresh, actual );
+        assertEquals( "[1,2]", testObject.get( "http://a.com/list" ).body );
+    }
+
+    @Test
+    public void memoryTierEvictsLeastRecentlyUsed() {
+        RestCache testObject = new RestCache( 70 );
+        testObject.put( "a", createResponse( 200, "0123456789", "ETag", "1" ) );
+        testObject.put( "b", createResponse( 200, "0123456789", "ETag", "2" ) );
+        testObject.get( "a" );
+
+        testObject.put( "c", createResponse( 200, "0123456789", "ETag", "3" ) );
+
+        assertNotNull( testObject.get( "a" ) );
+        assertNull( testObject.get( "b" ) );
+        assertNotNull( testObject.get( "c" ) );
+        assertTrue( testObject.getMemorySize() <= 70 );
+    }
+
+    @Test
+    public void diskTierSurvivesNewCacheInstance() throws IOException {
+        File directory = temporaryFolder.newFolder( "cache" );
+        RestCache first = new RestCache( 1024, directory, 1024 * 1024 );
+        first.put( "http://a.com/list", createResponse( 200, "[\"\u00e9\"]", "ETag", "\"v1\"", "Last-Modified", "Tue, 15 Nov 1994 12:45:26 GMT" ) );
+
+        RestCache second = new RestCache( 1024, directory, 1024 * 1024 );
+        RestCache.Entry entry = second.get( "http://a.com/list" );
+
+        assertNotNull( entry );
+        assertEquals( "[\"\u00e9\"]", entry.body );
+        assertEquals( "\"v1\"", entry.etag );
+        assertEquals( "Tue, 15 Nov 1994 12:45:26 GMT", entry.lastModified );
+    }
+
+    @Test
+    public void diskTierStaysWithinSizeLimit() throws IOException {
+        File directory = temporaryFolder.newFolder( "cache" );
+        StringBuilder body = new StringBuilder();
+        for ( int i = 0; i < 100; i++ ) {
+            body.append( "0123456789" );
+        }
+        RestCache testObject = new RestCache( 0, directory, 4000 );
+
+        for ( int i = 0; i < 10; i++ ) {
+            testObject.put( "http://a.com/" + i, createResponse( 200, body.toString(), "ETag", "" + i ) );
+        }
+
+        assertTrue( testObject.getDiskSize() <= 4000 );
+        assertTrue( testObject.getDiskSize() > 0 );
+    }
+}
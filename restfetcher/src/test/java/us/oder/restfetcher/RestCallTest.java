@@ -0,0 +1,68 @@
+package us.oder.restfetcher;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class RestCallTest {
+
+    @Test
+    public void callsWithoutDeadlineNeverExpire() throws IOException {
+        RestCall testObject = new RestCall( RestCall.NO_DEADLINE );
+
+        testObject.throwIfInactive();
+        assertFalse( testObject.isDeadlineExceeded() );
+        assertEquals( Long.MAX_VALUE, testObject.getRemainingMillis() );
+    }
+
+    @Test
+    public void cancelDisconnectsTheAttachedConnection() throws IOException {
+        HttpURLConnection connection = mock( HttpURLConnection.class );
+        RestCall testObject = new RestCall( RestCall.NO_DEADLINE );
+        testObject.attach( connection );
+
+        testObject.cancel();
+
+        verify( connection ).disconnect();
+        assertTrue( testObject.isCancelled() );
+    }
+
+    @Test
+    public void attachingToACancelledCallFails() {
+        RestCall testObject = new RestCall( RestCall.NO_DEADLINE );
+        testObject.cancel();
+
+        try {
+            testObject.attach( mock( HttpURLConnection.class ) );
+            fail();
+        } catch ( IOException e ) {
+            assertTrue( e instanceof InterruptedIOException );
+        }
+    }
+
+    @Test
+    public void sleepIsCutShortByTheDeadline() {
+        RestCall testObject = new RestCall( 50 );
+        long start = System.nanoTime();
+
+        assertFalse( testObject.sleep( 5000 ) );
+        assertTrue( System.nanoTime() - start < 4000L * 1000 * 1000 );
+        assertTrue( testObject.isDeadlineExceeded() );
+    }
+
+    @Test
+    public void sleepRunsToTheEndWhenUndisturbed() {
+        RestCall testObject = new RestCall( RestCall.NO_DEADLINE );
+
+        assertTrue( testObject.sleep( 10 ) );
+    }
+}
@@ -0,0 +1,172 @@
+package us.oder.restfetcher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RestCoalescerTest {
+
+    private RestCoalescer testObject;
+    private RestResponse lastResponse;
+    private IOException lastError;
+
+    @Before
+    public void setup() {
+        testObject = new RestCoalescer();
+        lastResponse = null;
+        lastError = null;
+    }
+
+    @Test
+    public void identicalKeysShareOneCall() {
+        RestCoalescer.Call first = testObject.acquire( "GET http://a.com" );
+        RestCoalescer.Call second = testObject.acquire( "GET http://a.com" );
+
+        assertSame( first, second );
+        assertTrue( first.claim() );
+        assertFalse( second.claim() );
+        assertEquals( 1, testObject.getInFlightCount() );
+        assertEquals( 1, testObject.getCoalescedCount() );
+    }
+
+    @Test
+    public void completedCallIsNotReused() {
+        RestCoalescer.Call first = testObject.acquire( "GET http://a.com" );
+        first.claim();
+        first.complete( new RestResponse( 200, new HashMap<String, String>(), "" ) );
+
+        RestCoalescer.Call second = testObject.acquire( "GET http://a.com" );
+
+        assertNotSame( first, second );
+        assertTrue( second.claim() );
+    }
+
+    @Test
+    public void callbacksReceiveSharedResponse() {
+        RestResponse expected = new RestResponse( 200, new HashMap<String, String>(), "[]" );
+        RestCoalescer.Call call = testObject.acquire( "GET http://a.com" );
+        call.addCallback( new RestCoalescer.Callback() {
+            @Override
+            public void onComplete( RestResponse response, IOException error ) {
+                lastResponse = response;
+            }
+        } );
+
+        call.complete( expected );
+
+        assertSame( expected, lastResponse );
+    }
+
+    @Test
+    public void lateCallbacksRunImmediately() {
+        RestCoalescer.Call call = testObject.acquire( "GET http://a.com" );
+        call.fail( new IOException( "offline" ) );
+
+        call.addCallback( new RestCoalescer.Callback() {
+            @Override
+            public void onComplete( RestResponse response, IOException error ) {
+                lastError = error;
+            }
+        } );
+
+        assertEquals( "offline", lastError.getMessage() );
+    }
+
+    @Test
+    public void awaitBlocksUntilLeaderCompletes() throws Exception {
+        final RestResponse expected = new RestResponse( 200, new HashMap<String, String>(), "[]" );
+        final RestCoalescer.Call call = testObject.acquire( "GET http://a.com" );
+        final CountDownLatch done = new CountDownLatch( 1 );
+        Thread follower = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lastResponse = call.await();
+                } catch ( IOException e ) {
+                    lastError = e;
+                }
+                done.countDown();
+            }
+        } );
+        follower.start();
+
+        assertFalse( done.await( 100, TimeUnit.MILLISECONDS ) );
+        call.complete( expected );
+
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        assertSame( expected, lastResponse );
+    }
+
+    @Test
+    public void followerStopsWaitingWhenItsCallIsCancelled() throws Exception {
+        final RestCoalescer.Call call = testObject.acquire( "GET http://a.com" );
+        final RestCall followerCall = new RestCall( RestCall.NO_DEADLINE );
+        final CountDownLatch done = new CountDownLatch( 1 );
+        new Thread( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lastResponse = call.await( followerCall );
+                } catch ( IOException e ) {
+                    lastError = e;
+                }
+                done.countDown();
+            }
+        } ).start();
+
+        assertFalse( done.await( 100, TimeUnit.MILLISECONDS ) );
+        followerCall.cancel();
+
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        assertTrue( lastError instanceof InterruptedIOException );
+    }
+
+    @Test(expected = InterruptedIOException.class)
+    public void followerStopsWaitingAtItsDeadline() throws IOException {
+        RestCoalescer.Call call = testObject.acquire( "GET http://a.com" );
+
+        call.await( new RestCall( 50 ) );
+    }
+
+    @Test
+    public void awaitRethrowsLeaderFailure() {
+        RestCoalescer.Call call = testObject.acquire( "GET http://a.com" );
+        call.fail( new IOException( "offline" ) );
+
+        try {
+            call.await();
+            fail();
+        } catch ( IOException e ) {
+            assertEquals( "offline", e.getMessage() );
+        }
+    }
+
+    @Test
+    public void keyIgnoresHeaderOrder() {
+        Map<String, String> first = new LinkedHashMap<>();
+        first.put( "Accept", "application/json" );
+        first.put( "Authorization", "token" );
+        Map<String, String> second = new LinkedHashMap<>();
+        second.put( "Authorization", "token" );
+        second.put( "Accept", "application/json" );
+
+        assertEquals( RestCoalescer.createKey( RestMethod.GET, "http://a.com", first ),
+                RestCoalescer.createKey( RestMethod.GET, "http://a.com", second ) );
+        assertFalse( RestCoalescer.createKey( RestMethod.GET, "http://a.com", first )
+                .equals( RestCoalescer.createKey( RestMethod.GET, "http://b.com", first ) ) );
+    }
+}
@@ -0,0 +1,191 @@
+package us.oder.restfetcher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RestDispatcherTest {
+
+    private ExecutorService executorService;
+    private RestDispatcher testObject;
+    private CountDownLatch release;
+
+    private Executor immediateExecutor = new Executor() {
+        @Override
+        public void execute( Runnable command ) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void setup() {
+        executorService = Executors.newCachedThreadPool();
+        testObject = new RestDispatcher( executorService, immediateExecutor );
+        release = new CountDownLatch( 1 );
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executorService.shutdownNow();
+    }
+
+    private Runnable blockingTask( final CountDownLatch started ) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    @Test
+    public void virtualThreadExecutorServiceRunsManyBlockingCalls() throws InterruptedException {
+        ExecutorService virtualThreads = RestDispatcher.newVirtualThreadExecutorService();
+        testObject = new RestDispatcher( virtualThreads, immediateExecutor );
+        testObject.setMaxRequests( 500 );
+        testObject.setMaxRequestsPerHost( 500 );
+        CountDownLatch started = new CountDownLatch( 500 );
+
+        for ( int i = 0; i < 500; i++ ) {
+            testObject.enqueue( "a.com", blockingTask( started ) );
+        }
+
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 500, testObject.getRunningCallCount() );
+        release.countDown();
+        virtualThreads.shutdown();
+        assertTrue( virtualThreads.awaitTermination( 5, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void independentHostsRunInParallel() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch( 3 );
+
+        testObject.enqueue( "a.com", blockingTask( started ) );
+        testObject.enqueue( "b.com", blockingTask( started ) );
+        testObject.enqueue( "c.com", blockingTask( started ) );
+
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 3, testObject.getRunningCallCount() );
+        assertEquals( 0, testObject.getQueuedCallCount() );
+    }
+
+    @Test
+    public void maxRequestsPerHostQueuesExcessCalls() throws InterruptedException {
+        testObject.setMaxRequestsPerHost( 2 );
+        CountDownLatch started = new CountDownLatch( 3 );
+
+        testObject.enqueue( "a.com", blockingTask( started ) );
+        testObject.enqueue( "a.com", blockingTask( started ) );
+        testObject.enqueue( "a.com", blockingTask( started ) );
+        testObject.enqueue( "b.com", blockingTask( started ) );
+
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 3, testObject.getRunningCallCount() );
+        assertEquals( 1, testObject.getQueuedCallCount() );
+    }
+
+    @Test
+    public void maxRequestsQueuesExcessCalls() throws InterruptedException {
+        testObject.setMaxRequests( 1 );
+        CountDownLatch started = new CountDownLatch( 1 );
+
+        testObject.enqueue( "a.com", blockingTask( started ) );
+        testObject.enqueue( "b.com", blockingTask( started ) );
+
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 1, testObject.getRunningCallCount() );
+        assertEquals( 1, testObject.getQueuedCallCount() );
+    }
+
+    @Test
+    public void queuedCallsRunWhenSlotsFreeUp() throws InterruptedException {
+        testObject.setMaxRequests( 1 );
+        final CountDownLatch done = new CountDownLatch( 3 );
+        final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+        for ( int i = 0; i < 3; i++ ) {
+            final int index = i;
+            testObject.enqueue( "a.com", new Runnable() {
+                @Override
+                public void run() {
+                    order.add( index );
+                    done.countDown();
+                }
+            } );
+        }
+
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 3, order.size() );
+        assertEquals( 0, (int) order.get( 0 ) );
+        assertEquals( 1, (int) order.get( 1 ) );
+        assertEquals( 2, (int) order.get( 2 ) );
+    }
+
+    @Test
+    public void lifoPolicyRunsNewestQueuedCallFirst() throws InterruptedException {
+        testObject.setMaxRequests( 1 );
+        testObject.setQueuePolicy( RestDispatcher.QueuePolicy.LIFO );
+        CountDownLatch started = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( 2 );
+        final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+
+        testObject.enqueue( "a.com", blockingTask( started ) );
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+        for ( int i = 0; i < 2; i++ ) {
+            final int index = i;
+            testObject.enqueue( "a.com", new Runnable() {
+                @Override
+                public void run() {
+                    order.add( index );
+                    done.countDown();
+                }
+            } );
+        }
+        release.countDown();
+
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 1, (int) order.get( 0 ) );
+        assertEquals( 0, (int) order.get( 1 ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxRequestsMustBePositive() {
+        testObject.setMaxRequests( 0 );
+    }
+
+    @Test
+    public void delayedCallsRunAfterTheDelayWithoutTakingASlot() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch( 1 );
+        long start = System.nanoTime();
+
+        testObject.enqueueDelayed( "a.com", new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }, 50 );
+
+        assertEquals( 0, testObject.getRunningCallCount() );
+        assertEquals( 0, testObject.getQueuedCallCount() );
+        assertTrue( ran.await( 5, TimeUnit.SECONDS ) );
+        assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 50 ) );
+    }
+}
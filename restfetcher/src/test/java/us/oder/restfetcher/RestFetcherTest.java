@@ -6,31 +6,56 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import us.oder.restfetcher.util.ContentEncoding;
 
 import static junit.framework.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.intThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 @Config(sdk = 18)
@@ -61,7 +86,7 @@ public class RestFetcherTest {
 
     private int lastResponseCode;
     private String lastResponseBody;
-    private Map<String, String> lastResponseHeaders;
+    private RestHeaders lastResponseHeaders;
 
     class MockConnectionFactory implements RestFetcher.IConnectionFactory{
         public String url = "";
@@ -90,7 +115,7 @@ public class RestFetcherTest {
         when(mockHttpURLConnection.getOutputStream()).thenReturn( mockOutputStream );
         lastResponseCode = 0;
         lastResponseBody = "";
-        lastResponseHeaders = new HashMap<>();
+        lastResponseHeaders = RestHeaders.EMPTY;
         url = "http://google.com";
         headers = new HashMap<>();
         headers.put("sample", "header");
@@ -130,7 +155,7 @@ public class RestFetcherTest {
         assertEquals( "{\"cracker\":\"monkey\"}", lastResponseBody );
         assertEquals( 2, lastResponseHeaders.size() );
         assertEquals( "value", lastResponseHeaders.get( "key1" ) );
-        assertEquals( "value;another value", lastResponseHeaders.get( "key2" ) );
+        assertEquals( Arrays.asList( "value", "another value" ), lastResponseHeaders.values( "key2" ) );
     }
 
     @Test
@@ -154,11 +179,12 @@ public class RestFetcherTest {
         assertEquals( "", lastResponseBody );
         assertEquals( 2, lastResponseHeaders.size() );
         assertEquals( "value", lastResponseHeaders.get( "key1" ) );
-        assertEquals( "value;another value", lastResponseHeaders.get("key2") );
+        assertEquals( Arrays.asList( "value", "another value" ), lastResponseHeaders.values( "key2" ) );
 
         ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass( byte[].class );
-        verify(mockOutputStream).write(captor.capture(), anyInt(), anyInt());
-        assertEquals("{\"thing\":\"one\"}", RestFetcher.convertInputStreamToString(new ByteArrayInputStream(captor.getValue())));
+        ArgumentCaptor<Integer> lengthCaptor = ArgumentCaptor.forClass( Integer.class );
+        verify(mockOutputStream).write(captor.capture(), eq(0), lengthCaptor.capture());
+        assertEquals("{\"thing\":\"one\"}", RestFetcher.convertInputStreamToString(new ByteArrayInputStream(captor.getValue(), 0, lengthCaptor.getValue())));
     }
 
     @Test
@@ -182,11 +208,12 @@ public class RestFetcherTest {
         assertEquals( "", lastResponseBody );
         assertEquals( 2, lastResponseHeaders.size() );
         assertEquals( "value", lastResponseHeaders.get( "key1" ) );
-        assertEquals( "value;another value", lastResponseHeaders.get( "key2" ) );
+        assertEquals( Arrays.asList( "value", "another value" ), lastResponseHeaders.values( "key2" ) );
 
         ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass( byte[].class );
-        verify(mockOutputStream).write(captor.capture(), anyInt(), anyInt());
-        assertEquals("{\"thing\":\"one\"}", RestFetcher.convertInputStreamToString(new ByteArrayInputStream(captor.getValue())));
+        ArgumentCaptor<Integer> lengthCaptor = ArgumentCaptor.forClass( Integer.class );
+        verify(mockOutputStream).write(captor.capture(), eq(0), lengthCaptor.capture());
+        assertEquals("{\"thing\":\"one\"}", RestFetcher.convertInputStreamToString(new ByteArrayInputStream(captor.getValue(), 0, lengthCaptor.getValue())));
     }
 
     @Test
@@ -209,7 +236,7 @@ public class RestFetcherTest {
         assertEquals( "", lastResponseBody );
         assertEquals( 2, lastResponseHeaders.size() );
         assertEquals("value", lastResponseHeaders.get("key1"));
-        assertEquals( "value;another value", lastResponseHeaders.get("key2") );
+        assertEquals( Arrays.asList( "value", "another value" ), lastResponseHeaders.values( "key2" ) );
 
     }
 
@@ -251,7 +278,7 @@ public class RestFetcherTest {
         assertEquals( "{\"cracker\":\"monkey\"}", lastResponseBody );
         assertEquals(2, lastResponseHeaders.size());
         assertEquals("value", lastResponseHeaders.get("key1"));
-        assertEquals("value;another value", lastResponseHeaders.get("key2"));
+        assertEquals( Arrays.asList( "value", "another value" ), lastResponseHeaders.values( "key2" ) );
 
     }
 
@@ -305,6 +332,822 @@ public class RestFetcherTest {
         assertTrue(fetched);
     }
 
+    @Test
+    public void responseStreamHandlerReceivesLiveBody() throws IOException {
+        mockResponseBody = "{\"cracker\":\"monkey\"}";
+        final InputStream stream = getMockInputStream( mockResponseBody );
+        when(mockHttpURLConnection.getInputStream()).thenReturn( stream );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        final String[] streamedBody = new String[1];
+        fetcher.setResponseStreamHandler( new RestFetcher.IResponseStreamHandler() {
+            @Override
+            public void onResponseStream( int code, Map<String, String> headers, InputStream stream ) throws IOException {
+                assertEquals( 200, code );
+                assertEquals( "value", headers.get( "key1" ) );
+                streamedBody[0] = RestFetcher.convertInputStreamToString( stream );
+            }
+        } );
+        fetcher.onFetchSuccessListener = new RestFetcher.OnFetchSuccessListener() {
+            @Override
+            public void onFetchSuccess( RestResponse response ) {
+                lastResponseCode = response.code;
+                lastResponseBody = response.body;
+            }
+        };
+
+        fetcher.fetch();
+
+        assertEquals( mockResponseBody, streamedBody[0] );
+        assertEquals( 200, lastResponseCode );
+        assertEquals( "", lastResponseBody );
+    }
+
+    @Test
+    public void responseStreamHandlerIsSkippedForErrorResponses() throws IOException {
+        mockResponseBody = "{\"error\":\"nope\"}";
+        when(mockHttpURLConnection.getInputStream()).thenReturn( getMockInputStream( mockResponseBody ) );
+        when(mockHttpURLConnection.getResponseCode()).thenReturn( 500 );
+        RestFetcher.IResponseStreamHandler mockStreamHandler = mock( RestFetcher.IResponseStreamHandler.class );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setResponseStreamHandler( mockStreamHandler );
+        fetcher.onFetchErrorListener = mockOnFetchErrorListener;
+
+        fetcher.fetch();
+
+        verify(mockOnFetchErrorListener).onFetchError(restErrorCaptor.capture());
+        assertEquals( 500, restErrorCaptor.getValue().code );
+        assertEquals( mockResponseBody, restErrorCaptor.getValue().reason );
+        verifyZeroInteractions( mockStreamHandler );
+    }
+
+    @Test
+    public void freshCachedResponseSkipsNetwork() throws IOException {
+        RestCache cache = new RestCache( 1024 * 1024 );
+        Map<String, String> cachedHeaders = new HashMap<>();
+        cachedHeaders.put( "Cache-Control", "max-age=600" );
+        cache.put( url, new RestResponse( 200, cachedHeaders, "{\"cached\":true}" ) );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setCache( cache );
+        fetcher.onFetchSuccessListener = mockOnFetchSuccessListener;
+
+        fetcher.fetch();
+
+        ArgumentCaptor<RestResponse> responseCaptor = ArgumentCaptor.forClass( RestResponse.class );
+        verify(mockOnFetchSuccessListener).onFetchSuccess( responseCaptor.capture() );
+        assertEquals( "{\"cached\":true}", responseCaptor.getValue().body );
+        assertEquals( "", mockConnectionFactory.url );
+        assertEquals( 1, cache.getHitCount() );
+    }
+
+    @Test
+    public void staleCachedResponseIsRevalidated() throws IOException {
+        RestCache cache = new RestCache( 1024 * 1024 );
+        Map<String, String> cachedHeaders = new HashMap<>();
+        cachedHeaders.put( "ETag", "\"v1\"" );
+        cache.put( url, new RestResponse( 200, cachedHeaders, "{\"cached\":true}" ) );
+        when(mockHttpURLConnection.getResponseCode()).thenReturn( 304 );
+        when(mockHttpURLConnection.getInputStream()).thenReturn( getMockInputStream( "" ) );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setCache( cache );
+        fetcher.onFetchSuccessListener = mockOnFetchSuccessListener;
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection).setRequestProperty( "If-None-Match", "\"v1\"" );
+        ArgumentCaptor<RestResponse> responseCaptor = ArgumentCaptor.forClass( RestResponse.class );
+        verify(mockOnFetchSuccessListener).onFetchSuccess( responseCaptor.capture() );
+        assertEquals( 200, responseCaptor.getValue().code );
+        assertEquals( "{\"cached\":true}", responseCaptor.getValue().body );
+        assertEquals( 1, cache.getRevalidatedCount() );
+    }
+
+    @Test
+    public void cachedResponsesAreNotSharedBetweenUsers() throws IOException {
+        RestCache cache = new RestCache( 1024 * 1024 );
+        Map<String, String> cachedHeaders = new HashMap<>();
+        cachedHeaders.put( "Cache-Control", "max-age=600" );
+        headers.put( "Authorization", "Bearer alice" );
+        cache.put( RestCache.createKey( url, headers ), new RestResponse( 200, cachedHeaders, "{\"user\":\"alice\"}" ) );
+        headers.put( "Authorization", "Bearer bob" );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setCache( cache );
+
+        fetcher.fetch();
+
+        assertEquals( url, mockConnectionFactory.url );
+        assertEquals( 0, cache.getHitCount() );
+    }
+
+    @Test
+    public void cacheIsNotUsedForMutatingRequests() throws IOException {
+        RestCache cache = new RestCache( 1024 * 1024 );
+        Map<String, String> cachedHeaders = new HashMap<>();
+        cachedHeaders.put( "Cache-Control", "max-age=600" );
+        cache.put( url, new RestResponse( 200, cachedHeaders, "{\"cached\":true}" ) );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.POST, headers, body, mockConnectionFactory );
+        fetcher.setCache( cache );
+
+        fetcher.fetch();
+
+        assertEquals( url, mockConnectionFactory.url );
+        assertEquals( 0, cache.getHitCount() );
+    }
+
+    @Test
+    public void concurrentIdenticalGetsShareOneConnection() throws Exception {
+        final CountDownLatch responseGate = new CountDownLatch( 1 );
+        final AtomicInteger connectionCount = new AtomicInteger();
+        when(mockHttpURLConnection.getInputStream()).thenAnswer( new Answer<InputStream>() {
+            @Override
+            public InputStream answer( InvocationOnMock invocation ) throws Throwable {
+                responseGate.await( 5, TimeUnit.SECONDS );
+                return getMockInputStream( "{\"cracker\":\"monkey\"}" );
+            }
+        } );
+        RestFetcher.IConnectionFactory countingFactory = new RestFetcher.IConnectionFactory() {
+            @Override
+            public URLConnection createHttpURLConnection( String url ) throws IOException {
+                connectionCount.incrementAndGet();
+                return mockHttpURLConnection;
+            }
+        };
+        RestCoalescer coalescer = new RestCoalescer();
+        final List<RestResponse> responses = Collections.synchronizedList( new ArrayList<RestResponse>() );
+        final CountDownLatch done = new CountDownLatch( 3 );
+        for ( int i = 0; i < 3; i++ ) {
+            final RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, countingFactory );
+            fetcher.setCoalescer( coalescer );
+            fetcher.onFetchSuccessListener = new RestFetcher.OnFetchSuccessListener() {
+                @Override
+                public void onFetchSuccess( RestResponse response ) {
+                    responses.add( response );
+                    done.countDown();
+                }
+            };
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    fetcher.fetch();
+                }
+            } ).start();
+        }
+        while ( coalescer.getCoalescedCount() < 2 ) {
+            Thread.sleep( 10 );
+        }
+        responseGate.countDown();
+
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 1, connectionCount.get() );
+        assertEquals( 3, responses.size() );
+        assertTrue( responses.get( 0 ) == responses.get( 1 ) && responses.get( 1 ) == responses.get( 2 ) );
+        assertEquals( "{\"cracker\":\"monkey\"}", responses.get( 0 ).body );
+    }
+
+    @Test
+    public void largeRequestBodiesAreGzipped() throws Exception {
+        body = "{\"thing\":\"one\",\"other\":\"one\",\"more\":\"one\"}";
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.POST, headers, body, mockConnectionFactory );
+        fetcher.setRequestCompressionThreshold( 16 );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection).setRequestProperty( "Content-Encoding", "gzip" );
+        ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass( byte[].class );
+        ArgumentCaptor<Integer> lengthCaptor = ArgumentCaptor.forClass( Integer.class );
+        verify(mockOutputStream).write(captor.capture(), eq(0), lengthCaptor.capture());
+        InputStream sent = new GZIPInputStream( new ByteArrayInputStream( captor.getValue(), 0, lengthCaptor.getValue() ) );
+        assertEquals( body, RestFetcher.convertInputStreamToString( sent ) );
+    }
+
+    @Test
+    public void smallRequestBodiesAreNotGzipped() throws Exception {
+        body = "{}";
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.POST, headers, body, mockConnectionFactory );
+        fetcher.setRequestCompressionThreshold( 16 );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection, never()).setRequestProperty( eq( "Content-Encoding" ), anyString() );
+    }
+
+    @Test
+    public void gzippedResponsesAreDecoded() throws Exception {
+        mockResponseBody = "{\"cracker\":\"monkey\"}";
+        byte[] compressed = ContentEncoding.gzip( mockResponseBody.getBytes( "UTF-8" ) );
+        when(mockHttpURLConnection.getInputStream()).thenReturn( new ByteArrayInputStream( compressed ) );
+        when(mockHttpURLConnection.getContentEncoding()).thenReturn( "gzip" );
+        when(mockHttpURLConnection.getContentLength()).thenReturn( compressed.length );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.onFetchSuccessListener = mockOnFetchSuccessListener;
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection).setRequestProperty( "Accept-Encoding", "gzip, deflate" );
+        ArgumentCaptor<RestResponse> responseCaptor = ArgumentCaptor.forClass( RestResponse.class );
+        verify(mockOnFetchSuccessListener).onFetchSuccess( responseCaptor.capture() );
+        assertEquals( mockResponseBody, responseCaptor.getValue().body );
+    }
+
+    @Test
+    public void callerAcceptEncodingIsNotOverridden() throws Exception {
+        headers.put( "accept-encoding", "identity" );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection).setRequestProperty( "accept-encoding", "identity" );
+        verify(mockHttpURLConnection, never()).setRequestProperty( "Accept-Encoding", "gzip, deflate" );
+    }
+
+    @Test
+    public void errorStreamBecomesErrorReason() throws IOException {
+        when(mockHttpURLConnection.getInputStream()).thenThrow( new IOException() );
+        when(mockHttpURLConnection.getErrorStream()).thenReturn( getMockInputStream( "{\"error\":\"bad\"}" ) );
+        when(mockHttpURLConnection.getResponseCode()).thenReturn( 422 );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.onFetchErrorListener = mockOnFetchErrorListener;
+
+        fetcher.fetch();
+
+        verify(mockOnFetchErrorListener).onFetchError(restErrorCaptor.capture());
+        assertEquals( 422, restErrorCaptor.getValue().code );
+        assertEquals( "{\"error\":\"bad\"}", restErrorCaptor.getValue().reason );
+    }
+
+    @Test
+    public void perRequestTimeoutsOverrideFactoryTimeouts() throws IOException {
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setConnectTimeout( 1000 );
+        fetcher.setReadTimeout( 2000 );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection).setConnectTimeout( 1000 );
+        verify(mockHttpURLConnection).setReadTimeout( 2000 );
+    }
+
+    @Test
+    public void factoryTimeoutsAreKeptByDefault() throws IOException {
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection, never()).setConnectTimeout( anyInt() );
+        verify(mockHttpURLConnection, never()).setReadTimeout( anyInt() );
+    }
+
+    @Test
+    public void connectionsFromFactoriesWithoutReleaserAreDisconnected() throws IOException {
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection).disconnect();
+    }
+
+    @Test
+    public void keepAliveConnectionsAreNotDisconnected() throws IOException {
+        RestFetcher.ConnectionFactory factory = new RestFetcher.ConnectionFactory();
+
+        factory.releaseConnection( mockHttpURLConnection );
+
+        verify(mockHttpURLConnection, never()).disconnect();
+    }
+
+    @Test
+    public void keepAliveConnectionsAreDisconnectedWhenTheExchangeFails() throws IOException {
+        RestFetcher.ConnectionFactory factory = new RestFetcher.ConnectionFactory() {
+            @Override
+            public URLConnection createHttpURLConnection( String url ) {
+                return mockHttpURLConnection;
+            }
+        };
+        when(mockHttpURLConnection.getResponseCode()).thenThrow( new IOException( "connection reset" ) );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, factory );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection).disconnect();
+    }
+
+    @Test
+    public void keepAliveConnectionsAreDisconnectedWhenSendingTheBodyFails() throws IOException {
+        RestFetcher.ConnectionFactory factory = new RestFetcher.ConnectionFactory() {
+            @Override
+            public URLConnection createHttpURLConnection( String url ) {
+                return mockHttpURLConnection;
+            }
+        };
+        when(mockHttpURLConnection.getOutputStream()).thenThrow( new IOException( "broken pipe" ) );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.POST, headers, body, factory );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection).disconnect();
+    }
+
+    @Test
+    public void connectionsAreDisconnectedWithoutKeepAlive() throws IOException {
+        RestFetcher.ConnectionFactory factory = new RestFetcher.ConnectionFactory( 1000, 2000, false );
+
+        factory.releaseConnection( mockHttpURLConnection );
+
+        verify(mockHttpURLConnection).disconnect();
+    }
+
+    @Test
+    public void connectionFactoryConfiguresConnections() throws IOException {
+        RestFetcher.ConnectionFactory factory = new RestFetcher.ConnectionFactory( 1000, 2000, false );
+
+        HttpURLConnection conn = (HttpURLConnection) factory.createHttpURLConnection( "http://localhost/api" );
+
+        assertEquals( 1000, conn.getConnectTimeout() );
+        assertEquals( 2000, conn.getReadTimeout() );
+        assertEquals( "close", conn.getRequestProperty( "Connection" ) );
+    }
+
+    @Test
+    public void eventsAreReportedForEachStage() throws IOException {
+        final List<String> events = new ArrayList<>();
+        RestFetcher fetcher = new RestFetcher( "http://google.com/api/items?page=2", RestMethod.POST, headers, body, mockConnectionFactory );
+        when(mockHttpURLConnection.getInputStream()).thenReturn( getMockInputStream( "[1,2,3]" ) );
+        fetcher.setEventListener( new RestEventListener() {
+            @Override
+            public void callStart( String route, RestMethod method, String url ) {
+                events.add( "callStart " + route + " " + method );
+            }
+
+            @Override
+            public void connectEnd( String route, long connectNanos ) {
+                events.add( "connectEnd" );
+            }
+
+            @Override
+            public void requestBodyEnd( String route, long byteCount, long writeNanos ) {
+                events.add( "requestBodyEnd " + byteCount );
+            }
+
+            @Override
+            public void responseCodeReceived( String route, int code, long waitNanos ) {
+                events.add( "responseCodeReceived " + code );
+            }
+
+            @Override
+            public void responseBodyEnd( String route, long byteCount, long readNanos ) {
+                events.add( "responseBodyEnd " + byteCount );
+            }
+
+            @Override
+            public void responseHeadersEnd( String route, int headerCount, long extractNanos ) {
+                events.add( "responseHeadersEnd " + headerCount );
+            }
+
+            @Override
+            public void callEnd( String route, int code, long totalNanos ) {
+                events.add( "callEnd " + code );
+            }
+        } );
+
+        fetcher.fetch();
+
+        assertEquals( "[callStart /api/items POST, connectEnd, requestBodyEnd 2, responseCodeReceived 200, "
+                + "responseBodyEnd 7, responseHeadersEnd 3, callEnd 200]", events.toString() );
+    }
+
+    @Test
+    public void failedCallsAreReported() throws IOException {
+        final List<IOException> failures = new ArrayList<>();
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setRoute( "/custom" );
+        when(mockHttpURLConnection.getResponseCode()).thenThrow( new IOException( "offline" ) );
+        fetcher.setEventListener( new RestEventListener() {
+            @Override
+            public void callFailed( String route, IOException error, long totalNanos ) {
+                assertEquals( "/custom", route );
+                failures.add( error );
+            }
+        } );
+
+        fetcher.fetch();
+
+        assertEquals( 1, failures.size() );
+        assertEquals( "offline", failures.get( 0 ).getMessage() );
+    }
+
+    @Test
+    public void requestIsConfiguredBeforeConnecting() throws IOException {
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.PUT, headers, body, mockConnectionFactory );
+
+        fetcher.fetch();
+
+        InOrder inOrder = inOrder( mockHttpURLConnection );
+        inOrder.verify( mockHttpURLConnection ).setRequestProperty( "sample", "header" );
+        inOrder.verify( mockHttpURLConnection ).setDoOutput( true );
+        inOrder.verify( mockHttpURLConnection ).connect();
+        inOrder.verify( mockHttpURLConnection ).getOutputStream();
+    }
+
+    @Test
+    public void knownLengthBodiesUseFixedLengthStreaming() throws IOException {
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.POST, headers, "{\"a\":1}", mockConnectionFactory );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection).setFixedLengthStreamingMode( 7 );
+        verify(mockHttpURLConnection, never()).setChunkedStreamingMode( anyInt() );
+    }
+
+    @Test
+    public void unknownLengthBodiesAreChunked() throws IOException {
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.POST, headers, (String) null, mockConnectionFactory );
+        fetcher.setRequestBody( RestRequestBody.create( new ByteArrayInputStream( new byte[100] ), RestRequestBody.UNKNOWN_LENGTH, "application/octet-stream" ) );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection).setChunkedStreamingMode( 0 );
+        verify(mockHttpURLConnection, never()).setFixedLengthStreamingMode( anyInt() );
+        verify(mockHttpURLConnection).setRequestProperty( "Content-Type", "application/octet-stream" );
+        verify(mockOutputStream).write( any( byte[].class ), eq( 0 ), eq( 100 ) );
+    }
+
+    @Test
+    public void uploadProgressIsReported() throws IOException {
+        final List<Long> progress = new ArrayList<>();
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.PUT, headers, RestRequestBody.create( new byte[10], null ), mockConnectionFactory );
+        fetcher.setUploadProgressListener( new RestFetcher.IProgressListener() {
+            @Override
+            public void onProgress( long bytesTransferred, long totalBytes ) {
+                progress.add( bytesTransferred );
+                assertEquals( 10, totalBytes );
+            }
+        } );
+
+        fetcher.fetch();
+
+        assertEquals( Collections.singletonList( 10L ), progress );
+    }
+
+    @Test
+    public void streamBodiesAreNotRetried() throws IOException {
+        RestRetryPolicy policy = immediateRetryPolicy();
+        policy.setRetryNonIdempotent( true );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.PUT, headers, RestRequestBody.create( new ByteArrayInputStream( new byte[4] ), 4, null ), mockConnectionFactory );
+        fetcher.setRetryPolicy( policy );
+        when(mockHttpURLConnection.getResponseCode()).thenReturn( 503 );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection, times( 1 )).connect();
+    }
+
+    private RestRetryPolicy immediateRetryPolicy() {
+        RestRetryPolicy policy = new RestRetryPolicy();
+        policy.setInitialBackoffMillis( 0 );
+        return policy;
+    }
+
+    @Test
+    public void transientErrorsAreRetried() throws IOException {
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setRetryPolicy( immediateRetryPolicy() );
+        fetcher.onFetchSuccessListener = mockOnFetchSuccessListener;
+        when(mockHttpURLConnection.getResponseCode()).thenThrow( new IOException( "reset" ) ).thenReturn( 503 ).thenReturn( 200 );
+        when(mockHttpURLConnection.getInputStream()).thenReturn( getMockInputStream( "[]" ) );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection, times( 3 )).connect();
+        verify(mockOnFetchSuccessListener).onFetchSuccess( any( RestResponse.class ) );
+    }
+
+    @Test
+    public void lastResponseIsDeliveredWhenRetriesRunOut() throws IOException {
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setRetryPolicy( immediateRetryPolicy() );
+        fetcher.onFetchErrorListener = mockOnFetchErrorListener;
+        when(mockHttpURLConnection.getResponseCode()).thenReturn( 503 );
+        when(mockHttpURLConnection.getInputStream()).thenThrow( new IOException() );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection, times( RestRetryPolicy.DEFAULT_MAX_ATTEMPTS )).connect();
+        verify(mockOnFetchErrorListener).onFetchError( restErrorCaptor.capture() );
+        assertEquals( 503, restErrorCaptor.getValue().code );
+    }
+
+    @Test
+    public void postIsNotRetriedByDefault() throws IOException {
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.POST, headers, body, mockConnectionFactory );
+        fetcher.setRetryPolicy( immediateRetryPolicy() );
+        when(mockHttpURLConnection.getResponseCode()).thenReturn( 503 );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection, times( 1 )).connect();
+    }
+
+    @Test
+    public void asyncRetriesAreRescheduledOnTheDispatcher() throws Exception {
+        final CountDownLatch done = new CountDownLatch( 1 );
+        final List<Long> delays = new ArrayList<>();
+        RestDispatcher dispatcher = new RestDispatcher( Executors.newCachedThreadPool(), new Executor() {
+            @Override
+            public void execute( Runnable command ) {
+                command.run();
+            }
+        } );
+        RestRetryPolicy policy = immediateRetryPolicy();
+        policy.setInitialBackoffMillis( 20 );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setDispatcher( dispatcher );
+        fetcher.setRetryPolicy( policy );
+        fetcher.setEventListener( new RestEventListener() {
+            @Override
+            public void retryScheduled( String route, int attempt, long delayMillis ) {
+                delays.add( delayMillis );
+            }
+        } );
+        fetcher.onFetchSuccessListener = new RestFetcher.OnFetchSuccessListener() {
+            @Override
+            public void onFetchSuccess( RestResponse response ) {
+                done.countDown();
+            }
+        };
+        when(mockHttpURLConnection.getResponseCode()).thenReturn( 429 ).thenReturn( 200 );
+        when(mockHttpURLConnection.getInputStream()).thenReturn( getMockInputStream( "[]" ) );
+
+        fetcher.fetchAsync();
+
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 1, delays.size() );
+        verify(mockHttpURLConnection, times( 2 )).connect();
+    }
+
+    @Test
+    public void asyncRequestOnAShutDownDispatcherDeliversAnError() throws IOException {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        executorService.shutdown();
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setDispatcher( new RestDispatcher( executorService, new Executor() {
+            @Override
+            public void execute( Runnable command ) {
+                command.run();
+            }
+        } ) );
+        fetcher.onFetchSuccessListener = mockOnFetchSuccessListener;
+        fetcher.onFetchErrorListener = mockOnFetchErrorListener;
+
+        fetcher.fetchAsync();
+
+        verify(mockOnFetchErrorListener).onFetchError( restErrorCaptor.capture() );
+        assertEquals( 404, restErrorCaptor.getValue().code );
+        verify(mockHttpURLConnection, never()).connect();
+        verifyZeroInteractions( mockOnFetchSuccessListener );
+    }
+
+    @Test
+    public void transportResponseRejectedByTheDispatcherDeliversAnError() throws Exception {
+        final CountDownLatch done = new CountDownLatch( 1 );
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setDispatcher( new RestDispatcher( executorService, new Executor() {
+            @Override
+            public void execute( Runnable command ) {
+                command.run();
+            }
+        } ) );
+        fetcher.setTransport( new RestTransport() {
+            @Override
+            public Closeable send( RestRequest request, ICallback callback ) {
+                executorService.shutdown();
+                callback.onResponse( new RestResponse( 200, RestHeaders.EMPTY, "[]" ) );
+                return new ByteArrayInputStream( new byte[0] );
+            }
+        } );
+        fetcher.onFetchSuccessListener = mockOnFetchSuccessListener;
+        fetcher.onFetchErrorListener = new RestFetcher.OnFetchErrorListener() {
+            @Override
+            public void onFetchError( RestError error ) {
+                mockOnFetchErrorListener.onFetchError( error );
+                done.countDown();
+            }
+        };
+
+        fetcher.fetchAsync();
+
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        verify(mockOnFetchErrorListener).onFetchError( restErrorCaptor.capture() );
+        assertEquals( 404, restErrorCaptor.getValue().code );
+        verifyZeroInteractions( mockOnFetchSuccessListener );
+    }
+
+    @Test
+    public void coalescedFollowerFailsAtItsOwnDeadline() throws Exception {
+        final CountDownLatch done = new CountDownLatch( 1 );
+        RestCoalescer coalescer = new RestCoalescer();
+        RestCoalescer.Call leader = coalescer.acquire( RestCoalescer.createKey( RestMethod.GET, url, headers ) );
+        assertTrue( leader.claim() );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setCoalescer( coalescer );
+        fetcher.setDeadlineMillis( 50 );
+        fetcher.setDispatcher( new RestDispatcher( Executors.newSingleThreadExecutor(), new Executor() {
+            @Override
+            public void execute( Runnable command ) {
+                command.run();
+            }
+        } ) );
+        fetcher.onFetchSuccessListener = mockOnFetchSuccessListener;
+        fetcher.onFetchErrorListener = new RestFetcher.OnFetchErrorListener() {
+            @Override
+            public void onFetchError( RestError error ) {
+                mockOnFetchErrorListener.onFetchError( error );
+                done.countDown();
+            }
+        };
+
+        fetcher.fetchAsync();
+
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        leader.complete( new RestResponse( 200, RestHeaders.EMPTY, "[]" ) );
+        verify(mockOnFetchErrorListener).onFetchError( restErrorCaptor.capture() );
+        assertEquals( 404, restErrorCaptor.getValue().code );
+        verifyZeroInteractions( mockOnFetchSuccessListener );
+        verify(mockHttpURLConnection, never()).connect();
+    }
+
+    @Test
+    public void coalescedRequestsFailWhenTheDispatcherRejectsTheirLeader() throws IOException {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        executorService.shutdown();
+        final RestCoalescer coalescer = new RestCoalescer();
+        RestFetcher leader = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        leader.setCoalescer( coalescer );
+        final RestCoalescer.Call[] shared = new RestCoalescer.Call[1];
+        leader.setDispatcher( new RestDispatcher( executorService, new Executor() {
+            @Override
+            public void execute( Runnable command ) {
+                command.run();
+            }
+        } ) {
+            @Override
+            public void enqueue( String host, Runnable task ) {
+                shared[0] = coalescer.acquire( RestCoalescer.createKey( RestMethod.GET, url, headers ) );
+                super.enqueue( host, task );
+            }
+        } );
+
+        leader.fetchAsync();
+
+        try {
+            shared[0].await();
+            fail();
+        } catch ( IOException e ) {
+            assertEquals( 0, coalescer.getInFlightCount() );
+        }
+    }
+
+    @Test
+    public void cancelledAsyncRequestsNeverConnectOrDeliver() throws IOException {
+        final List<Runnable> pending = new ArrayList<>();
+        Executor manualExecutor = new Executor() {
+            @Override
+            public void execute( Runnable command ) {
+                pending.add( command );
+            }
+        };
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setDispatcher( new RestDispatcher( Executors.newSingleThreadExecutor(), manualExecutor ) {
+            @Override
+            public void enqueue( String host, Runnable task ) {
+                pending.add( task );
+            }
+        } );
+        fetcher.onFetchSuccessListener = mockOnFetchSuccessListener;
+        fetcher.onFetchErrorListener = mockOnFetchErrorListener;
+
+        RestCall call = fetcher.fetchAsync();
+        call.cancel();
+        pending.remove( 0 ).run();
+
+        assertTrue( call.isCancelled() );
+        assertTrue( pending.isEmpty() );
+        verify(mockHttpURLConnection, never()).connect();
+        verifyZeroInteractions( mockOnFetchSuccessListener, mockOnFetchErrorListener );
+    }
+
+    @Test
+    public void cancellingFromTheCallbackThreadSuppressesDelivery() throws IOException {
+        final List<Runnable> callbacks = new ArrayList<>();
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setDispatcher( new RestDispatcher( Executors.newSingleThreadExecutor(), new Executor() {
+            @Override
+            public void execute( Runnable command ) {
+                callbacks.add( command );
+            }
+        } ) {
+            @Override
+            public void enqueue( String host, Runnable task ) {
+                task.run();
+            }
+        } );
+        fetcher.onFetchSuccessListener = mockOnFetchSuccessListener;
+
+        RestCall call = fetcher.fetchAsync();
+        call.cancel();
+        callbacks.remove( 0 ).run();
+
+        verifyZeroInteractions( mockOnFetchSuccessListener );
+    }
+
+    @Test
+    public void cancelDisconnectsABlockedRequest() throws Exception {
+        final CountDownLatch reading = new CountDownLatch( 1 );
+        final CountDownLatch disconnected = new CountDownLatch( 1 );
+        when(mockHttpURLConnection.getInputStream()).thenAnswer( new Answer<InputStream>() {
+            @Override
+            public InputStream answer( InvocationOnMock invocation ) throws Throwable {
+                reading.countDown();
+                disconnected.await( 5, TimeUnit.SECONDS );
+                throw new IOException( "Socket closed" );
+            }
+        } );
+        doAnswer( new Answer<Void>() {
+            @Override
+            public Void answer( InvocationOnMock invocation ) throws Throwable {
+                disconnected.countDown();
+                return null;
+            }
+        } ).when( mockHttpURLConnection ).disconnect();
+        final RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.onFetchSuccessListener = mockOnFetchSuccessListener;
+        fetcher.onFetchErrorListener = mockOnFetchErrorListener;
+        Thread worker = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                fetcher.fetch();
+            }
+        } );
+        worker.start();
+
+        assertTrue( reading.await( 5, TimeUnit.SECONDS ) );
+        fetcher.cancel();
+        worker.join( 5000 );
+
+        assertTrue( disconnected.getCount() == 0 );
+        verifyZeroInteractions( mockOnFetchSuccessListener, mockOnFetchErrorListener );
+    }
+
+    @Test
+    public void expiredDeadlineAbortsAndReportsAnError() throws Exception {
+        final CountDownLatch disconnected = new CountDownLatch( 1 );
+        when(mockHttpURLConnection.getInputStream()).thenAnswer( new Answer<InputStream>() {
+            @Override
+            public InputStream answer( InvocationOnMock invocation ) throws Throwable {
+                disconnected.await( 5, TimeUnit.SECONDS );
+                throw new IOException( "Socket closed" );
+            }
+        } );
+        doAnswer( new Answer<Void>() {
+            @Override
+            public Void answer( InvocationOnMock invocation ) throws Throwable {
+                disconnected.countDown();
+                return null;
+            }
+        } ).when( mockHttpURLConnection ).disconnect();
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setDeadlineMillis( 50 );
+        fetcher.onFetchErrorListener = mockOnFetchErrorListener;
+
+        fetcher.fetch();
+
+        assertTrue( fetcher.getCall().isDeadlineExceeded() );
+        verify(mockOnFetchErrorListener).onFetchError( restErrorCaptor.capture() );
+        assertEquals( 404, restErrorCaptor.getValue().code );
+    }
+
+    private ArgumentMatcher<Integer> atMost( final int max ) {
+        return new ArgumentMatcher<Integer>() {
+            @Override
+            public boolean matches( Object argument ) {
+                int value = (Integer) argument;
+                return value > 0 && value <= max;
+            }
+        };
+    }
+
+    @Test
+    public void deadlineShortensTimeouts() throws IOException {
+        when(mockHttpURLConnection.getConnectTimeout()).thenReturn( 15000 );
+        when(mockHttpURLConnection.getReadTimeout()).thenReturn( 0 );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setDeadlineMillis( 5000 );
+
+        fetcher.fetch();
+
+        verify(mockHttpURLConnection).setConnectTimeout( intThat( atMost( 5000 ) ) );
+        verify(mockHttpURLConnection).setReadTimeout( intThat( atMost( 5000 ) ) );
+    }
+
     @Test
     public void covertInputStreamToStringWithNullInputStream() {
         boolean exceptionThrown = false;
@@ -330,6 +1173,65 @@ public class RestFetcherTest {
         assertTrue(exceptionThrown);
     }
 
+    @Test
+    public void convertInputStreamToStringPreservesBodyExactly() throws IOException {
+        String expected = "  {\n\t\"line\" : \"one\",\r\n\t\"unicode\" : \"\u00e9\u4e2d\"\n}\n  ";
+
+        String actual = RestFetcher.convertInputStreamToString( getMockInputStream( expected ) );
+
+        assertEquals( expected, actual );
+    }
+
+    @Test
+    public void convertInputStreamToStringReadsBodiesLargerThanTheBuffer() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for ( int i = 0; i < 10000; i++ ) {
+            builder.append( "{\"index\":" ).append( i ).append( "}\n" );
+        }
+        String expected = builder.toString();
+
+        assertEquals( expected, RestFetcher.convertInputStreamToString( getMockInputStream( expected ) ) );
+        assertEquals( expected, RestFetcher.convertInputStreamToString( getMockInputStream( expected ), 16, Charset.forName( "UTF-8" ) ) );
+    }
+
+    @Test
+    public void convertInputStreamToStringHonorsExactContentLength() throws IOException {
+        String expected = "{\"cracker\":\"monkey\"}";
+        int length = expected.getBytes( "UTF-8" ).length;
+
+        assertEquals( expected, RestFetcher.convertInputStreamToString( getMockInputStream( expected ), length, Charset.forName( "UTF-8" ) ) );
+    }
+
+    @Test
+    public void convertInputStreamToStringDoesNotTrustAHugeContentLength() throws IOException {
+        String expected = "{\"cracker\":\"monkey\"}";
+
+        assertEquals( expected, RestFetcher.convertInputStreamToString( getMockInputStream( expected ), Integer.MAX_VALUE, Charset.forName( "UTF-8" ) ) );
+    }
+
+    @Test
+    public void responseHeadersKeepEachValueAndSkipTheStatusLine() {
+        Map<String, List<String>> fields = new HashMap<>();
+        fields.put( null, Collections.singletonList( "HTTP/1.1 200 OK" ) );
+        fields.put( "Set-Cookie", Arrays.asList( "a=1; Path=/", "b=2; Path=/" ) );
+        fields.put( "Content-Type", Collections.singletonList( "application/json" ) );
+
+        RestHeaders headers = RestFetcher.extractResponseHeaders( fields );
+
+        assertEquals( 3, headers.getCount() );
+        assertEquals( Arrays.asList( "a=1; Path=/", "b=2; Path=/" ), headers.values( "set-cookie" ) );
+        assertEquals( "application/json", headers.get( "CONTENT-TYPE" ) );
+        assertEquals( 2, headers.size() );
+    }
+
+    @Test
+    public void charsetIsReadFromContentType() {
+        assertEquals( Charset.forName( "ISO-8859-1" ), RestFetcher.charsetFromContentType( "text/plain; charset=\"ISO-8859-1\"" ) );
+        assertEquals( Charset.forName( "UTF-8" ), RestFetcher.charsetFromContentType( "application/json" ) );
+        assertEquals( Charset.forName( "UTF-8" ), RestFetcher.charsetFromContentType( "application/json; charset=bogus" ) );
+        assertEquals( Charset.forName( "UTF-8" ), RestFetcher.charsetFromContentType( null ) );
+    }
+
     @Test
     public void inputStreamExceptionPreservesResponseCode() throws IOException {
         final String expectedReason = "";
@@ -347,4 +1249,161 @@ public class RestFetcherTest {
         assertEquals(expectedCode, restErrorCaptor.getValue().code);
         assertEquals(expectedReason, restErrorCaptor.getValue().reason);
     }
+
+    @Test
+    public void interceptorCanAnswerWithoutTheNetwork() throws IOException {
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.addInterceptor( new RestFetcher.IInterceptor() {
+            @Override
+            public RestResponse intercept( RestFetcher.IChain chain ) {
+                return new RestResponse( 200, RestHeaders.EMPTY, "{\"local\":true}" );
+            }
+        } );
+        fetcher.onFetchSuccessListener = mockOnFetchSuccessListener;
+
+        fetcher.fetch();
+
+        ArgumentCaptor<RestResponse> responseCaptor = ArgumentCaptor.forClass( RestResponse.class );
+        verify(mockOnFetchSuccessListener).onFetchSuccess( responseCaptor.capture() );
+        assertEquals( "{\"local\":true}", responseCaptor.getValue().body );
+        assertEquals( "", mockConnectionFactory.url );
+    }
+
+    @Test
+    public void asyncInterceptorReturningNullDeliversAnError() throws Exception {
+        final CountDownLatch done = new CountDownLatch( 1 );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setDispatcher( new RestDispatcher( Executors.newSingleThreadExecutor(), new Executor() {
+            @Override
+            public void execute( Runnable command ) {
+                command.run();
+            }
+        } ) );
+        fetcher.addInterceptor( new RestFetcher.IInterceptor() {
+            @Override
+            public RestResponse intercept( RestFetcher.IChain chain ) {
+                return null;
+            }
+        } );
+        fetcher.onFetchSuccessListener = mockOnFetchSuccessListener;
+        fetcher.onFetchErrorListener = new RestFetcher.OnFetchErrorListener() {
+            @Override
+            public void onFetchError( RestError error ) {
+                mockOnFetchErrorListener.onFetchError( error );
+                done.countDown();
+            }
+        };
+
+        fetcher.fetchAsync();
+
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        verify(mockOnFetchErrorListener).onFetchError( restErrorCaptor.capture() );
+        assertEquals( 404, restErrorCaptor.getValue().code );
+        verifyZeroInteractions( mockOnFetchSuccessListener );
+    }
+
+    @Test
+    public void asyncNetworkInterceptorThatThrowsDeliversAnError() throws Exception {
+        final CountDownLatch done = new CountDownLatch( 1 );
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setDispatcher( new RestDispatcher( Executors.newSingleThreadExecutor(), new Executor() {
+            @Override
+            public void execute( Runnable command ) {
+                command.run();
+            }
+        } ) );
+        fetcher.addNetworkInterceptor( new RestFetcher.IInterceptor() {
+            @Override
+            public RestResponse intercept( RestFetcher.IChain chain ) {
+                throw new IllegalStateException( "broken interceptor" );
+            }
+        } );
+        fetcher.onFetchSuccessListener = mockOnFetchSuccessListener;
+        fetcher.onFetchErrorListener = new RestFetcher.OnFetchErrorListener() {
+            @Override
+            public void onFetchError( RestError error ) {
+                mockOnFetchErrorListener.onFetchError( error );
+                done.countDown();
+            }
+        };
+
+        fetcher.fetchAsync();
+
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        verify(mockOnFetchErrorListener).onFetchError( restErrorCaptor.capture() );
+        assertEquals( 404, restErrorCaptor.getValue().code );
+        verifyZeroInteractions( mockOnFetchSuccessListener );
+    }
+
+    @Test
+    public void interceptorCanRewriteTheRequest() throws IOException {
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.POST, headers, body, mockConnectionFactory );
+        fetcher.addInterceptor( new RestFetcher.IInterceptor() {
+            @Override
+            public RestResponse intercept( RestFetcher.IChain chain ) throws IOException {
+                RestRequest request = chain.getRequest().newBuilder()
+                        .url( chain.getRequest().url + "/v2" )
+                        .header( "Authorization", "Bearer token" )
+                        .removeHeader( "sample" )
+                        .build();
+                return chain.proceed( request );
+            }
+        } );
+
+        fetcher.fetch();
+
+        assertEquals( url + "/v2", mockConnectionFactory.url );
+        verify(mockHttpURLConnection).setRequestProperty( "Authorization", "Bearer token" );
+        verify(mockHttpURLConnection, never()).setRequestProperty( eq( "sample" ), anyString() );
+        verify(mockOutputStream).write( any( byte[].class ), eq( 0 ), eq( 2 ) );
+    }
+
+    @Test
+    public void applicationInterceptorsWrapNetworkInterceptors() throws IOException {
+        final List<String> events = new ArrayList<>();
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.addNetworkInterceptor( new RecordingInterceptor( "network", events ) );
+        fetcher.addInterceptor( new RecordingInterceptor( "first", events ) );
+        fetcher.addInterceptor( new RecordingInterceptor( "second", events ) );
+
+        fetcher.fetch();
+
+        assertEquals( Arrays.asList( "first", "second", "network", "network done", "second done", "first done" ), events );
+    }
+
+    @Test
+    public void networkInterceptorsAreSkippedForFreshCacheHits() throws IOException {
+        RestCache cache = new RestCache( 1024 * 1024 );
+        Map<String, String> cachedHeaders = new HashMap<>();
+        cachedHeaders.put( "Cache-Control", "max-age=600" );
+        cache.put( url, new RestResponse( 200, cachedHeaders, "{\"cached\":true}" ) );
+        List<String> events = new ArrayList<>();
+        RestFetcher fetcher = new RestFetcher( url, RestMethod.GET, headers, body, mockConnectionFactory );
+        fetcher.setCache( cache );
+        fetcher.addInterceptor( new RecordingInterceptor( "application", events ) );
+        fetcher.addNetworkInterceptor( new RecordingInterceptor( "network", events ) );
+
+        fetcher.fetch();
+
+        assertEquals( Arrays.asList( "application", "application done" ), events );
+        assertEquals( 1, cache.getHitCount() );
+    }
+
+    private static class RecordingInterceptor implements RestFetcher.IInterceptor {
+        private final String name;
+        private final List<String> events;
+
+        RecordingInterceptor( String name, List<String> events ) {
+            this.name = name;
+            this.events = events;
+        }
+
+        @Override
+        public RestResponse intercept( RestFetcher.IChain chain ) throws IOException {
+            events.add( name );
+            RestResponse response = chain.proceed( chain.getRequest() );
+            events.add( name + " done" );
+            return response;
+        }
+    }
 }
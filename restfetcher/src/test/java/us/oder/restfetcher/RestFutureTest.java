@@ -0,0 +1,260 @@
+package us.oder.restfetcher;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RestFutureTest {
+
+    private static final RestFuture.IFunction<Integer, Integer> DOUBLE = new RestFuture.IFunction<Integer, Integer>() {
+        @Override
+        public Integer apply( Integer value ) {
+            return value * 2;
+        }
+    };
+
+    @Test
+    public void getReturnsTheCompletedValue() throws Exception {
+        RestFuture<String> testObject = new RestFuture<>();
+
+        assertTrue( testObject.complete( "monkey" ) );
+
+        assertTrue( testObject.isDone() );
+        assertEquals( "monkey", testObject.get() );
+    }
+
+    @Test
+    public void onlyTheFirstResultCounts() throws Exception {
+        RestFuture<String> testObject = new RestFuture<>();
+        testObject.complete( "monkey" );
+
+        assertFalse( testObject.fail( new IOException() ) );
+        assertFalse( testObject.cancel( false ) );
+
+        assertEquals( "monkey", testObject.get() );
+    }
+
+    @Test
+    public void getWrapsTheFailure() throws Exception {
+        IOException error = new IOException();
+        RestFuture<String> testObject = RestFuture.failed( error );
+
+        try {
+            testObject.get();
+            fail();
+        } catch ( ExecutionException e ) {
+            assertSame( error, e.getCause() );
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void getTimesOutWhilePending() throws Exception {
+        new RestFuture<String>().get( 10, TimeUnit.MILLISECONDS );
+    }
+
+    @Test
+    public void getWaitsForAnotherThread() throws Exception {
+        final RestFuture<String> testObject = new RestFuture<>();
+        new Thread( new Runnable() {
+            @Override
+            public void run() {
+                testObject.complete( "monkey" );
+            }
+        } ).start();
+
+        assertEquals( "monkey", testObject.get( 5, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void thenApplyTransformsTheValue() throws Exception {
+        RestFuture<Integer> testObject = new RestFuture<>();
+        RestFuture<Integer> doubled = testObject.thenApply( DOUBLE );
+
+        testObject.complete( 21 );
+
+        assertEquals( 42, (int) doubled.get() );
+    }
+
+    @Test
+    public void thenApplyFailsWhenTheFunctionThrows() throws Exception {
+        final IOException error = new IOException();
+        RestFuture<Integer> result = RestFuture.completed( 1 ).thenApply( new RestFuture.IFunction<Integer, Integer>() {
+            @Override
+            public Integer apply( Integer value ) throws Exception {
+                throw error;
+            }
+        } );
+
+        try {
+            result.get();
+            fail();
+        } catch ( ExecutionException e ) {
+            assertSame( error, e.getCause() );
+        }
+    }
+
+    @Test
+    public void thenComposeWaitsForTheNextFuture() throws Exception {
+        final RestFuture<Integer> next = new RestFuture<>();
+        RestFuture<Integer> result = RestFuture.completed( 1 ).thenCompose( new RestFuture.IFunction<Integer, RestFuture<Integer>>() {
+            @Override
+            public RestFuture<Integer> apply( Integer value ) {
+                return next;
+            }
+        } );
+
+        assertFalse( result.isDone() );
+        next.complete( 2 );
+
+        assertEquals( 2, (int) result.get() );
+    }
+
+    @Test
+    public void cancellingAChainCancelsTheFutureItWaitsOn() {
+        final RestFuture<Integer> next = new RestFuture<>();
+        RestFuture<Integer> first = new RestFuture<>();
+        RestFuture<Integer> result = first.thenCompose( new RestFuture.IFunction<Integer, RestFuture<Integer>>() {
+            @Override
+            public RestFuture<Integer> apply( Integer value ) {
+                return next;
+            }
+        } );
+        first.complete( 1 );
+
+        result.cancel( false );
+
+        assertTrue( next.isCancelled() );
+    }
+
+    @Test
+    public void cancellingADerivedFutureCancelsTheSource() {
+        RestFuture<Integer> testObject = new RestFuture<>();
+        final boolean[] cancelled = new boolean[1];
+        testObject.onCancel( new Runnable() {
+            @Override
+            public void run() {
+                cancelled[0] = true;
+            }
+        } );
+
+        testObject.thenApply( DOUBLE ).cancel( false );
+
+        assertTrue( testObject.isCancelled() );
+        assertTrue( cancelled[0] );
+    }
+
+    @Test(expected = CancellationException.class)
+    public void getThrowsOnceCancelled() throws Exception {
+        RestFuture<String> testObject = new RestFuture<>();
+        testObject.cancel( false );
+
+        testObject.get();
+    }
+
+    @Test
+    public void recoverReplacesAFailure() throws Exception {
+        RestFuture<String> result = RestFuture.<String>failed( new IOException() ).recover( new RestFuture.IFunction<Throwable, String>() {
+            @Override
+            public String apply( Throwable error ) {
+                return "fallback";
+            }
+        } );
+
+        assertEquals( "fallback", result.get() );
+    }
+
+    @Test
+    public void allOfKeepsTheOrderOfItsFutures() throws Exception {
+        RestFuture<Integer> first = new RestFuture<>();
+        RestFuture<Integer> second = new RestFuture<>();
+        RestFuture<List<Integer>> all = RestFuture.allOf( Arrays.asList( first, second ) );
+
+        second.complete( 2 );
+        assertFalse( all.isDone() );
+        first.complete( 1 );
+
+        assertEquals( Arrays.asList( 1, 2 ), all.get() );
+    }
+
+    @Test
+    public void allOfFailsWithTheFirstFailure() throws Exception {
+        RestError error = new RestError( 500, "Internal Server Error" );
+        RestFuture<Integer> first = new RestFuture<>();
+        RestFuture<Integer> second = new RestFuture<>();
+        RestFuture<List<Integer>> all = RestFuture.allOf( Arrays.asList( first, second ) );
+
+        second.fail( new RestException( error ) );
+
+        try {
+            all.get();
+            fail();
+        } catch ( ExecutionException e ) {
+            assertSame( error, ( (RestException) e.getCause() ).error );
+        }
+    }
+
+    @Test
+    public void listenersRunOnTheirExecutor() {
+        final int[] executed = new int[1];
+        final Integer[] received = new Integer[1];
+        Executor executor = new Executor() {
+            @Override
+            public void execute( Runnable runnable ) {
+                executed[0]++;
+                runnable.run();
+            }
+        };
+        RestFuture<Integer> testObject = new RestFuture<>();
+        testObject.addListener( new RestFuture.IListener<Integer>() {
+            @Override
+            public void onSuccess( Integer value ) {
+                received[0] = value;
+            }
+
+            @Override
+            public void onFailure( Throwable error ) {
+                fail();
+            }
+        }, executor );
+
+        testObject.complete( 7 );
+
+        assertEquals( 1, executed[0] );
+        assertEquals( 7, (int) received[0] );
+    }
+
+    @Test
+    public void listenersAreNotCalledOnceCancelled() {
+        final Object[] received = new Object[1];
+        RestFuture<Integer> testObject = new RestFuture<>();
+        testObject.cancel( false );
+
+        testObject.addListener( new RestFuture.IListener<Integer>() {
+            @Override
+            public void onSuccess( Integer value ) {
+                received[0] = value;
+            }
+
+            @Override
+            public void onFailure( Throwable error ) {
+                received[0] = error;
+            }
+        } );
+
+        assertNull( received[0] );
+    }
+}
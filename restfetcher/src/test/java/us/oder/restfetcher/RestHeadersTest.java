@@ -0,0 +1,85 @@
+package us.oder.restfetcher;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RestHeadersTest {
+
+    @Test
+    public void lookupIgnoresCaseAndReturnsTheLastValue() {
+        RestHeaders testObject = RestHeaders.of( "Accept", "text/plain", "accept", "application/json" );
+
+        assertEquals( "application/json", testObject.get( "ACCEPT" ) );
+        assertEquals( Arrays.asList( "text/plain", "application/json" ), testObject.values( "Accept" ) );
+        assertTrue( testObject.containsKey( "accept" ) );
+        assertNull( testObject.get( "Missing" ) );
+        assertEquals( Collections.<String>emptyList(), testObject.values( "Missing" ) );
+    }
+
+    @Test
+    public void mapViewHasOneEntryPerName() {
+        RestHeaders testObject = RestHeaders.of( "Set-Cookie", "a=1", "X-Id", "7", "set-cookie", "b=2" );
+
+        assertEquals( 3, testObject.getCount() );
+        assertEquals( 2, testObject.size() );
+        assertEquals( Arrays.asList( "Set-Cookie", "X-Id" ), Arrays.asList( testObject.keySet().toArray() ) );
+        assertEquals( "b=2", testObject.entrySet().iterator().next().getValue() );
+    }
+
+    @Test
+    public void isImmutable() {
+        RestHeaders testObject = RestHeaders.of( "Accept", "text/plain" );
+        try {
+            testObject.put( "Accept", "application/json" );
+            fail( "expected UnsupportedOperationException" );
+        } catch ( UnsupportedOperationException e ) {
+            // expected
+        }
+        assertEquals( "text/plain", testObject.get( "Accept" ) );
+    }
+
+    @Test
+    public void builderSetReplacesEveryValue() {
+        RestHeaders original = RestHeaders.of( "Accept", "a", "ACCEPT", "b", "Other", "c" );
+
+        RestHeaders testObject = original.newBuilder().set( "accept", "d" ).add( "Other", "e" ).build();
+
+        assertEquals( Collections.singletonList( "d" ), testObject.values( "Accept" ) );
+        assertEquals( Arrays.asList( "c", "e" ), testObject.values( "other" ) );
+        assertEquals( Arrays.asList( "a", "b" ), original.values( "accept" ) );
+    }
+
+    @Test
+    public void mapsAreCopiedOnceAndHeadersAreReused() {
+        Map<String, String> map = new HashMap<>();
+        map.put( "Accept", "text/plain" );
+
+        RestHeaders copy = RestHeaders.of( map );
+        map.put( "Accept", "changed" );
+
+        assertEquals( "text/plain", copy.get( "accept" ) );
+        assertSame( copy, RestHeaders.of( copy ) );
+        assertSame( RestHeaders.EMPTY, RestHeaders.of( (Map<String, String>) null ) );
+        assertFalse( RestHeaders.EMPTY.containsKey( "Accept" ) );
+    }
+
+    @Test
+    public void equalsPlainMapWithTheSameEntries() {
+        Map<String, String> map = new HashMap<>();
+        map.put( "Accept", "text/plain" );
+
+        assertEquals( map, RestHeaders.of( "Accept", "text/plain" ) );
+        assertEquals( RestHeaders.of( "Accept", "text/plain" ), map );
+    }
+}
@@ -0,0 +1,108 @@
+package us.oder.restfetcher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RestLoggerTest {
+
+    private List<String> lines;
+    private RestLogger testObject;
+    private Map<String, String> headers;
+
+    @Before
+    public void setup() {
+        lines = new ArrayList<>();
+        testObject = new RestLogger( new RestLogger.ILogWriter() {
+            @Override
+            public void log( String message ) {
+                lines.add( message );
+            }
+        } );
+        headers = new LinkedHashMap<>();
+        headers.put( "Accept", "application/json" );
+        headers.put( "X-Trace", "abc" );
+    }
+
+    @Test
+    public void noneIsTheDefaultAndLogsNothing() {
+        assertEquals( RestLogger.Level.NONE, testObject.getLevel() );
+        assertFalse( testObject.shouldLog() );
+
+        testObject.logRequest( RestMethod.GET, "http://a.com", headers, "{}" );
+        testObject.logResponse( new RestResponse( 200, headers, "{}" ) );
+
+        assertTrue( lines.isEmpty() );
+    }
+
+    @Test
+    public void basicLogsRequestLineAndResponseCode() {
+        testObject.setLevel( RestLogger.Level.BASIC );
+
+        testObject.logRequest( RestMethod.POST, "http://a.com/api", headers, "{}" );
+        testObject.logResponse( new RestResponse( 201, headers, "{}" ) );
+
+        assertEquals( 2, lines.size() );
+        assertEquals( "Request: POST http://a.com/api", lines.get( 0 ) );
+        assertEquals( "Response Code: 201", lines.get( 1 ) );
+    }
+
+    @Test
+    public void headersLevelAddsHeaders() {
+        testObject.setLevel( RestLogger.Level.HEADERS );
+
+        testObject.logRequest( RestMethod.GET, "http://a.com", headers, "{}" );
+
+        assertEquals( 2, lines.size() );
+        assertEquals( "Request Headers:  | Accept : application/json | X-Trace : abc", lines.get( 1 ) );
+    }
+
+    @Test
+    public void bodyLevelScrubsAndTruncatesBodies() {
+        testObject.setLevel( RestLogger.Level.BODY );
+        testObject.setFieldsToScrub( new String[]{"password"} );
+        testObject.setMaxBodyLength( 40 );
+
+        testObject.logRequest( RestMethod.POST, "http://a.com", new HashMap<String, String>(), "{\"password\":\"secret\",\"name\":\"a rather long name\"}" );
+
+        assertEquals( "Request Body: {\"password\":\"************\",\"name\":\"a rat... (15 more chars)", lines.get( 2 ) );
+    }
+
+    @Test
+    public void missingResponseIsReported() {
+        testObject.setLevel( RestLogger.Level.BASIC );
+
+        testObject.logResponse( null );
+
+        assertEquals( "No Response Received!", lines.get( 0 ) );
+    }
+
+    @Test
+    public void sampleRateLogsOneInN() {
+        testObject.setLevel( RestLogger.Level.BASIC );
+        testObject.setSampleRate( 3 );
+
+        int logged = 0;
+        for ( int i = 0; i < 9; i++ ) {
+            if ( testObject.shouldLog() ) {
+                logged++;
+            }
+        }
+
+        assertEquals( 3, logged );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sampleRateMustBePositive() {
+        testObject.setSampleRate( 0 );
+    }
+}
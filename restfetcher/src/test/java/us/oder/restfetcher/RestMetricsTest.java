@@ -0,0 +1,79 @@
+package us.oder.restfetcher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RestMetricsTest {
+
+    private static final long MILLIS = 1000 * 1000;
+
+    private RestMetrics testObject;
+
+    @Before
+    public void setup() {
+        testObject = new RestMetrics();
+    }
+
+    @Test
+    public void statsAreKeptPerRoute() {
+        testObject.callEnd( "/users", 200, 10 * MILLIS );
+        testObject.callEnd( "/users", 500, 20 * MILLIS );
+        testObject.callFailed( "/items", new IOException(), 30 * MILLIS );
+
+        assertEquals( Arrays.asList( "/items", "/users" ), testObject.getRoutes() );
+        RestMetrics.RouteStats users = testObject.getRouteStats( "/users" );
+        assertEquals( 2, users.total.getCount() );
+        assertEquals( 1, users.errorResponses.get() );
+        assertEquals( 1, testObject.getRouteStats( "/items" ).failures.get() );
+        assertNull( testObject.getRouteStats( "/unknown" ) );
+    }
+
+    @Test
+    public void byteCountsAccumulate() {
+        testObject.requestBodyEnd( "/users", 100, MILLIS );
+        testObject.responseBodyEnd( "/users", 250, MILLIS );
+        testObject.responseBodyEnd( "/users", 50, MILLIS );
+
+        RestMetrics.RouteStats users = testObject.getRouteStats( "/users" );
+        assertEquals( 100, users.bytesSent.get() );
+        assertEquals( 300, users.bytesReceived.get() );
+    }
+
+    @Test
+    public void histogramPercentilesAreWithinABucket() {
+        RestMetrics.Histogram histogram = new RestMetrics.Histogram();
+        for ( int i = 1; i <= 100; i++ ) {
+            histogram.record( i * MILLIS );
+        }
+
+        assertEquals( 100, histogram.getCount() );
+        assertEquals( 100 * MILLIS, histogram.getMax() );
+        assertEquals( 50500 * 1000, histogram.getMean() );
+        long p50 = histogram.getPercentile( 50 );
+        assertEquals( true, p50 >= 50 * MILLIS && p50 <= 100 * MILLIS );
+        assertEquals( 100 * MILLIS, histogram.getPercentile( 99 ) );
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        RestMetrics.Histogram histogram = new RestMetrics.Histogram();
+
+        assertEquals( 0, histogram.getPercentile( 99 ) );
+        assertEquals( 0, histogram.getMean() );
+    }
+
+    @Test
+    public void bucketsArePowersOfTwoMicroseconds() {
+        assertEquals( 0, RestMetrics.Histogram.bucketFor( 999 ) );
+        assertEquals( 1, RestMetrics.Histogram.bucketFor( 1000 ) );
+        assertEquals( 2, RestMetrics.Histogram.bucketFor( 2000 ) );
+        assertEquals( 2, RestMetrics.Histogram.bucketFor( 3999 ) );
+        assertEquals( 31, RestMetrics.Histogram.bucketFor( Long.MAX_VALUE ) );
+    }
+}
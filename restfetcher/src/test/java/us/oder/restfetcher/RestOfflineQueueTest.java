@@ -0,0 +1,341 @@
+package us.oder.restfetcher;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RestOfflineQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private Map<String, String> headers;
+
+    @Before
+    public void setup() {
+        file = new File( folder.getRoot(), "offline.journal" );
+        headers = new HashMap<>();
+        headers.put( "Content-Type", "application/json" );
+    }
+
+    @Test
+    public void entriesSurviveReopening() throws IOException {
+        RestOfflineQueue testObject = new RestOfflineQueue( file );
+        testObject.offer( RestMethod.POST, "http://host/items", headers, "{\"a\":1}".getBytes( "UTF-8" ), "application/json" );
+        testObject.offer( RestMethod.DELETE, "http://host/items/2", headers, null, null );
+
+        RestOfflineQueue reopened = new RestOfflineQueue( file );
+
+        List<RestOfflineQueue.Entry> entries = reopened.getEntries();
+        assertEquals( 2, entries.size() );
+        assertEquals( RestMethod.POST, entries.get( 0 ).method );
+        assertEquals( "http://host/items", entries.get( 0 ).url );
+        assertEquals( "application/json", entries.get( 0 ).headers.get( "Content-Type" ) );
+        assertArrayEquals( "{\"a\":1}".getBytes( "UTF-8" ), entries.get( 0 ).getBody() );
+        assertEquals( RestMethod.DELETE, entries.get( 1 ).method );
+        assertNull( entries.get( 1 ).getBody() );
+        assertEquals( testObject.getByteCount(), reopened.getByteCount() );
+    }
+
+    @Test
+    public void getsAreNotQueued() throws IOException {
+        RestOfflineQueue testObject = new RestOfflineQueue( file );
+
+        assertFalse( testObject.offer( RestMethod.GET, "http://host/items", headers, null, null ) );
+        assertEquals( 0, testObject.size() );
+    }
+
+    @Test
+    public void laterWritesToTheSameUrlReplaceEarlierOnes() throws IOException {
+        RestOfflineQueue testObject = new RestOfflineQueue( file );
+        testObject.offer( RestMethod.PUT, "http://host/items/1", headers, "1".getBytes( "UTF-8" ), null );
+        testObject.offer( RestMethod.POST, "http://host/items", headers, "new".getBytes( "UTF-8" ), null );
+        testObject.offer( RestMethod.PUT, "http://host/items/1", headers, "2".getBytes( "UTF-8" ), null );
+
+        List<RestOfflineQueue.Entry> entries = new RestOfflineQueue( file ).getEntries();
+
+        assertEquals( 2, entries.size() );
+        assertEquals( RestMethod.POST, entries.get( 0 ).method );
+        assertArrayEquals( "2".getBytes( "UTF-8" ), entries.get( 1 ).getBody() );
+    }
+
+    @Test
+    public void oldestEntriesAreEvictedPastTheLimit() throws IOException {
+        final List<RestOfflineQueue.Entry> dropped = new ArrayList<>();
+        RestOfflineQueue testObject = new RestOfflineQueue( file );
+        testObject.setMaxEntries( 2 );
+        testObject.setReplayListener( new RecordingListener( new ArrayList<RestOfflineQueue.Entry>(), dropped ) );
+
+        for ( int i = 0; i < 3; i++ ) {
+            testObject.offer( RestMethod.POST, "http://host/items/" + i, headers, null, null );
+        }
+
+        assertEquals( 2, testObject.size() );
+        assertEquals( 1, dropped.size() );
+        assertEquals( "http://host/items/0", dropped.get( 0 ).url );
+        assertEquals( "http://host/items/1", new RestOfflineQueue( file ).getEntries().get( 0 ).url );
+    }
+
+    @Test
+    public void tornRecordAtTheEndIsDiscarded() throws IOException {
+        RestOfflineQueue testObject = new RestOfflineQueue( file );
+        testObject.offer( RestMethod.POST, "http://host/items", headers, null, null );
+        long validLength = file.length();
+        testObject.offer( RestMethod.POST, "http://host/other", headers, null, null );
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        raf.setLength( file.length() - 3 );
+        raf.close();
+
+        RestOfflineQueue reopened = new RestOfflineQueue( file );
+
+        assertEquals( 1, reopened.size() );
+        assertEquals( validLength, file.length() );
+        reopened.offer( RestMethod.POST, "http://host/third", headers, null, null );
+        assertEquals( 2, new RestOfflineQueue( file ).size() );
+    }
+
+    @Test
+    public void tornWriteDoesNotHideLaterEntries() throws IOException {
+        final boolean[] failNext = new boolean[1];
+        RestOfflineQueue testObject = new RestOfflineQueue( file ) {
+            @Override
+            void write( FileOutputStream journal, byte[] framed ) throws IOException {
+                if ( failNext[0] ) {
+                    failNext[0] = false;
+                    journal.write( framed, 0, framed.length / 2 );
+                    throw new IOException( "No space left on device" );
+                }
+                super.write( journal, framed );
+            }
+        };
+        testObject.offer( RestMethod.PUT, "http://host/items/1", headers, "1".getBytes( "UTF-8" ), null );
+        failNext[0] = true;
+
+        assertFalse( testObject.offer( RestMethod.PUT, "http://host/items/1", headers, "2".getBytes( "UTF-8" ), null ) );
+        assertTrue( testObject.offer( RestMethod.POST, "http://host/items", headers, "3".getBytes( "UTF-8" ), null ) );
+
+        List<RestOfflineQueue.Entry> entries = new RestOfflineQueue( file ).getEntries();
+        assertEquals( 2, entries.size() );
+        assertArrayEquals( "1".getBytes( "UTF-8" ), entries.get( 0 ).getBody() );
+        assertArrayEquals( "3".getBytes( "UTF-8" ), entries.get( 1 ).getBody() );
+    }
+
+    @Test
+    public void journalIsCompacted() throws IOException {
+        RestOfflineQueue testObject = new RestOfflineQueue( file );
+        byte[] body = new byte[1024];
+        for ( int i = 0; i < 500; i++ ) {
+            testObject.offer( RestMethod.POST, "http://host/items", headers, body, null );
+            testObject.remove( testObject.getEntries().get( 0 ).id );
+        }
+
+        assertEquals( 0, testObject.size() );
+        assertTrue( file.length() < 200 * 1024 );
+    }
+
+    @Test
+    public void replaySendsEntriesInOrderAndStopsOnServerErrors() throws Exception {
+        RestOfflineQueue testObject = new RestOfflineQueue( file );
+        testObject.offer( RestMethod.POST, "http://host/a", headers, "a".getBytes( "UTF-8" ), null );
+        testObject.offer( RestMethod.POST, "http://host/b", headers, null, null );
+        testObject.offer( RestMethod.POST, "http://host/c", headers, null, null );
+        testObject.offer( RestMethod.POST, "http://host/d", headers, null, null );
+        FakeServer server = new FakeServer( 201, 400, 503 );
+        testObject.setConnectionFactory( server );
+        testObject.setDispatcher( new RestDispatcher( Executors.newSingleThreadExecutor(), new DirectExecutor() ) );
+        List<RestOfflineQueue.Entry> replayed = Collections.synchronizedList( new ArrayList<RestOfflineQueue.Entry>() );
+        List<RestOfflineQueue.Entry> dropped = Collections.synchronizedList( new ArrayList<RestOfflineQueue.Entry>() );
+        testObject.setReplayListener( new RecordingListener( replayed, dropped ) );
+
+        testObject.replay();
+        long end = System.currentTimeMillis() + 5000;
+        while ( ( server.requests.size() < 3 || testObject.isReplaying() ) && System.currentTimeMillis() < end ) {
+            Thread.sleep( 10 );
+        }
+
+        assertEquals( "[http://host/a, http://host/b, http://host/c]", server.requests.toString() );
+        assertEquals( "a", server.bodies.get( 0 ) );
+        assertEquals( 1, replayed.size() );
+        assertEquals( 1, dropped.size() );
+        assertEquals( "http://host/b", dropped.get( 0 ).url );
+        assertEquals( 2, testObject.size() );
+        assertEquals( "http://host/c", new RestOfflineQueue( file ).getEntries().get( 0 ).url );
+    }
+
+    @Test
+    public void unreachableMutationIsQueued() throws IOException {
+        RestOfflineQueue queue = new RestOfflineQueue( file );
+        final CountDownLatch errored = new CountDownLatch( 1 );
+        RestFetcher fetcher = new RestFetcher( "http://host/items", RestMethod.POST, headers, "{}", new RestFetcher.IConnectionFactory() {
+            @Override
+            public URLConnection createHttpURLConnection( String url ) throws IOException {
+                throw new IOException( "no route to host" );
+            }
+        } );
+        fetcher.setOfflineQueue( queue );
+        fetcher.onFetchErrorListener = new RestFetcher.OnFetchErrorListener() {
+            @Override
+            public void onFetchError( RestError error ) {
+                errored.countDown();
+            }
+        };
+
+        fetcher.fetch();
+
+        assertEquals( 0, errored.getCount() );
+        assertTrue( fetcher.getCall().isQueuedOffline() );
+        assertEquals( 1, queue.size() );
+        assertArrayEquals( "{}".getBytes( "UTF-8" ), queue.getEntries().get( 0 ).getBody() );
+    }
+
+    @Test
+    public void mutationThatMayHaveReachedTheServerIsNotQueued() throws IOException {
+        RestOfflineQueue queue = new RestOfflineQueue( file );
+        RestFetcher fetcher = new RestFetcher( "http://host/items", RestMethod.POST, headers, "{}", new RestFetcher.IConnectionFactory() {
+            @Override
+            public URLConnection createHttpURLConnection( String url ) throws IOException {
+                return new HttpURLConnection( new URL( url ) ) {
+                    @Override
+                    public void connect() {
+                    }
+
+                    @Override
+                    public OutputStream getOutputStream() {
+                        return new ByteArrayOutputStream();
+                    }
+
+                    @Override
+                    public int getResponseCode() throws IOException {
+                        throw new SocketTimeoutException( "Read timed out" );
+                    }
+
+                    @Override
+                    public void disconnect() {
+                    }
+
+                    @Override
+                    public boolean usingProxy() {
+                        return false;
+                    }
+                };
+            }
+        } );
+        fetcher.setOfflineQueue( queue );
+
+        fetcher.fetch();
+
+        assertFalse( fetcher.getCall().isQueuedOffline() );
+        assertEquals( 0, queue.size() );
+    }
+
+    private static class RecordingListener implements RestOfflineQueue.IReplayListener {
+        private final List<RestOfflineQueue.Entry> replayed;
+        private final List<RestOfflineQueue.Entry> dropped;
+
+        RecordingListener( List<RestOfflineQueue.Entry> replayed, List<RestOfflineQueue.Entry> dropped ) {
+            this.replayed = replayed;
+            this.dropped = dropped;
+        }
+
+        @Override
+        public void onReplayed( RestOfflineQueue.Entry entry, RestResponse response ) {
+            replayed.add( entry );
+        }
+
+        @Override
+        public void onDropped( RestOfflineQueue.Entry entry, RestResponse response ) {
+            dropped.add( entry );
+        }
+    }
+
+    private static class DirectExecutor implements Executor {
+        @Override
+        public void execute( Runnable command ) {
+            command.run();
+        }
+    }
+
+    /**
+     * Answers each connection with the next status code.
+     */
+    private static class FakeServer implements RestFetcher.IConnectionFactory {
+        final List<String> requests = Collections.synchronizedList( new ArrayList<String>() );
+        final List<String> bodies = Collections.synchronizedList( new ArrayList<String>() );
+        private final Queue<Integer> codes = new LinkedList<>();
+
+        FakeServer( Integer... codes ) {
+            Collections.addAll( this.codes, codes );
+        }
+
+        @Override
+        public URLConnection createHttpURLConnection( final String address ) throws IOException {
+            final int code = codes.poll();
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            return new HttpURLConnection( new URL( address ) ) {
+                @Override
+                public void connect() {
+                    requests.add( address );
+                }
+
+                @Override
+                public OutputStream getOutputStream() {
+                    return body;
+                }
+
+                @Override
+                public int getResponseCode() {
+                    bodies.add( new String( body.toByteArray() ) );
+                    return code;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    if ( code >= 400 ) {
+                        throw new IOException( "HTTP " + code );
+                    }
+                    return new ByteArrayInputStream( new byte[0] );
+                }
+
+                @Override
+                public void disconnect() {
+                }
+
+                @Override
+                public boolean usingProxy() {
+                    return false;
+                }
+            };
+        }
+    }
+}
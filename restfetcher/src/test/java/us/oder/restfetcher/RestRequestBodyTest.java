@@ -0,0 +1,87 @@
+package us.oder.restfetcher;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RestRequestBodyTest {
+
+    @Test
+    public void stringBodyIsUtf8WithKnownLength() throws IOException {
+        RestRequestBody body = RestRequestBody.create( "caf\u00e9" );
+
+        assertEquals( 5, body.getContentLength() );
+        assertTrue( body.isRepeatable() );
+        assertArrayEquals( "caf\u00e9".getBytes( "UTF-8" ), write( body ) );
+    }
+
+    @Test
+    public void fileBodyStreamsTheFile() throws IOException {
+        File file = File.createTempFile( "upload", ".bin" );
+        file.deleteOnExit();
+        byte[] content = new byte[20000];
+        for ( int i = 0; i < content.length; i++ ) {
+            content[i] = (byte) i;
+        }
+        FileOutputStream out = new FileOutputStream( file );
+        out.write( content );
+        out.close();
+
+        RestRequestBody body = RestRequestBody.create( file, "image/png" );
+
+        assertEquals( content.length, body.getContentLength() );
+        assertEquals( "image/png", body.getContentType() );
+        assertArrayEquals( content, write( body ) );
+        assertArrayEquals( content, write( body ) );
+    }
+
+    @Test
+    public void streamBodyIsNotRepeatable() throws IOException {
+        RestRequestBody body = RestRequestBody.create( new ByteArrayInputStream( new byte[]{1, 2, 3} ), RestRequestBody.UNKNOWN_LENGTH, null );
+
+        assertFalse( body.isRepeatable() );
+        assertEquals( RestRequestBody.UNKNOWN_LENGTH, body.getContentLength() );
+        assertArrayEquals( new byte[]{1, 2, 3}, write( body ) );
+    }
+
+    @Test
+    public void gzippedStreamingBodyHasUnknownLength() throws IOException {
+        RestRequestBody body = RestRequestBody.create( new RestRequestBody.IBodyWriter() {
+            @Override
+            public void writeTo( OutputStream out ) throws IOException {
+                out.write( "hello hello hello".getBytes( "UTF-8" ) );
+            }
+        }, 17, "text/plain" );
+
+        RestRequestBody gzipped = RestRequestBody.gzip( body );
+
+        assertEquals( RestRequestBody.UNKNOWN_LENGTH, gzipped.getContentLength() );
+        assertEquals( "text/plain", gzipped.getContentType() );
+        GZIPInputStream in = new GZIPInputStream( new ByteArrayInputStream( write( gzipped ) ) );
+        assertEquals( "hello hello hello", RestFetcher.convertInputStreamToString( in ) );
+    }
+
+    @Test
+    public void gzippedInMemoryBodyKeepsItsLength() throws IOException {
+        RestRequestBody gzipped = RestRequestBody.gzip( RestRequestBody.create( "{\"a\":\"aaaaaaaaaaaaaaaaaaaa\"}" ) );
+
+        assertEquals( write( gzipped ).length, gzipped.getContentLength() );
+    }
+
+    private static byte[] write( RestRequestBody body ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo( out );
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,96 @@
+package us.oder.restfetcher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RestRetryPolicyTest {
+
+    private RestRetryPolicy testObject;
+
+    @Before
+    public void setup() {
+        testObject = new RestRetryPolicy();
+        testObject.setInitialBackoffMillis( 100 );
+        testObject.setMaxBackoffMillis( 1000 );
+        testObject.setJitter( 0 );
+    }
+
+    private RestResponse response( int code, String retryAfter ) {
+        Map<String, String> headers = new HashMap<>();
+        if ( retryAfter != null ) {
+            headers.put( "retry-after", retryAfter );
+        }
+        return new RestResponse( code, headers, "" );
+    }
+
+    @Test
+    public void connectionFailuresBackOffExponentially() {
+        testObject.setMaxAttempts( 10 );
+        IOException error = new IOException();
+
+        assertEquals( 100, testObject.getRetryDelayMillis( RestMethod.GET, 1, null, error ) );
+        assertEquals( 200, testObject.getRetryDelayMillis( RestMethod.GET, 2, null, error ) );
+        assertEquals( 400, testObject.getRetryDelayMillis( RestMethod.GET, 3, null, error ) );
+        assertEquals( 1000, testObject.getRetryDelayMillis( RestMethod.GET, 6, null, error ) );
+    }
+
+    @Test
+    public void jitterStaysWithinTheBackoff() {
+        testObject.setJitter( 0.5 );
+        for ( int i = 0; i < 100; i++ ) {
+            long delay = testObject.computeBackoffMillis( 2 );
+            assertTrue( delay >= 100 && delay <= 200 );
+        }
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        testObject.setMaxAttempts( 2 );
+
+        assertTrue( testObject.getRetryDelayMillis( RestMethod.GET, 1, null, new IOException() ) >= 0 );
+        assertEquals( RestRetryPolicy.NO_RETRY, testObject.getRetryDelayMillis( RestMethod.GET, 2, null, new IOException() ) );
+    }
+
+    @Test
+    public void onlyTransientStatusCodesAreRetried() {
+        assertEquals( 100, testObject.getRetryDelayMillis( RestMethod.GET, 1, response( 503, null ), null ) );
+        assertEquals( 100, testObject.getRetryDelayMillis( RestMethod.GET, 1, response( 429, null ), null ) );
+        assertEquals( RestRetryPolicy.NO_RETRY, testObject.getRetryDelayMillis( RestMethod.GET, 1, response( 200, null ), null ) );
+        assertEquals( RestRetryPolicy.NO_RETRY, testObject.getRetryDelayMillis( RestMethod.GET, 1, response( 404, null ), null ) );
+    }
+
+    @Test
+    public void postIsOnlyRetriedWhenOptedIn() {
+        assertEquals( RestRetryPolicy.NO_RETRY, testObject.getRetryDelayMillis( RestMethod.POST, 1, null, new IOException() ) );
+
+        testObject.setRetryNonIdempotent( true );
+
+        assertEquals( 100, testObject.getRetryDelayMillis( RestMethod.POST, 1, null, new IOException() ) );
+    }
+
+    @Test
+    public void retryAfterIsHonored() {
+        assertEquals( 3000, testObject.getRetryDelayMillis( RestMethod.GET, 1, response( 503, "3" ), null ) );
+
+        testObject.setMaxRetryAfterMillis( 2000 );
+
+        assertEquals( RestRetryPolicy.NO_RETRY, testObject.getRetryDelayMillis( RestMethod.GET, 1, response( 503, "3" ), null ) );
+    }
+
+    @Test
+    public void retryAfterAcceptsHttpDates() {
+        long now = 784111772000L; // Sun, 06 Nov 1994 08:49:32 GMT
+
+        assertEquals( 5000, RestRetryPolicy.parseRetryAfterMillis( "Sun, 06 Nov 1994 08:49:37 GMT", now ) );
+        assertEquals( 0, RestRetryPolicy.parseRetryAfterMillis( "Sun, 06 Nov 1994 08:49:00 GMT", now ) );
+        assertEquals( RestRetryPolicy.NO_RETRY, RestRetryPolicy.parseRetryAfterMillis( "soon", now ) );
+        assertEquals( RestRetryPolicy.NO_RETRY, RestRetryPolicy.parseRetryAfterMillis( null, now ) );
+    }
+}
@@ -0,0 +1,84 @@
+package us.oder.restfetcher;
+
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class RestUrlTest {
+
+    @Test
+    public void queryIsSortedByNameAndKeepsRepeatedNamesInOrder() {
+        String url = new RestUrl.Builder( "http://host" ).path( "/items" )
+                .addQueryParameter( "tag", "b" )
+                .addQueryParameter( "page", "2" )
+                .addQueryParameter( "tag", "a" )
+                .build();
+
+        assertEquals( "http://host/items?page=2&tag=b&tag=a", url );
+    }
+
+    @Test
+    public void queryIsEncodedLikeUrlEncoder() throws Exception {
+        String value = "a b&c=d/\u00e9\ud83d\ude00*-._~";
+
+        String url = new RestUrl.Builder( "" ).addQueryParameter( "q", value ).build();
+
+        assertEquals( "?q=" + URLEncoder.encode( value, "UTF-8" ), url );
+    }
+
+    @Test
+    public void queryIsAppendedToAnExistingOne() {
+        String url = new RestUrl.Builder( "http://host" ).path( "/items?fixed=1" ).addQueryParameter( "page", "2" ).build();
+
+        assertEquals( "http://host/items?fixed=1&page=2", url );
+    }
+
+    @Test
+    public void templatePlaceholdersAreFilledAndEncodedAsPathSegments() {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put( "user", "jo smith" );
+        parameters.put( "id", "a/b" );
+
+        String url = new RestUrl.Builder( "http://host" )
+                .path( RestUrl.Template.compile( "/users/{user}/posts/{id}.json" ), parameters )
+                .build();
+
+        assertEquals( "http://host/users/jo%20smith/posts/a%2Fb.json", url );
+    }
+
+    @Test
+    public void dotSegmentValuesAreEncoded() {
+        RestUrl.Template template = RestUrl.Template.compile( "/users/{id}/posts" );
+
+        assertEquals( "http://h/users/%2E%2E/posts",
+                new RestUrl.Builder( "http://h" ).path( template, Collections.singletonMap( "id", ".." ) ).build() );
+        assertEquals( "/users/%2E/posts", template.expand( Collections.singletonMap( "id", "." ) ) );
+        assertEquals( "/users/.../posts", template.expand( Collections.singletonMap( "id", "..." ) ) );
+    }
+
+    @Test
+    public void templatesAreCompiledOnce() {
+        RestUrl.Template template = RestUrl.Template.compile( "/a/{x}/b/{y}" );
+
+        assertSame( template, RestUrl.Template.compile( "/a/{x}/b/{y}" ) );
+        assertEquals( Arrays.asList( "x", "y" ), template.getParameterNames() );
+    }
+
+    @Test
+    public void missingPlaceholderValueIsAnError() {
+        try {
+            RestUrl.Template.compile( "/users/{id}" ).expand( Collections.<String, String>emptyMap() );
+            fail( "expected IllegalArgumentException" );
+        } catch ( IllegalArgumentException e ) {
+            assertEquals( "no value for {id} in /users/{id}", e.getMessage() );
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package us.oder.restfetcher.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+public class ContentEncodingTest {
+
+    private static final String JSON = "{\"items\":[{\"id\":1},{\"id\":2},{\"id\":3},{\"id\":4}]}";
+
+    private byte[] readAll( InputStream in ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        while ( ( read = in.read( buffer, 0, buffer.length ) ) != -1 ) {
+            out.write( buffer, 0, read );
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private byte[] deflate( byte[] data, boolean zlibWrapped ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream( bytes, new Deflater( Deflater.DEFAULT_COMPRESSION, !zlibWrapped ) );
+        out.write( data );
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void gzipRoundTrips() throws IOException {
+        byte[] data = JSON.getBytes( "UTF-8" );
+
+        byte[] compressed = ContentEncoding.gzip( data );
+
+        assertArrayEquals( data, readAll( new GZIPInputStream( new ByteArrayInputStream( compressed ) ) ) );
+        assertArrayEquals( data, readAll( ContentEncoding.decode( new ByteArrayInputStream( compressed ), "GZIP" ) ) );
+    }
+
+    @Test
+    public void decodesZlibWrappedDeflate() throws IOException {
+        byte[] data = JSON.getBytes( "UTF-8" );
+
+        InputStream decoded = ContentEncoding.decode( new ByteArrayInputStream( deflate( data, true ) ), "deflate" );
+
+        assertArrayEquals( data, readAll( decoded ) );
+    }
+
+    @Test
+    public void decodesRawDeflate() throws IOException {
+        byte[] data = JSON.getBytes( "UTF-8" );
+
+        InputStream decoded = ContentEncoding.decode( new ByteArrayInputStream( deflate( data, false ) ), "deflate" );
+
+        assertArrayEquals( data, readAll( decoded ) );
+    }
+
+    @Test
+    public void emptyEncodedBodiesDecodeToNothing() throws IOException {
+        assertArrayEquals( new byte[0], readAll( ContentEncoding.decode( new ByteArrayInputStream( new byte[0] ), "gzip" ) ) );
+        assertArrayEquals( new byte[0], readAll( ContentEncoding.decode( new ByteArrayInputStream( new byte[0] ), "deflate" ) ) );
+    }
+
+    @Test
+    public void unknownEncodingLeavesStreamUntouched() throws IOException {
+        InputStream in = new ByteArrayInputStream( new byte[0] );
+
+        assertSame( in, ContentEncoding.decode( in, null ) );
+        assertSame( in, ContentEncoding.decode( in, "identity" ) );
+        assertSame( in, ContentEncoding.decode( in, "br" ) );
+    }
+}
@@ -0,0 +1,75 @@
+package us.oder.restfetcher.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class GsonRegistryTest {
+
+    static class Monkey {
+        String name;
+    }
+
+    @After
+    public void tearDown() {
+        GsonRegistry.setGson( new Gson() );
+    }
+
+    @Test
+    public void adaptersAreCachedPerClass() {
+        TypeAdapter<Monkey> first = GsonRegistry.getAdapter( Monkey.class );
+
+        assertSame( first, GsonRegistry.getAdapter( Monkey.class ) );
+    }
+
+    @Test
+    public void replacingGsonDropsCachedAdapters() {
+        TypeAdapter<Monkey> first = GsonRegistry.getAdapter( Monkey.class );
+
+        GsonRegistry.setGson( new Gson() );
+
+        assertNotSame( first, GsonRegistry.getAdapter( Monkey.class ) );
+    }
+
+    @Test
+    public void parsesStringsAndReaders() {
+        assertEquals( "cracker", GsonRegistry.fromJson( "{\"name\":\"cracker\"}", Monkey.class ).name );
+        assertEquals( "cracker", GsonRegistry.fromJson( new StringReader( "{\"name\":\"cracker\"}" ), Monkey.class ).name );
+    }
+
+    @Test
+    public void registeredAdaptersWin() {
+        GsonRegistry.registerAdapter( Monkey.class, new TypeAdapter<Monkey>() {
+            @Override
+            public void write( JsonWriter out, Monkey value ) throws IOException {
+                out.value( value.name );
+            }
+
+            @Override
+            public Monkey read( JsonReader in ) throws IOException {
+                Monkey monkey = new Monkey();
+                monkey.name = in.nextString().toUpperCase();
+                return monkey;
+            }
+        } );
+
+        assertEquals( "CRACKER", GsonRegistry.fromJson( "\"cracker\"", Monkey.class ).name );
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void malformedJsonThrows() {
+        GsonRegistry.fromJson( "{\"name\":", Monkey.class );
+    }
+}
@@ -56,4 +56,62 @@ public class JsonScrubberTest {
 
         assertEquals(expectedString, actualString);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void scrubberHidesJsonFieldInsideArrays() {
+        String testString = "{\"users\":[{\"name\":\"a\",\"password\":\"one\"},{\"name\":\"b\",\"password\":\"two\"}]}";
+        String[] fieldsToScrub = new String[] {"Password"};
+        String expectedString = "{\"users\":[{\"name\":\"a\",\"password\":\"************\"},{\"name\":\"b\",\"password\":\"************\"}]}";
+
+        JsonScrubber testObject = new JsonScrubber(fieldsToScrub);
+
+        assertEquals(expectedString, testObject.scrub(testString));
+    }
+
+    @Test
+    public void scrubberHandlesTopLevelArrays() {
+        String testString = "[{\"token\":\"abc\"},[{\"TOKEN\":{\"nested\":true}}],3]";
+        String[] fieldsToScrub = new String[] {"token"};
+        String expectedString = "[{\"token\":\"************\"},[{\"TOKEN\":\"************\"}],3]";
+
+        JsonScrubber testObject = new JsonScrubber(fieldsToScrub);
+
+        assertEquals(expectedString, testObject.scrub(testString));
+    }
+
+    @Test
+    public void scrubberPreservesValuesItDoesNotScrub() {
+        String testString = "{\"count\":1,\"ratio\":0.25,\"big\":12345678901234567890,\"ok\":false,\"missing\":null,\"text\":\"a=b&c\"}";
+        String[] fieldsToScrub = new String[] {"password"};
+
+        JsonScrubber testObject = new JsonScrubber(fieldsToScrub);
+
+        assertEquals(testString, testObject.scrub(testString));
+    }
+
+    @Test
+    public void scrubberReturnsOriginalStringOnTrailingGarbage() {
+        String testString = "{\"password\":\"secret\"} trailing";
+        String[] fieldsToScrub = new String[] {"password"};
+
+        JsonScrubber testObject = new JsonScrubber(fieldsToScrub);
+
+        assertEquals(testString, testObject.scrub(testString));
+    }
+
+    @Test
+    public void scrubberHidesFieldsInLenientJson() {
+        JsonScrubber testObject = new JsonScrubber(new String[] {"password"});
+
+        assertEquals("{\"password\":\"************\"}", testObject.scrub("{password:'secret'}"));
+        assertEquals("{\"password\":\"************\",\"name\":\"dude\"}", testObject.scrub("{'password':'secret','name':'dude'}"));
+    }
+
+    @Test
+    public void scrubberReturnsEmptyAndNullInputsUnchanged() {
+        JsonScrubber testObject = new JsonScrubber(new String[] {"password"});
+
+        assertEquals("", testObject.scrub(""));
+        assertEquals(null, testObject.scrub(null));
+    }
+}